@@ -0,0 +1,88 @@
+package com.example.jean.jcplayer;
+
+import android.os.Parcel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes and reads a playlist with Java serialization, {@link JcAudioCodec} and a parcel, the
+ * three ways audios leave the process or the view.
+ */
+@State(Scope.Benchmark)
+public class JcAudioSerializationBenchmark {
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    private ArrayList<JcAudio> audios;
+    private byte[] serialized;
+    private byte[] encoded;
+    private Parcel parcel;
+
+    @Setup
+    public void setUp() throws IOException {
+        audios = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            // Albums share titles and url prefixes, like real playlists.
+            audios.add(new JcAudio("Album " + (i / 12) + " - Track " + (i % 12),
+                    "https://cdn.example.com/audio/album" + (i / 12) + "/track" + (i % 12) + ".mp3", i, i, Origin.URL));
+        }
+        serialized = serialize();
+        encoded = JcAudioCodec.encode(audios);
+        parcel = Parcel.obtain();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(audios);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return JcAudioCodec.encode(audios);
+    }
+
+    @Benchmark
+    public List<JcAudio> codecDecode() throws IOException {
+        return JcAudioCodec.decode(encoded);
+    }
+
+    @Benchmark
+    public List<JcAudio> parcelWriteRead() {
+        parcel.recycle();
+        for (JcAudio audio : audios) {
+            audio.writeToParcel(parcel, 0);
+        }
+        parcel.setDataPosition(0);
+        List<JcAudio> read = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            read.add(JcAudio.CREATOR.createFromParcel(parcel));
+        }
+        return read;
+    }
+}
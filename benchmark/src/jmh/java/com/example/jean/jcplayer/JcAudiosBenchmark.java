@@ -0,0 +1,50 @@
+package com.example.jean.jcplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sorts a playlist and generates its titles, as {@link JcPlayerView} does when it is given a
+ * new playlist.
+ */
+@State(Scope.Benchmark)
+public class JcAudiosBenchmark {
+    private static final String TRACK_NUMBER = "Track";
+
+    @Param({"10", "1000", "100000"})
+    int size;
+
+    private List<JcAudio> playlist;
+
+    @Setup
+    public void setUp() {
+        playlist = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            playlist.add(JcAudio.createFromURL("https://cdn.example.com/audio/" + i + ".mp3"));
+        }
+    }
+
+    @Benchmark
+    public List<JcAudio> sort() {
+        JcAudios.sort(playlist);
+        return playlist;
+    }
+
+    @Benchmark
+    public List<JcAudio> generateTrackNumberTitles() {
+        JcAudios.generateTitles(playlist, TRACK_NUMBER, TRACK_NUMBER);
+        return playlist;
+    }
+
+    @Benchmark
+    public List<JcAudio> generateCustomTitles() {
+        JcAudios.generateTitles(playlist, "My playlist", TRACK_NUMBER);
+        return playlist;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.jean.jcplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Finds audios in a {@link JcPlaylist} and moves the current position, as the player does on
+ * every play, next and previous.
+ */
+@State(Scope.Benchmark)
+public class JcPlaylistBenchmark {
+    @Param({"10", "1000", "100000", "1000000"})
+    int size;
+
+    private JcPlaylist playlist;
+    private JcAudio[] audios;
+    private int[] order;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<JcAudio> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new JcAudio("Audio " + i, "audio" + i + ".mp3", i, i, Origin.URL));
+        }
+        audios = list.toArray(new JcAudio[size]);
+
+        // Random audios, drawn up front so that drawing them isn't measured.
+        Random random = new Random(size);
+        order = new int[1024];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = random.nextInt(size);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPlaylist() {
+        // The remove and add benchmark shuffles the audios, start each iteration from the same order.
+        playlist = new JcPlaylist(Arrays.asList(audios));
+    }
+
+    private JcAudio nextAudio() {
+        next = (next + 1) & (order.length - 1);
+        return audios[order[next]];
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return playlist.contains(nextAudio());
+    }
+
+    @Benchmark
+    public int indexOf() {
+        return playlist.indexOf(nextAudio());
+    }
+
+    @Benchmark
+    public JcAudio getById() {
+        return playlist.getById(nextAudio().getId());
+    }
+
+    @Benchmark
+    public JcAudio setCurrentAndGetNext() {
+        playlist.setCurrent(nextAudio());
+        return playlist.getNext();
+    }
+
+    @Benchmark
+    public JcAudio setCurrentAndGetPrevious() {
+        playlist.setCurrent(nextAudio());
+        return playlist.getPrevious();
+    }
+
+    /**
+     * Compaction is amortized over as many operations as there are audios.
+     */
+    @Benchmark
+    public boolean removeAndAdd() {
+        JcAudio audio = nextAudio();
+        playlist.remove(audio);
+        return playlist.add(audio);
+    }
+}
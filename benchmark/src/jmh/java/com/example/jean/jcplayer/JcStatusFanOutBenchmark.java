@@ -0,0 +1,117 @@
+package com.example.jean.jcplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The tick of {@link JcPlayerService}: every service listener gets the position and every
+ * status listener gets the shared {@link JcStatus}, updated before each call. The media player
+ * is replaced by a position that moves on each tick.
+ */
+@State(Scope.Benchmark)
+public class JcStatusFanOutBenchmark {
+    @Param({"1", "4", "16"})
+    int listenerCount;
+
+    private final List<JcPlayerListeners.JcPlayerViewServiceListener> serviceListeners = new ArrayList<>();
+    private final List<JcPlayerListeners.JcPlayerViewStatusListener> statusListeners = new ArrayList<>();
+    private final JcStatus jcStatus = new JcStatus();
+    private final FakeMediaPlayer mediaPlayer = new FakeMediaPlayer();
+
+    private static class FakeMediaPlayer {
+        int position;
+
+        int getCurrentPosition() {
+            return position;
+        }
+
+        int getDuration() {
+            return 240000;
+        }
+    }
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        jcStatus.setJcAudio(new JcAudio("Audio", "audio.mp3", 1, 1, Origin.URL));
+        for (int i = 0; i < listenerCount; i++) {
+            serviceListeners.add(new JcPlayerListeners.JcPlayerViewServiceListener() {
+                @Override
+                public void onPreparedAudio(String audioName, int duration) {
+                }
+
+                @Override
+                public void onCompletedAudio() {
+                }
+
+                @Override
+                public void onPaused() {
+                }
+
+                @Override
+                public void onContinueAudio() {
+                }
+
+                @Override
+                public void onPlaying() {
+                }
+
+                @Override
+                public void onTimeChanged(long currentTime) {
+                    blackhole.consume(currentTime);
+                }
+
+                @Override
+                public void updateTitle(String title) {
+                }
+            });
+            statusListeners.add(new JcPlayerListeners.JcPlayerViewStatusListener() {
+                @Override
+                public void onPausedStatus(JcStatus jcStatus) {
+                }
+
+                @Override
+                public void onContinueAudioStatus(JcStatus jcStatus) {
+                }
+
+                @Override
+                public void onPlayingStatus(JcStatus jcStatus) {
+                }
+
+                @Override
+                public void onTimeChangedStatus(JcStatus jcStatus) {
+                    blackhole.consume(jcStatus.getCurrentPosition());
+                }
+
+                @Override
+                public void onCompletedAudioStatus(JcStatus jcStatus) {
+                }
+
+                @Override
+                public void onPreparedAudioStatus(JcStatus jcStatus) {
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public void tick() {
+        mediaPlayer.position += 200;
+        for (JcPlayerListeners.JcPlayerViewServiceListener jcPlayerServiceListener : serviceListeners) {
+            jcPlayerServiceListener.onTimeChanged(mediaPlayer.getCurrentPosition());
+        }
+
+        for (JcPlayerListeners.JcPlayerViewStatusListener jcPlayerViewStatusListener : statusListeners) {
+            jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+            jcStatus.setDuration(mediaPlayer.getDuration());
+            jcStatus.setCurrentPosition(mediaPlayer.getCurrentPosition());
+            jcPlayerViewStatusListener.onTimeChangedStatus(jcStatus);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.jean.jcplayer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Formats the position shown by {@link JcPlayerView} on every tick.
+ */
+@State(Scope.Thread)
+public class JcTimeFormatBenchmark {
+    private long position;
+    private final char[] buffer = new char[JcTimeFormat.MAX_LENGTH];
+
+    @Benchmark
+    public String format() {
+        // Walks through an hour, so that both one and two digit values are formatted.
+        position = (position + 1001) % 3600000;
+        return JcTimeFormat.format(position);
+    }
+
+    /**
+     * What {@link JcPlayerView} does on each frame, into a reused buffer.
+     */
+    @Benchmark
+    public int formatIntoBuffer() {
+        position = (position + 1001) % 3600000;
+        return JcTimeFormat.format(position, buffer);
+    }
+}
@@ -0,0 +1,101 @@
+package android.os;
+
+import java.util.Arrays;
+
+/**
+ * Fake of the Android class, for the benchmarks. Writes values to a growing byte array like
+ * the native parcel does: numbers aligned on 4 bytes and strings as UTF-16 with their length.
+ */
+public final class Parcel {
+    private byte[] data = new byte[256];
+    private int dataSize;
+    private int dataPosition;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        dataSize = 0;
+        dataPosition = 0;
+    }
+
+    public int dataSize() {
+        return dataSize;
+    }
+
+    public void setDataPosition(int position) {
+        dataPosition = position;
+    }
+
+    public void writeByte(byte value) {
+        writeInt(value);
+    }
+
+    public byte readByte() {
+        return (byte) readInt();
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        data[dataPosition++] = (byte) value;
+        data[dataPosition++] = (byte) (value >>> 8);
+        data[dataPosition++] = (byte) (value >>> 16);
+        data[dataPosition++] = (byte) (value >>> 24);
+        dataSize = Math.max(dataSize, dataPosition);
+    }
+
+    public int readInt() {
+        return (data[dataPosition++] & 0xFF)
+                | (data[dataPosition++] & 0xFF) << 8
+                | (data[dataPosition++] & 0xFF) << 16
+                | (data[dataPosition++] & 0xFF) << 24;
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+
+    public long readLong() {
+        return (readInt() & 0xFFFFFFFFL) | (long) readInt() << 32;
+    }
+
+    public void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(value.length());
+        ensureCapacity(value.length() * 2 + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            data[dataPosition++] = (byte) c;
+            data[dataPosition++] = (byte) (c >>> 8);
+        }
+        dataPosition = (dataPosition + 3) & ~3;
+        dataSize = Math.max(dataSize, dataPosition);
+    }
+
+    public String readString() {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ((data[dataPosition++] & 0xFF) | (data[dataPosition++] & 0xFF) << 8);
+        }
+        dataPosition = (dataPosition + 3) & ~3;
+        return new String(chars);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (dataPosition + extra > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, dataPosition + extra));
+        }
+    }
+}
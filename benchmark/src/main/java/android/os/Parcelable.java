@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * Fake of the Android interface, for the benchmarks.
+ */
+public interface Parcelable {
+    int describeContents();
+
+    void writeToParcel(Parcel parcel, int flags);
+
+    interface Creator<T> {
+        T createFromParcel(Parcel parcel);
+
+        T[] newArray(int size);
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.jean.jcplayer;
 
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.annotation.RawRes;
 
 import java.io.Serializable;
@@ -8,7 +10,10 @@ import java.io.Serializable;
  * Created by jean on 27/06/16.
  */
 
-public class JcAudio implements Serializable {
+public class JcAudio implements Serializable, Parcelable {
+    // Fixed so that adding fields or methods doesn't break audios serialized before.
+    private static final long serialVersionUID = 1L;
+
     private long id;
     private String title;
     private int position;
@@ -78,6 +83,40 @@ public class JcAudio implements Serializable {
         this.origin = origin;
     }
 
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Writes the fields one by one, see {@link JcAudioCodec} to write many audios at once.
+     */
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeLong(id);
+        parcel.writeInt(position);
+        parcel.writeByte(JcAudioCodec.originToByte(origin));
+        parcel.writeString(title);
+        parcel.writeString(path);
+    }
+
+    public static final Creator<JcAudio> CREATOR = new Creator<JcAudio>() {
+        @Override
+        public JcAudio createFromParcel(Parcel parcel) {
+            long id = parcel.readLong();
+            int position = parcel.readInt();
+            Origin origin = JcAudioCodec.originFromByte(parcel.readByte());
+            String title = parcel.readString();
+            String path = parcel.readString();
+            return new JcAudio(title, path, id, position, origin);
+        }
+
+        @Override
+        public JcAudio[] newArray(int size) {
+            return new JcAudio[size];
+        }
+    };
+
     public static JcAudio createFromRaw(@RawRes int rawId) {
         return new JcAudio(String.valueOf(rawId), String.valueOf(rawId), Origin.RAW);
     }
@@ -0,0 +1,195 @@
+package com.example.jean.jcplayer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format for lists of {@link JcAudio}, to persist a playlist or send it
+ * somewhere without Java serialization.
+ * <p>
+ * Numbers are written as variable length integers and the origin as one byte. Titles and
+ * paths are written once: the next occurrences of a string are a reference to the first one.
+ * A new string only stores what differs from the previous title or path, since audios of the
+ * same album or server share most of it.
+ */
+public final class JcAudioCodec {
+    private static final int FORMAT_VERSION = 1;
+
+    // String references: null, a new string, or (index + FIRST_INDEX) of a string written
+    // before. A new string is written as the length of the prefix it shares with the previous
+    // value of the same field, then the rest of it.
+    private static final int NULL_STRING = 0;
+    private static final int NEW_STRING = 1;
+    private static final int FIRST_INDEX = 2;
+
+    private static final Origin[] ORIGINS = Origin.values();
+    private static final byte NULL_ORIGIN = -1;
+
+    private JcAudioCodec() {
+    }
+
+    public static byte[] encode(List<JcAudio> audios) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(audios.size() * 16 + 8);
+        try {
+            write(new DataOutputStream(bytes), audios);
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw.
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static List<JcAudio> decode(byte[] bytes) throws IOException {
+        return read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    public static void write(DataOutput out, List<JcAudio> audios) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        writeVarLong(out, audios.size());
+
+        Map<String, Integer> strings = new HashMap<>(audios.size() * 4);
+        String previousTitle = "";
+        String previousPath = "";
+        for (JcAudio audio : audios) {
+            writeVarLong(out, zigZag(audio.getId()));
+            writeVarLong(out, zigZag(audio.getPosition()));
+            out.writeByte(originToByte(audio.getOrigin()));
+            writeString(out, audio.getTitle(), previousTitle, strings);
+            writeString(out, audio.getPath(), previousPath, strings);
+            if (audio.getTitle() != null) {
+                previousTitle = audio.getTitle();
+            }
+            if (audio.getPath() != null) {
+                previousPath = audio.getPath();
+            }
+        }
+    }
+
+    public static List<JcAudio> read(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unknown JcAudio format version " + version);
+        }
+
+        long size = readVarLong(in);
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Invalid audio count " + size);
+        }
+
+        // Don't trust the count for the allocation, the data may be truncated.
+        List<JcAudio> audios = new ArrayList<>((int) Math.min(size, 1024));
+        List<String> strings = new ArrayList<>();
+        String previousTitle = "";
+        String previousPath = "";
+        for (int i = 0; i < size; i++) {
+            long id = unZigZag(readVarLong(in));
+            int position = (int) unZigZag(readVarLong(in));
+            byte originByte = in.readByte();
+            if (originByte != NULL_ORIGIN && (originByte < 0 || originByte >= ORIGINS.length)) {
+                throw new IOException("Unknown origin " + originByte);
+            }
+            Origin origin = originFromByte(originByte);
+            String title = readString(in, previousTitle, strings);
+            String path = readString(in, previousPath, strings);
+            audios.add(new JcAudio(title, path, id, position, origin));
+            if (title != null) {
+                previousTitle = title;
+            }
+            if (path != null) {
+                previousPath = path;
+            }
+        }
+        return audios;
+    }
+
+    static byte originToByte(Origin origin) {
+        return origin == null ? NULL_ORIGIN : (byte) origin.ordinal();
+    }
+
+    static Origin originFromByte(byte value) {
+        return value == NULL_ORIGIN ? null : ORIGINS[value];
+    }
+
+    private static void writeString(DataOutput out, String value, String previous, Map<String, Integer> strings)
+            throws IOException {
+        if (value == null) {
+            writeVarLong(out, NULL_STRING);
+            return;
+        }
+
+        Integer index = strings.get(value);
+        if (index != null) {
+            writeVarLong(out, index + FIRST_INDEX);
+        } else {
+            strings.put(value, strings.size());
+            int prefix = 0;
+            int maxPrefix = Math.min(value.length(), previous.length());
+            while (prefix < maxPrefix && value.charAt(prefix) == previous.charAt(prefix)) {
+                prefix++;
+            }
+            writeVarLong(out, NEW_STRING);
+            writeVarLong(out, prefix);
+            out.writeUTF(value.substring(prefix));
+        }
+    }
+
+    private static String readString(DataInput in, String previous, List<String> strings) throws IOException {
+        int reference = (int) readVarLong(in);
+        if (reference == NULL_STRING) {
+            return null;
+        }
+        if (reference == NEW_STRING) {
+            long prefix = readVarLong(in);
+            if (prefix > previous.length()) {
+                throw new IOException("Invalid prefix length " + prefix);
+            }
+            String value = previous.substring(0, (int) prefix).concat(in.readUTF());
+            strings.add(value);
+            return value;
+        }
+
+        int index = reference - FIRST_INDEX;
+        if (index < 0 || index >= strings.size()) {
+            throw new IOException("Reference to unknown string " + index);
+        }
+        return strings.get(index);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    // Keeps -1, the id and position of audios not added to a playlist yet, on one byte.
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
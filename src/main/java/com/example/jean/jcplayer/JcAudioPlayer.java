@@ -4,42 +4,62 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Parcelable;
+import android.os.SystemClock;
+import android.support.v4.media.session.MediaSessionCompat;
 
 import com.example.jean.jcplayer.JcPlayerExceptions.AudioListNullPointerException;
 
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
 
 /**
  * Created by jean on 12/07/16.
+ * <p>
+ * The playlist and the play order aren't thread-safe: they are only changed on the main thread.
+ * Callbacks of the service arrive on its playback thread and are posted here first.
  */
 
 class JcAudioPlayer {
     private JcPlayerService jcPlayerService;
     private JcPlayerView.JcPlayerViewServiceListener listener;
+    private JcPlayerView.JcPlayerViewServiceListener notificationListener;
     private JcPlayerView.OnInvalidPathListener invalidPathListener;
     private JcPlayerView.JcPlayerViewStatusListener statusListener;
+    private final List<JcSubscription> subscriptions = new ArrayList<>(); // Added to the service once bound.
     private JcNotificationPlayerService jcNotificationPlayer;
-    private List<JcAudio> playlist;
+    private JcPlaylist playlist;
+    private JcPlayOrder playOrder;
+    private int playlistHandle = JcPlaylistStore.NO_HANDLE;
     private JcAudio currentJcAudio;
-    private int currentPositionList;
     private Context context;
     private static JcAudioPlayer instance = null;
     private boolean mBound = false;
     private boolean playing;
     private boolean paused;
-    private int position = 1;
-    private ConnectedListener connectedListener;
-
-    interface ConnectedListener {
-
-        void connected();
-    }
+    private boolean gaplessEnabled;
+    private boolean mediaSessionEnabled;
+    private long urlCacheMaxBytes;
+    private int prefetchAudiosAhead = JcPrefetcher.DEFAULT_AUDIOS_AHEAD;
+    private long prefetchByteBudget = JcPrefetcher.DEFAULT_BYTE_BUDGET;
+    private long adaptiveStartLeadTime;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final JcPendingCommands pendingCommands = new JcPendingCommands(); // Until the service is bound.
+    private final long createdAt;
+    private long boundAt;
 
     public JcAudioPlayer(Context context, List<JcAudio> playlist, JcPlayerView.JcPlayerViewServiceListener listener) {
+        this.createdAt = SystemClock.elapsedRealtime();
         this.context = context;
-        this.playlist = playlist;
+        this.playlist = playlist instanceof JcPlaylist ? (JcPlaylist) playlist : new JcPlaylist(playlist);
+        this.playOrder = new JcPlayOrder(this.playlist);
         this.listener = listener;
         instance = JcAudioPlayer.this;
         this.jcNotificationPlayer = new JcNotificationPlayerService(context);
@@ -52,8 +72,8 @@ class JcAudioPlayer {
     }
 
     public void registerNotificationListener(JcPlayerView.JcPlayerViewServiceListener notificationListener) {
-        this.listener = notificationListener;
-        if (jcNotificationPlayer != null) {
+        this.notificationListener = notificationListener;
+        if (jcPlayerService != null) {
             jcPlayerService.registerNotificationListener(notificationListener);
         }
     }
@@ -79,28 +99,104 @@ class JcAudioPlayer {
         }
     }
 
+    /**
+     * @see JcPlayerService#subscribe(JcPlayerView.JcPlayerViewStatusListener, int, long, Executor)
+     */
+    public JcSubscription subscribe(JcPlayerView.JcPlayerViewStatusListener statusListener, int eventTypes,
+                                    long minTimeInterval, Executor executor) {
+        JcSubscription subscription = new JcSubscription(statusListener, eventTypes, minTimeInterval,
+                executor, JcSubscription.DEFAULT_MAILBOX_CAPACITY, JcClock.SYSTEM);
+        subscriptions.add(subscription);
+        if (jcPlayerService != null) {
+            jcPlayerService.addSubscription(subscription);
+        }
+        return subscription;
+    }
+
     public static JcAudioPlayer getInstance() {
         return instance;
     }
 
-    public void lazyPlayAudio(final JcAudio audio) {
-        connectedListener = new ConnectedListener() {
-            @Override
-            public void connected() {
-                playAudio(audio);
-            }
-        };
+    /**
+     * Run the command now if the service is bound, or once it is.
+     *
+     * @param type one of the {@link JcPendingCommands} types, to drop the commands it replaces.
+     */
+    private void send(int type, Runnable command) {
+        if (jcPlayerService != null) {
+            command.run();
+        } else {
+            JcTrace.instant("JcAudioPlayer.bufferCommand");
+            pendingCommands.add(type, command);
+        }
     }
 
     public void playAudio(JcAudio JcAudio) throws AudioListNullPointerException {
+        JcTrace.instant("JcAudioPlayer.playAudio");
         if (playlist == null || playlist.size() == 0) {
             throw new AudioListNullPointerException();
         }
         currentJcAudio = JcAudio;
-        jcPlayerService.play(currentJcAudio);
+        final JcAudio playedJcAudio = currentJcAudio;
+        send(JcPendingCommands.PLAY, new Runnable() {
+            @Override
+            public void run() {
+                jcPlayerService.play(playedJcAudio);
+            }
+        });
+        updatePositionAudioList();
+        prepareUpcomingAudios();
+        playing = true;
+        paused = false;
+    }
+
+    /**
+     * Play the audio the service saved before the app was closed, from the saved position.
+     *
+     * @return false if nothing was saved, the audio isn't in the playlist anymore, the service
+     * isn't bound yet or the saved state is still being read. In the last two cases the audio
+     * is resumed once it is, without blocking the main thread meanwhile.
+     */
+    public boolean resumeAudio() {
+        JcTrace.instant("JcAudioPlayer.resumeAudio");
+        if (jcPlayerService == null) {
+            pendingCommands.add(JcPendingCommands.PLAY, new Runnable() {
+                @Override
+                public void run() {
+                    resumeAudio();
+                }
+            });
+            return false;
+        }
+
+        if (!jcPlayerService.isResumePointLoaded()) {
+            jcPlayerService.whenResumePointLoaded(new Runnable() {
+                @Override
+                public void run() {
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            resumeAudio();
+                        }
+                    });
+                }
+            });
+            return false;
+        }
+
+        JcResumePoint resumePoint = jcPlayerService.getResumePoint();
+        JcAudio jcAudio = resumePoint != null ? playlist.getById(resumePoint.getAudioId()) : null;
+        if (jcAudio == null) {
+            return false;
+        }
+
+        currentJcAudio = jcAudio;
+        jcPlayerService.play(currentJcAudio, resumePoint.getPosition());
         updatePositionAudioList();
+        prepareUpcomingAudios();
         playing = true;
         paused = false;
+        return true;
     }
 
     private void initService() {
@@ -112,53 +208,60 @@ class JcAudioPlayer {
     }
 
     public void nextAudio() throws AudioListNullPointerException {
+        JcTrace.instant("JcAudioPlayer.nextAudio");
         if (playlist == null || playlist.size() == 0) {
             throw new AudioListNullPointerException();
         } else {
             if (currentJcAudio != null) {
-                try {
-                    JcAudio nextJcAudio = playlist.get(currentPositionList + position);
-                    this.currentJcAudio = nextJcAudio;
-                    jcPlayerService.stop();
-                    jcPlayerService.play(nextJcAudio);
-
-                } catch (IndexOutOfBoundsException e) {
-                    playAudio(playlist.get(0));
-                    e.printStackTrace();
-                }
+                final JcAudio nextJcAudio = playOrder.next();
+                this.currentJcAudio = nextJcAudio;
+                send(JcPendingCommands.PLAY, new Runnable() {
+                    @Override
+                    public void run() {
+                        jcPlayerService.stop();
+                        jcPlayerService.play(nextJcAudio);
+                    }
+                });
             }
 
-            updatePositionAudioList();
+            prepareUpcomingAudios();
             playing = true;
             paused = false;
         }
     }
 
     public void previousAudio() throws AudioListNullPointerException {
+        JcTrace.instant("JcAudioPlayer.previousAudio");
         if (playlist == null || playlist.size() == 0) {
             throw new AudioListNullPointerException();
         } else {
             if (currentJcAudio != null) {
-                try {
-                    JcAudio previousJcAudio = playlist.get(currentPositionList - position);
-                    this.currentJcAudio = previousJcAudio;
-                    jcPlayerService.stop();
-                    jcPlayerService.play(previousJcAudio);
-
-                } catch (IndexOutOfBoundsException e) {
-                    playAudio(playlist.get(0));
-                    e.printStackTrace();
-                }
+                final JcAudio previousJcAudio = playOrder.previous();
+                this.currentJcAudio = previousJcAudio;
+                send(JcPendingCommands.PLAY, new Runnable() {
+                    @Override
+                    public void run() {
+                        jcPlayerService.stop();
+                        jcPlayerService.play(previousJcAudio);
+                    }
+                });
             }
 
-            updatePositionAudioList();
+            prepareUpcomingAudios();
             playing = true;
             paused = false;
         }
     }
 
     public void pauseAudio() {
-        jcPlayerService.pause(currentJcAudio);
+        JcTrace.instant("JcAudioPlayer.pauseAudio");
+        final JcAudio pausedJcAudio = currentJcAudio;
+        send(JcPendingCommands.PAUSE, new Runnable() {
+            @Override
+            public void run() {
+                jcPlayerService.pause(pausedJcAudio);
+            }
+        });
         paused = true;
         playing = false;
     }
@@ -186,35 +289,242 @@ class JcAudioPlayer {
         jcNotificationPlayer.updateNotification();
     }
 
-    public void seekTo(int time) {
+    /**
+     * @return how many times the notification was posted during the last minute.
+     */
+    public int getNotificationPostsPerMinute() {
+        return jcNotificationPlayer.getPostsPerMinute();
+    }
+
+    /**
+     * @return how many times the notification was posted since the player was created.
+     */
+    public long getNotificationPostCount() {
+        return jcNotificationPlayer.getPostCount();
+    }
+
+    public void seekTo(final int time) {
+        JcTrace.instant("JcAudioPlayer.seekTo");
+        send(JcPendingCommands.SEEK, new Runnable() {
+            @Override
+            public void run() {
+                jcPlayerService.seekTo(time);
+            }
+        });
+    }
+
+    public void previewSeekTo(final int time) {
+        send(JcPendingCommands.SEEK, new Runnable() {
+            @Override
+            public void run() {
+                jcPlayerService.previewSeekTo(time);
+            }
+        });
+    }
+
+    public void setGaplessEnabled(boolean gaplessEnabled) {
+        this.gaplessEnabled = gaplessEnabled;
         if (jcPlayerService != null) {
-            jcPlayerService.seekTo(time);
+            jcPlayerService.setGaplessEnabled(gaplessEnabled);
+            prepareUpcomingAudios();
         }
     }
 
-    private void updatePositionAudioList() {
-        for (int i = 0; i < playlist.size(); i++) {
-            if (playlist.get(i).getId() == currentJcAudio.getId()) {
-                this.currentPositionList = i;
+    /**
+     * Publish the playback to a media session, the lockscreen and the system media controls
+     * show it too. The notification is linked to the session.
+     */
+    public void setMediaSessionEnabled(boolean mediaSessionEnabled) {
+        this.mediaSessionEnabled = mediaSessionEnabled;
+        if (jcPlayerService != null) {
+            jcPlayerService.setMediaSessionEnabled(mediaSessionEnabled);
+        }
+    }
+
+    public boolean isMediaSessionEnabled() {
+        return mediaSessionEnabled;
+    }
+
+    /**
+     * @return the token of the media session, or null if it is disabled or not created yet.
+     */
+    MediaSessionCompat.Token getMediaSessionToken() {
+        return jcPlayerService != null ? jcPlayerService.getMediaSessionToken() : null;
+    }
+
+    /**
+     * @param maxCacheBytes size of the url cache, or 0 to disable it.
+     */
+    public void setUrlCacheSize(long maxCacheBytes) {
+        this.urlCacheMaxBytes = maxCacheBytes;
+        if (jcPlayerService != null) {
+            applyUrlCacheSize();
+            prepareUpcomingAudios();
+        }
+    }
+
+    private void applyUrlCacheSize() {
+        if (urlCacheMaxBytes > 0) {
+            jcPlayerService.enableUrlCache(urlCacheMaxBytes);
+        } else {
+            jcPlayerService.disableUrlCache();
+        }
+    }
+
+    /**
+     * Hand the audio that follows the current one to the service, so it can be chained
+     * when gapless playback is on.
+     */
+    private void prepareUpcomingAudios() {
+        if (jcPlayerService == null || currentJcAudio == null || playlist.isEmpty()) {
+            return;
+        }
+
+        if (gaplessEnabled) {
+            jcPlayerService.setNextAudio(playOrder.peek(1));
+        }
+
+        if (urlCacheMaxBytes > 0 && prefetchAudiosAhead > 0) {
+            List<JcAudio> upcomingAudios = new ArrayList<>(prefetchAudiosAhead);
+            for (int i = 1; i <= prefetchAudiosAhead && i < playlist.size() + playOrder.getQueueSize(); i++) {
+                JcAudio upcomingAudio = playOrder.peek(i);
+                if (upcomingAudio != null) {
+                    upcomingAudios.add(upcomingAudio);
+                }
             }
+            jcPlayerService.prefetch(upcomingAudios);
+        }
+    }
+
+    /**
+     * Play the playlist in a random order, starting from the current audio. The order is drawn
+     * as it plays, so shuffling doesn't depend on the playlist size.
+     */
+    public void setShuffleEnabled(boolean shuffleEnabled) {
+        if (shuffleEnabled != playOrder.isShuffled()) {
+            playOrder.setShuffled(shuffleEnabled, new Random());
+            prepareUpcomingAudios();
+        }
+    }
+
+    public boolean isShuffleEnabled() {
+        return playOrder.isShuffled();
+    }
+
+    /**
+     * Play this audio after the current one, before the rest of the playlist. Queued audios play
+     * in the order they were added.
+     */
+    public void addToUpNext(JcAudio jcAudio) {
+        playOrder.enqueue(jcAudio);
+        prepareUpcomingAudios();
+    }
+
+    public void clearUpNext() {
+        playOrder.clearQueue();
+        prepareUpcomingAudios();
+    }
+
+    /**
+     * @param audiosAhead how many upcoming url audios to download ahead, 0 to disable.
+     * @param byteBudget  bytes downloaded at most for all of them.
+     */
+    public void setPrefetchBudget(int audiosAhead, long byteBudget) {
+        this.prefetchAudiosAhead = audiosAhead;
+        this.prefetchByteBudget = byteBudget;
+        if (jcPlayerService != null) {
+            jcPlayerService.setPrefetchBudget(audiosAhead, byteBudget);
+            prepareUpcomingAudios();
+        }
+    }
+
+    /**
+     * @param leadTime milliseconds of a url audio to buffer before starting it, 0 to start it
+     *                 as soon as it is prepared.
+     */
+    public void setAdaptiveStartLeadTime(long leadTime) {
+        this.adaptiveStartLeadTime = leadTime;
+        if (jcPlayerService != null) {
+            jcPlayerService.setAdaptiveStartLeadTime(leadTime);
         }
     }
 
+    /**
+     * Call when audios were added to or removed from the playlist, so the prefetched audios
+     * follow the new order.
+     */
+    public void onPlaylistChanged() {
+        playOrder.onPlaylistChanged();
+        prepareUpcomingAudios();
+    }
+
+    private JcPlayerService.OnGaplessTransitionListener gaplessTransitionListener =
+            new JcPlayerService.OnGaplessTransitionListener() {
+                @Override
+                public void onGaplessTransition(final JcAudio jcAudio) {
+                    // Runs on the playback thread.
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            currentJcAudio = jcAudio;
+                            if (playOrder.peek(1) == jcAudio) {
+                                playOrder.next();
+                            } else {
+                                updatePositionAudioList();
+                            }
+                            prepareUpcomingAudios();
+                        }
+                    });
+                }
+            };
+
+    private void updatePositionAudioList() {
+        // Keeps the previous position when the audio was removed from the playlist.
+        playOrder.setCurrent(currentJcAudio);
+    }
+
     private synchronized void startJcPlayerService() {
         if (!mBound) {
             Intent intent = new Intent(context.getApplicationContext(), JcPlayerService.class);
-            intent.putExtra(JcNotificationPlayerService.PLAYLIST, (Serializable) playlist);
-            intent.putExtra(JcNotificationPlayerService.CURRENT_AUDIO, currentJcAudio);
+            // The service reads the playlist from the store, the Intent stays small.
+            if (playlistHandle == JcPlaylistStore.NO_HANDLE) {
+                playlistHandle = JcPlaylistStore.register(playlist);
+            }
+            intent.putExtra(JcNotificationPlayerService.PLAYLIST_HANDLE, playlistHandle);
+            intent.putExtra(JcNotificationPlayerService.PLAYLIST_VERSION, playlist.getVersion());
+            if (isServiceInAnotherProcess()) {
+                intent.putExtra(JcNotificationPlayerService.PLAYLIST, new JcPlaylistParcel(playlist));
+            }
+            intent.putExtra(JcNotificationPlayerService.CURRENT_AUDIO, (Parcelable) currentJcAudio);
             context.bindService(intent, mConnection, context.getApplicationContext().BIND_AUTO_CREATE);
         }
     }
 
+    /**
+     * @return true if the app moved the service to its own process, where the playlist store of
+     * this process isn't visible.
+     */
+    private boolean isServiceInAnotherProcess() {
+        try {
+            ServiceInfo serviceInfo = context.getPackageManager()
+                    .getServiceInfo(new ComponentName(context, JcPlayerService.class), 0);
+            return !serviceInfo.processName.equals(context.getApplicationInfo().processName);
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
+    }
+
     private ServiceConnection mConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder service) {
+            JcTrace.begin("JcAudioPlayer.onServiceConnected");
             JcPlayerService.JcPlayerServiceBinder binder = (JcPlayerService.JcPlayerServiceBinder) service;
             jcPlayerService = binder.getService();
+            boundAt = SystemClock.elapsedRealtime();
 
+            if (notificationListener != null) {
+                jcPlayerService.registerNotificationListener(notificationListener);
+            }
             if (listener != null) {
                 jcPlayerService.registerServicePlayerListener(listener);
             }
@@ -225,11 +535,28 @@ class JcAudioPlayer {
                 jcPlayerService.registerStatusListener(statusListener);
             }
 
-            if (connectedListener != null) {
-                connectedListener.connected();
+            for (JcSubscription subscription : subscriptions) {
+                if (!subscription.isCancelled()) {
+                    jcPlayerService.addSubscription(subscription);
+                }
             }
 
+            jcPlayerService.registerGaplessTransitionListener(gaplessTransitionListener);
+            // Settings changed before binding only kept their latest value.
+            jcPlayerService.setGaplessEnabled(gaplessEnabled);
+            if (mediaSessionEnabled) {
+                jcPlayerService.setMediaSessionEnabled(true);
+            }
+            if (urlCacheMaxBytes > 0) {
+                jcPlayerService.enableUrlCache(urlCacheMaxBytes);
+            }
+            jcPlayerService.setPrefetchBudget(prefetchAudiosAhead, prefetchByteBudget);
+            jcPlayerService.setAdaptiveStartLeadTime(adaptiveStartLeadTime);
+
             mBound = true;
+            pendingCommands.replay();
+            prepareUpcomingAudios();
+            JcTrace.end("JcAudioPlayer.onServiceConnected");
         }
 
         @Override
@@ -265,6 +592,10 @@ class JcAudioPlayer {
             jcNotificationPlayer.destroyNotificationIfExists();
         }
 
+        pendingCommands.clear();
+        JcPlaylistStore.unregister(playlistHandle);
+        playlistHandle = JcPlaylistStore.NO_HANDLE;
+
         if (JcAudioPlayer.getInstance() != null)
             JcAudioPlayer.getInstance().setInstance(null);
     }
@@ -274,7 +605,42 @@ class JcAudioPlayer {
     }
 
     public JcAudio getCurrentAudio() {
-        return jcPlayerService.getCurrentAudio();
+        return jcPlayerService != null ? jcPlayerService.getCurrentAudio() : currentJcAudio;
+    }
+
+    /**
+     * @return the metrics of the service, or null if it isn't bound yet.
+     */
+    public JcPlaybackMetrics getPlaybackMetrics() {
+        return jcPlayerService != null ? jcPlayerService.getPlaybackMetrics() : null;
+    }
+
+    /**
+     * @return milliseconds from the creation of the player to the service being bound, or -1
+     * if it isn't bound yet.
+     */
+    public long getBindTime() {
+        return boundAt == 0 ? -1 : boundAt - createdAt;
+    }
+
+    /**
+     * @return milliseconds from the service being bound to the first audio starting to
+     * prepare, or -1 if none did yet.
+     */
+    public long getBindToFirstPrepareTime() {
+        long preparedAt = jcPlayerService != null ? jcPlayerService.getFirstPrepareStartedAt() : 0;
+        return preparedAt == 0 ? -1 : Math.max(0, preparedAt - boundAt);
+    }
+
+    /**
+     * @return milliseconds from the first audio starting to prepare to it being audible, or -1
+     * if no audio started yet.
+     */
+    public long getFirstPrepareToAudioTime() {
+        if (jcPlayerService == null || jcPlayerService.getFirstAudioStartedAt() == 0) {
+            return -1;
+        }
+        return jcPlayerService.getFirstAudioStartedAt() - jcPlayerService.getFirstPrepareStartedAt();
     }
 
 }
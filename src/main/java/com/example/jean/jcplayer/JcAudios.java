@@ -0,0 +1,37 @@
+package com.example.jean.jcplayer;
+
+import java.util.List;
+
+/**
+ * Prepares the audios handed to {@link JcPlayerView} before they are played.
+ */
+final class JcAudios {
+    private JcAudios() {
+    }
+
+    /**
+     * Give each audio its index as id and position.
+     */
+    static void sort(List<JcAudio> playlist) {
+        for (int i = 0; i < playlist.size(); i++) {
+            JcAudio jcAudio = playlist.get(i);
+            jcAudio.setId(i);
+            jcAudio.setPosition(i);
+        }
+    }
+
+    /**
+     * Give every audio the same title. The track number title is followed by the audio number.
+     *
+     * @param trackNumberTitle the track_number string resource.
+     */
+    static void generateTitles(List<JcAudio> playlist, String title, String trackNumberTitle) {
+        for (int i = 0; i < playlist.size(); i++) {
+            if (title.equals(trackNumberTitle)) {
+                playlist.get(i).setTitle(trackNumberTitle + " " + String.valueOf(i + 1));
+            } else {
+                playlist.get(i).setTitle(title);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Follows how far the current audio is buffered and how fast the buffer grows, and tells when
+ * playback stalls. A stall starts on {@link android.media.MediaPlayer#MEDIA_INFO_BUFFERING_START}
+ * or when the position stops moving while playing, since some devices never send the info
+ * event. It ends when the position moves again or buffering ends.
+ * <p>
+ * The throughput is how many milliseconds of audio are buffered per millisecond of wall time:
+ * below 1 the download is slower than playback and the audio will stall. It is averaged over
+ * the buffering updates, and the updates without progress only count while playback is starved,
+ * since the player also stops buffering once it is far enough ahead.
+ * <p>
+ * Updated on the playback thread and read by any thread, every method is synchronized.
+ */
+class JcBufferMonitor {
+    static final int NO_CHANGE = 0;
+    static final int STALL_STARTED = 1;
+    static final int STALL_ENDED = 2;
+
+    static final long STALL_TIMEOUT = 1000; // milliseconds without progress while playing.
+    private static final double SMOOTHING = 0.3;
+
+    private int duration;
+    private int bufferedPercent;
+    private long lastUpdateAt;
+    private long lastBufferedPosition;
+    private double throughput = -1;
+
+    private long lastPosition = -1;
+    private long lastProgressAt;
+    private boolean isBufferingReported;
+    private boolean isStalled;
+    private long stalledAt;
+    private long lastStallDuration;
+    private int stallCount;
+    private long stallTotal;
+
+    /**
+     * Start following a new audio. The throughput estimate is kept, it depends on the
+     * connection more than on the audio. The stall counts start over.
+     */
+    synchronized void reset(int duration) {
+        this.duration = duration;
+        bufferedPercent = 0;
+        lastUpdateAt = 0;
+        lastBufferedPosition = 0;
+        lastPosition = -1;
+        isBufferingReported = false;
+        isStalled = false;
+        stallCount = 0;
+        stallTotal = 0;
+    }
+
+    synchronized void onBufferingUpdate(int percent, long now, boolean isStarving) {
+        long bufferedPosition = (long) duration * percent / 100;
+        if (lastUpdateAt > 0 && now > lastUpdateAt && percent < 100
+                && (bufferedPosition > lastBufferedPosition || isStarving)) {
+            double sample = (bufferedPosition - lastBufferedPosition) / (double) (now - lastUpdateAt);
+            throughput = throughput < 0 ? sample : throughput + SMOOTHING * (sample - throughput);
+        }
+        bufferedPercent = percent;
+        lastBufferedPosition = bufferedPosition;
+        lastUpdateAt = now;
+    }
+
+    synchronized long getBufferedPosition() {
+        return lastBufferedPosition;
+    }
+
+    synchronized int getBufferedPercent() {
+        return bufferedPercent;
+    }
+
+    /**
+     * @return buffered milliseconds of audio per millisecond, or -1 before the second update.
+     */
+    synchronized double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * @param leadTime milliseconds of audio that should be buffered ahead of the position when
+     *                 the download is as fast as playback. A faster download needs less, since
+     *                 it refills the buffer sooner.
+     * @return true if playback can start without stalling soon.
+     */
+    synchronized boolean canStart(long position, long leadTime) {
+        if (bufferedPercent >= 100) {
+            return true;
+        }
+        long requiredLead = throughput > 1 ? (long) (leadTime / throughput) : leadTime;
+        return lastBufferedPosition - position >= requiredLead;
+    }
+
+    synchronized int onBufferingStart(long now) {
+        isBufferingReported = true;
+        return startStall(now);
+    }
+
+    synchronized int onBufferingEnd(long now) {
+        isBufferingReported = false;
+        lastProgressAt = now;
+        return endStall(now);
+    }
+
+    /**
+     * Call with the position while the audio is playing.
+     */
+    synchronized int onPosition(long position, long now) {
+        if (position != lastPosition) {
+            lastPosition = position;
+            lastProgressAt = now;
+            return isBufferingReported ? NO_CHANGE : endStall(now);
+        }
+        if (now - lastProgressAt >= STALL_TIMEOUT) {
+            return startStall(now);
+        }
+        return NO_CHANGE;
+    }
+
+    /**
+     * Call when playback is paused or stopped on purpose, which ends a stall.
+     */
+    synchronized int onStopped(long now) {
+        lastPosition = -1;
+        isBufferingReported = false;
+        return endStall(now);
+    }
+
+    synchronized boolean isStalled() {
+        return isStalled;
+    }
+
+    synchronized int getStallCount() {
+        return stallCount;
+    }
+
+    synchronized long getStallTotal() {
+        return stallTotal;
+    }
+
+    /**
+     * @return how long the last finished stall lasted, in milliseconds.
+     */
+    synchronized long getLastStallDuration() {
+        return lastStallDuration;
+    }
+
+    private int startStall(long now) {
+        if (isStalled) {
+            return NO_CHANGE;
+        }
+        isStalled = true;
+        stalledAt = now;
+        stallCount++;
+        return STALL_STARTED;
+    }
+
+    private int endStall(long now) {
+        if (!isStalled) {
+            return NO_CHANGE;
+        }
+        isStalled = false;
+        lastStallDuration = now - stalledAt;
+        stallTotal += lastStallDuration;
+        return STALL_ENDED;
+    }
+}
@@ -0,0 +1,519 @@
+package com.example.jean.jcplayer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP proxy that serves {@link Origin#URL} audios from a {@link JcChunkCache}.
+ * <p>
+ * The MediaPlayer is pointed to {@link #getProxyUrl(String)} instead of the remote url. The proxy
+ * answers range requests chunk by chunk: cached chunks come from the disk, missing ones are
+ * downloaded from the origin, stored and then served. Replaying an audio or seeking back doesn't
+ * download anything again.
+ * <p>
+ * Audios whose origin doesn't tell their length, like live streams, can't be split in chunks.
+ * They are passed through from the origin without being cached.
+ * <p>
+ * Any app of the device can connect to the loopback interface, so the proxy urls carry a random
+ * token drawn at each start and requests without it are refused. Only http and https audios are
+ * fetched.
+ * <p>
+ * The proxy url is cleartext http. Apps targeting API 28 or higher must allow cleartext traffic
+ * to 127.0.0.1 in their network security config, otherwise the MediaPlayer can't read it:
+ * <pre>
+ * &lt;domain-config cleartextTrafficPermitted="true"&gt;
+ *     &lt;domain includeSubdomains="false"&gt;127.0.0.1&lt;/domain&gt;
+ * &lt;/domain-config&gt;
+ * </pre>
+ */
+public class JcCacheProxy {
+    private static final String URL_PARAMETER = "?url=";
+    private static final int TOKEN_BYTES = 16;
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 15000;
+
+    private final JcChunkCache cache;
+    private final AtomicLong bytesFromCache = new AtomicLong();
+    private final AtomicLong bytesFromOrigin = new AtomicLong();
+    private final AtomicLong bytesPrefetched = new AtomicLong();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private volatile String pathPrefix; // "/<token>?url=", changes at each start.
+
+    /**
+     * @param directory     where the chunks are stored.
+     * @param maxCacheBytes the cache never grows over this size.
+     */
+    public JcCacheProxy(File directory, long maxCacheBytes) {
+        this(directory, maxCacheBytes, JcChunkCache.DEFAULT_CHUNK_SIZE);
+    }
+
+    JcCacheProxy(File directory, long maxCacheBytes, int chunkSize) {
+        this.cache = new JcChunkCache(directory, maxCacheBytes, chunkSize);
+    }
+
+    /**
+     * Start listening on the loopback interface. Does nothing if already started.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+
+        pathPrefix = "/" + newToken() + URL_PARAMETER;
+        serverSocket = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        final ServerSocket server = serverSocket;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections(server);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        executor.shutdownNow();
+        serverSocket = null;
+        executor = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    /**
+     * @param url remote url of the audio.
+     * @return the url the MediaPlayer should read, or the same url if the proxy isn't running.
+     */
+    public synchronized String getProxyUrl(String url) {
+        if (serverSocket == null) {
+            return url;
+        }
+
+        try {
+            return "http://127.0.0.1:" + serverSocket.getLocalPort() + pathPrefix + URLEncoder.encode(url, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return url;
+        }
+    }
+
+    /**
+     * @return part of the bytes served to the player that came from the disk, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long fromCache = bytesFromCache.get();
+        long total = fromCache + bytesFromOrigin.get();
+        return total == 0 ? 0 : (double) fromCache / total;
+    }
+
+    /**
+     * @return bytes served from the disk instead of being downloaded again.
+     */
+    public long getBytesSaved() {
+        return bytesFromCache.get();
+    }
+
+    public long getBytesDownloaded() {
+        return bytesFromOrigin.get();
+    }
+
+    public long getCacheSize() {
+        return cache.getSize();
+    }
+
+    /**
+     * Change the size limit of the cache while it serves. A smaller one evicts chunks right away.
+     */
+    public void setMaxCacheSize(long maxCacheBytes) {
+        cache.setMaxSize(maxCacheBytes);
+    }
+
+    public long getMaxCacheSize() {
+        return cache.getMaxSize();
+    }
+
+    public void clearCache() {
+        cache.clear();
+    }
+
+    JcChunkCache getCache() {
+        return cache;
+    }
+
+    private void acceptConnections(ServerSocket server) {
+        while (!server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            } catch (SocketException e) {
+                // Server socket closed by stop().
+                return;
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (NullPointerException e) {
+                // stop() was called between accept() and execute().
+                return;
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return;
+            }
+
+            String range = null;
+            String header;
+            while ((header = readLine(in)) != null && !header.isEmpty()) {
+                int separator = header.indexOf(':');
+                if (separator > 0 && header.substring(0, separator).trim().equalsIgnoreCase("Range")) {
+                    range = header.substring(separator + 1).trim();
+                }
+            }
+
+            String[] parts = requestLine.split(" ");
+            String prefix = pathPrefix;
+            if (parts.length < 2 || !parts[1].startsWith(prefix)) {
+                writeStatus(out, "403 Forbidden"); // Not one of our urls.
+                return;
+            }
+
+            String url = URLDecoder.decode(parts[1].substring(prefix.length()), "UTF-8");
+            serve(url, range, parts[0].equals("HEAD"), out);
+        } catch (IOException e) {
+            // The MediaPlayer closes connections all the time when it seeks, nothing to report.
+        } catch (RuntimeException e) {
+            // A bad request or origin must not kill the pool thread, and the app with it.
+            e.printStackTrace();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+    }
+
+    private void serve(String url, String range, boolean headOnly, OutputStream out) throws IOException {
+        String key = JcChunkCache.keyFor(url);
+        long length = cache.getContentLength(key);
+        if (length < 0) {
+            length = fetchMetadata(url, key);
+        }
+        if (length < 0) {
+            passThrough(url, range, headOnly, out);
+            return;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        if (range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            try {
+                if (bounds.length < 2 || (bounds[0].isEmpty() && bounds[1].isEmpty())) {
+                    throw new NumberFormatException("Range without bounds: " + range);
+                } else if (bounds[0].isEmpty()) {
+                    start = Math.max(0, length - Long.parseLong(bounds[1])); // Suffix range.
+                } else {
+                    start = Long.parseLong(bounds[0]);
+                    if (bounds.length > 1 && !bounds[1].isEmpty()) {
+                        end = Math.min(end, Long.parseLong(bounds[1]));
+                    }
+                }
+            } catch (NumberFormatException e) {
+                // Malformed range, answer with the whole audio.
+                range = null;
+                start = 0;
+                end = length - 1;
+            }
+        } else {
+            range = null;
+        }
+
+        if (start > end) {
+            out.write(("HTTP/1.1 416 Range Not Satisfiable\r\nContent-Range: bytes */" + length
+                    + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+            out.flush();
+            return;
+        }
+
+        String contentType = cache.getContentType(key);
+        StringBuilder headers = new StringBuilder();
+        headers.append(range != null ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+        if (range != null) {
+            headers.append("Content-Range: bytes ").append(start).append('-').append(end).append('/').append(length).append("\r\n");
+        }
+        headers.append("Content-Length: ").append(end - start + 1).append("\r\n")
+                .append("Content-Type: ").append(contentType != null ? contentType : "audio/mpeg").append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Connection: close\r\n\r\n");
+        out.write(headers.toString().getBytes("ISO-8859-1"));
+
+        if (!headOnly) {
+            serveRange(url, key, length, start, end, out, false);
+        }
+        out.flush();
+    }
+
+    /**
+     * Download the beginning of an audio into the cache, so the first bytes the player asks for
+     * are already on the disk. Chunks already cached are skipped.
+     *
+     * @param url      remote url of the audio.
+     * @param maxBytes how many bytes from the start of the audio to cache.
+     * @param sink     receives the downloaded bytes. Throwing from it cancels the prefetch.
+     */
+    void prefetch(String url, long maxBytes, OutputStream sink) throws IOException {
+        String key = JcChunkCache.keyFor(url);
+        long length = cache.getContentLength(key);
+        if (length < 0) {
+            length = fetchMetadata(url, key);
+        }
+
+        // Nothing to prefetch from a stream without a known length, it isn't cached.
+        long end = Math.min(length, maxBytes) - 1;
+        if (end >= 0) {
+            serveRange(url, key, length, 0, end, sink, true);
+        }
+    }
+
+    /**
+     * @return bytes downloaded ahead of time by {@link #prefetch(String, long, OutputStream)}.
+     */
+    public long getBytesPrefetched() {
+        return bytesPrefetched.get();
+    }
+
+    /**
+     * Write bytes [start, end] of the audio, reading each chunk from the cache or the origin.
+     * Consecutive missing chunks are downloaded with a single origin request.
+     * When prefetching, cached chunks are skipped and nothing counts as served.
+     */
+    private void serveRange(String url, String key, long length, long start, long end, OutputStream out,
+                            boolean prefetch) throws IOException {
+        int chunkSize = cache.getChunkSize();
+        byte[] buffer = new byte[chunkSize];
+        InputStream origin = null;
+        HttpURLConnection connection = null;
+        long originPosition = -1;
+
+        try {
+            long position = start;
+            while (position <= end) {
+                int index = (int) (position / chunkSize);
+                long chunkStart = (long) index * chunkSize;
+                int chunkLength = (int) Math.min(chunkSize, length - chunkStart);
+
+                if (prefetch && cache.hasChunk(key, index)) {
+                    position = chunkStart + chunkLength;
+                    continue;
+                }
+
+                boolean fromCache = !prefetch && cache.readChunk(key, index, buffer) == chunkLength;
+                if (!fromCache) {
+                    if (origin == null || originPosition != chunkStart) {
+                        if (connection != null) {
+                            connection.disconnect();
+                        }
+                        connection = openOrigin(url, "bytes=" + chunkStart + "-");
+                        origin = connection.getInputStream();
+                        if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                            skipFully(origin, chunkStart); // Origin ignored the range.
+                        }
+                    }
+                    readFully(origin, buffer, chunkLength);
+                    originPosition = chunkStart + chunkLength;
+                    cache.writeChunk(key, index, buffer, chunkLength);
+                }
+
+                int offset = (int) (position - chunkStart);
+                int count = (int) Math.min(chunkLength - offset, end - position + 1);
+                out.write(buffer, offset, count);
+                (prefetch ? bytesPrefetched : fromCache ? bytesFromCache : bytesFromOrigin).addAndGet(count);
+                position += count;
+            }
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Forward the request to the origin and its answer to the player as is, for audios that
+     * can't be cached. Without a content length, the end of the body is the end of the connection.
+     */
+    private void passThrough(String url, String range, boolean headOnly, OutputStream out) throws IOException {
+        HttpURLConnection connection = openOrigin(url, range);
+        try {
+            StringBuilder headers = new StringBuilder();
+            headers.append(connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+                    ? "HTTP/1.1 206 Partial Content\r\n" : "HTTP/1.1 200 OK\r\n");
+            for (String name : new String[]{"Content-Range", "Content-Length", "Content-Type"}) {
+                String value = connection.getHeaderField(name);
+                if (value != null) {
+                    headers.append(name).append(": ").append(value).append("\r\n");
+                }
+            }
+            headers.append("Connection: close\r\n\r\n");
+            out.write(headers.toString().getBytes("ISO-8859-1"));
+
+            if (!headOnly) {
+                InputStream origin = connection.getInputStream();
+                byte[] buffer = new byte[cache.getChunkSize()];
+                int read;
+                while ((read = origin.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    bytesFromOrigin.addAndGet(read);
+                }
+            }
+            out.flush();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Ask the origin for the audio from its start, and only read the headers to learn the
+     * content length and type. They are cached when the length is known.
+     *
+     * @return the content length, or -1 if the origin doesn't tell, like for live streams.
+     */
+    private long fetchMetadata(String url, String key) throws IOException {
+        HttpURLConnection connection = openOrigin(url, "bytes=0-");
+        try {
+            long length = -1;
+            String contentRange = connection.getHeaderField("Content-Range");
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL && contentRange != null) {
+                int slash = contentRange.lastIndexOf('/');
+                if (slash >= 0 && !contentRange.endsWith("*")) {
+                    length = Long.parseLong(contentRange.substring(slash + 1).trim());
+                }
+            } else if (connection.getResponseCode() == HttpURLConnection.HTTP_OK) {
+                String contentLength = connection.getHeaderField("Content-Length");
+                length = contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+            }
+
+            if (length >= 0) {
+                cache.putMetadata(key, length, connection.getContentType());
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            return -1;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @param range value of the Range header, or null to ask for the whole audio.
+     */
+    private static HttpURLConnection openOrigin(String url, String range) throws IOException {
+        URL originUrl = new URL(url);
+        String protocol = originUrl.getProtocol();
+        if (!protocol.equals("http") && !protocol.equals("https")) {
+            throw new IOException("Not an http url: " + url);
+        }
+        HttpURLConnection connection = (HttpURLConnection) originUrl.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+
+        int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            throw new IOException("Origin answered " + code + " for " + url);
+        }
+        return connection;
+    }
+
+    private static String newToken() {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder token = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return token.toString();
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, total, length - total);
+            if (read == -1) {
+                throw new EOFException("Origin closed after " + total + " of " + length + " bytes");
+            }
+            total += read;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return c == -1 && line.length() == 0 ? null : line.toString();
+    }
+
+    private static void writeStatus(OutputStream out, String status) throws IOException {
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes("ISO-8859-1"));
+        out.flush();
+    }
+}
@@ -0,0 +1,383 @@
+package com.example.jean.jcplayer;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size-bounded disk cache for remote audios, split in fixed-size chunks.
+ * <p>
+ * Each url gets a directory named after the hash of the url. It holds a {@code meta} file with
+ * the content length and type, and one file per cached chunk named after the chunk index.
+ * Which chunks are present is kept in memory as a sparse bit set per url, so lookups never touch
+ * the disk. When the cache grows over its limit, the least recently used chunks are deleted.
+ * <p>
+ * The meta files count in the size. A meta file is used whenever one of its chunks is, so it
+ * goes after them: the directory and the metadata of an url are deleted with its last chunk.
+ */
+class JcChunkCache {
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private static final String META_FILE = "meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private long maxBytes; // Guarded by this.
+    private final int chunkSize;
+
+    private final Map<String, BitSet> presentChunks = new HashMap<>();
+    private final Map<String, Long> contentLengths = new HashMap<>();
+    private final Map<String, String> contentTypes = new HashMap<>();
+    // "key/index" -> chunk size and "key/meta" -> meta file size, in access order.
+    private final LinkedHashMap<String, Integer> recentlyUsed = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    JcChunkCache(File directory, long maxBytes, int chunkSize) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.chunkSize = chunkSize;
+        load();
+    }
+
+    int getChunkSize() {
+        return chunkSize;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized long getMaxSize() {
+        return maxBytes;
+    }
+
+    /**
+     * Change the size limit. A smaller one deletes the least recently used chunks right away.
+     */
+    synchronized void setMaxSize(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return the cache key of an url. Used as directory name.
+     */
+    static String keyFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Every JVM ships SHA-1 and UTF-8.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    synchronized boolean hasChunk(String key, int index) {
+        BitSet chunks = presentChunks.get(key);
+        return chunks != null && chunks.get(index);
+    }
+
+    /**
+     * @return total length of the audio in bytes, or -1 if we don't know it yet.
+     */
+    synchronized long getContentLength(String key) {
+        recentlyUsed.get(metaId(key)); // Mark as recently used.
+        Long length = contentLengths.get(key);
+        return length == null ? -1 : length;
+    }
+
+    synchronized String getContentType(String key) {
+        return contentTypes.get(key);
+    }
+
+    synchronized void putMetadata(String key, long contentLength, String contentType) throws IOException {
+        File keyDirectory = new File(directory, key);
+        if (!keyDirectory.isDirectory() && !keyDirectory.mkdirs()) {
+            throw new IOException("Can't create cache directory " + keyDirectory);
+        }
+
+        File metaFile = new File(keyDirectory, META_FILE);
+        Writer writer = new FileWriter(metaFile);
+        try {
+            writer.write(contentLength + "\n" + (contentType == null ? "" : contentType) + "\n");
+        } finally {
+            writer.close();
+        }
+
+        contentLengths.put(key, contentLength);
+        contentTypes.put(key, contentType);
+        addEntry(metaId(key), (int) metaFile.length());
+        evict();
+    }
+
+    /**
+     * Read a cached chunk.
+     *
+     * @param buffer receives the chunk, must hold at least {@link #getChunkSize()} bytes.
+     * @return the chunk length, or -1 if the chunk isn't cached.
+     */
+    int readChunk(String key, int index, byte[] buffer) {
+        synchronized (this) {
+            if (!hasChunk(key, index)) {
+                return -1;
+            }
+            recentlyUsed.get(chunkId(key, index)); // Mark as recently used, and its metadata after it.
+            recentlyUsed.get(metaId(key));
+        }
+
+        InputStream in = null;
+        try {
+            in = new FileInputStream(chunkFile(key, index));
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            return length;
+        } catch (IOException e) {
+            // Evicted by another thread between the lookup and the read.
+            return -1;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    void writeChunk(String key, int index, byte[] data, int length) throws IOException {
+        File keyDirectory = new File(directory, key);
+        if (!keyDirectory.isDirectory() && !keyDirectory.mkdirs()) {
+            throw new IOException("Can't create cache directory " + keyDirectory);
+        }
+
+        // Two connections may fetch the same chunk, each one writes its own temp file.
+        File temp = File.createTempFile("chunk" + index + ".", TEMP_SUFFIX, keyDirectory);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data, 0, length);
+        } finally {
+            out.close();
+        }
+
+        synchronized (this) {
+            if (!temp.renameTo(chunkFile(key, index))) {
+                temp.delete();
+                throw new IOException("Can't store chunk " + index + " of " + key);
+            }
+            addChunk(key, index, length);
+            evict();
+        }
+    }
+
+    synchronized void clear() {
+        Set<String> keys = new HashSet<>(presentChunks.keySet());
+        keys.addAll(contentLengths.keySet());
+        for (String key : keys) {
+            removeKey(key);
+        }
+    }
+
+    private void addChunk(String key, int index, int length) {
+        BitSet chunks = presentChunks.get(key);
+        if (chunks == null) {
+            chunks = new BitSet();
+            presentChunks.put(key, chunks);
+        }
+
+        addEntry(chunkId(key, index), length);
+        recentlyUsed.get(metaId(key));
+        chunks.set(index);
+    }
+
+    private void addEntry(String id, int length) {
+        Integer previous = recentlyUsed.put(id, length);
+        if (previous != null) {
+            size -= previous;
+        }
+        size += length;
+    }
+
+    private void evict() {
+        while (size > maxBytes && !recentlyUsed.isEmpty()) {
+            String eldest = recentlyUsed.keySet().iterator().next();
+            int separator = eldest.indexOf('/');
+            String key = eldest.substring(0, separator);
+            String name = eldest.substring(separator + 1);
+            if (name.equals(META_FILE)) {
+                removeKey(key); // No chunk left, or they would have been used after it.
+            } else {
+                removeChunk(key, Integer.parseInt(name));
+            }
+        }
+    }
+
+    private void removeChunk(String key, int index) {
+        Integer length = recentlyUsed.remove(chunkId(key, index));
+        if (length != null) {
+            size -= length;
+        }
+        chunkFile(key, index).delete();
+
+        BitSet chunks = presentChunks.get(key);
+        if (chunks != null) {
+            chunks.clear(index);
+            if (chunks.isEmpty()) {
+                removeKey(key);
+            }
+        }
+    }
+
+    /**
+     * Forget an url: its chunks, its metadata and its directory.
+     */
+    private void removeKey(String key) {
+        BitSet chunks = presentChunks.remove(key);
+        if (chunks != null) {
+            for (int index = chunks.nextSetBit(0); index >= 0; index = chunks.nextSetBit(index + 1)) {
+                Integer length = recentlyUsed.remove(chunkId(key, index));
+                if (length != null) {
+                    size -= length;
+                }
+            }
+        }
+        Integer metaLength = recentlyUsed.remove(metaId(key));
+        if (metaLength != null) {
+            size -= metaLength;
+        }
+        contentLengths.remove(key);
+        contentTypes.remove(key);
+
+        File keyDirectory = new File(directory, key);
+        File[] files = keyDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        keyDirectory.delete();
+    }
+
+    /**
+     * Rebuild the in-memory index from the cache directory. Chunks are ordered by modification
+     * time, so the least recently written chunks are evicted first after a restart.
+     */
+    private void load() {
+        File[] keyDirectories = directory.listFiles();
+        if (keyDirectories == null) {
+            directory.mkdirs();
+            return;
+        }
+
+        List<File> chunkFiles = new ArrayList<>();
+        List<File> metaFiles = new ArrayList<>();
+        for (File keyDirectory : keyDirectories) {
+            if (!keyDirectory.isDirectory() || !loadMetadata(keyDirectory)) {
+                continue;
+            }
+
+            File[] files = keyDirectory.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(TEMP_SUFFIX)) {
+                    file.delete();
+                } else if (file.getName().equals(META_FILE)) {
+                    metaFiles.add(file);
+                } else {
+                    chunkFiles.add(file);
+                }
+            }
+        }
+
+        Collections.sort(chunkFiles, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long a = first.lastModified();
+                long b = second.lastModified();
+                return a < b ? -1 : (a == b ? 0 : 1);
+            }
+        });
+
+        for (File file : chunkFiles) {
+            try {
+                addChunk(file.getParentFile().getName(), Integer.parseInt(file.getName()), (int) file.length());
+            } catch (NumberFormatException e) {
+                file.delete();
+            }
+        }
+        // Meta files go after the chunks, so they are deleted with the last one.
+        for (File file : metaFiles) {
+            addEntry(metaId(file.getParentFile().getName()), (int) file.length());
+        }
+        evict();
+    }
+
+    private boolean loadMetadata(File keyDirectory) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(new File(keyDirectory, META_FILE)));
+            long contentLength = Long.parseLong(reader.readLine());
+            String contentType = reader.readLine();
+            contentLengths.put(keyDirectory.getName(), contentLength);
+            contentTypes.put(keyDirectory.getName(), contentType == null || contentType.isEmpty() ? null : contentType);
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            // Without metadata the chunks are useless.
+            File[] files = keyDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            keyDirectory.delete();
+            return false;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private File chunkFile(String key, int index) {
+        return new File(new File(directory, key), String.valueOf(index));
+    }
+
+    private static String chunkId(String key, int index) {
+        return key + '/' + index;
+    }
+
+    private static String metaId(String key) {
+        return key + '/' + META_FILE;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing to do.
+            }
+        }
+    }
+}
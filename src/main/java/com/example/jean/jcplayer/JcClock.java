@@ -0,0 +1,30 @@
+package com.example.jean.jcplayer;
+
+import android.os.SystemClock;
+
+/**
+ * Time source of {@link JcPlayerService}, so that simulations can run it on a virtual clock.
+ */
+interface JcClock {
+    JcClock SYSTEM = new JcClock() {
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return milliseconds since boot, like {@link SystemClock#elapsedRealtime()}.
+     */
+    long elapsedRealtime();
+
+    /**
+     * @return nanoseconds from an arbitrary origin, like {@link System#nanoTime()}.
+     */
+    long nanoTime();
+}
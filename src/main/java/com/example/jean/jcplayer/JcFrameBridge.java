@@ -0,0 +1,222 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Hands the player state from the service threads to the views of {@link JcPlayerView}. Any
+ * thread can set the state, the views get it on the main thread once per frame: values set
+ * between two frames replace each other and only the newest one is applied.
+ * <p>
+ * A frame is only requested when something visible changed. A new position is visible when it
+ * changes the shown second or moves the SeekBar by at least one step, see
+ * {@link #setProgressResolution(long)}.
+ */
+class JcFrameBridge {
+
+    /**
+     * Applies the state to the views, on the main thread.
+     */
+    interface Target {
+        void reset();
+
+        void setTitle(String title, boolean animate);
+
+        void setDuration(int duration);
+
+        void setPlaying(boolean isPlaying);
+
+        void dismissProgress();
+
+        /**
+         * @param isSecondChanged true if the shown time must change, false if only the
+         *                        SeekBar moves.
+         */
+        void setPosition(long position, boolean isSecondChanged);
+    }
+
+    /**
+     * Requests a call to {@link #doFrame()} on the main thread, at the next frame.
+     */
+    interface FrameScheduler {
+        void scheduleFrame();
+    }
+
+    private static final int RESET = 1;
+    private static final int TITLE = 1 << 1;
+    private static final int ANIMATE_TITLE = 1 << 2;
+    private static final int DURATION = 1 << 3;
+    private static final int PLAYING = 1 << 4;
+    private static final int DISMISS_PROGRESS = 1 << 5;
+    private static final int POSITION = 1 << 6;
+    private static final int TIME_TEXT = 1 << 7; // The shown second changed.
+
+    private final Target target;
+    private final FrameScheduler scheduler;
+
+    // Set by any thread, guarded by this.
+    private int changes;
+    private boolean isFrameScheduled;
+    private String title;
+    private int duration;
+    private boolean isPlaying;
+    private long position;
+    private long progressResolution = 1;
+    private long shownSecond = -1; // Of the last position set, applied or not.
+    private long shownStep = -1;
+
+    private int frameCount;
+    private int coalescedCount;
+
+    JcFrameBridge(Target target, FrameScheduler scheduler) {
+        this.target = target;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Clear the title, the times and the SeekBar. Drops the title, duration and position not
+     * applied yet.
+     */
+    synchronized void reset() {
+        changes = (changes & (PLAYING | DISMISS_PROGRESS)) | RESET;
+        title = "";
+        duration = 0;
+        resetPosition();
+        requestFrame();
+    }
+
+    /**
+     * A new audio was prepared: show its title and duration from the start.
+     */
+    synchronized void setAudio(String title, int duration) {
+        // Keeps the title animation of an updateTitle in the same frame.
+        changes = (changes & (PLAYING | ANIMATE_TITLE)) | RESET | TITLE | DURATION | DISMISS_PROGRESS;
+        this.title = title;
+        this.duration = duration;
+        resetPosition();
+        requestFrame();
+    }
+
+    /**
+     * Show the title with an animation.
+     */
+    synchronized void setTitle(String title) {
+        changes |= TITLE | ANIMATE_TITLE;
+        this.title = title;
+        requestFrame();
+    }
+
+    synchronized void setPlaying(boolean isPlaying) {
+        changes |= PLAYING;
+        this.isPlaying = isPlaying;
+        requestFrame();
+    }
+
+    synchronized void dismissProgress() {
+        changes |= DISMISS_PROGRESS;
+        requestFrame();
+    }
+
+    synchronized void setPosition(long position) {
+        if (setPositionLocked(position)) {
+            requestFrame();
+        }
+    }
+
+    /**
+     * @param millisPerStep how many milliseconds of audio one pixel of the SeekBar shows.
+     *                      Positions closer than that are drawn the same.
+     */
+    synchronized void setProgressResolution(long millisPerStep) {
+        progressResolution = Math.max(1, millisPerStep);
+        shownStep = -1;
+    }
+
+    private boolean setPositionLocked(long position) {
+        long second = position / 1000;
+        long step = position / progressResolution;
+        this.position = position;
+        if (second == shownSecond && step == shownStep) {
+            return false; // Nothing that would be drawn differently.
+        }
+        if (second != shownSecond) {
+            shownSecond = second;
+            changes |= TIME_TEXT;
+        }
+        shownStep = step;
+        changes |= POSITION;
+        return true;
+    }
+
+    /**
+     * The reset shows 0 already.
+     */
+    private void resetPosition() {
+        position = 0;
+        shownSecond = 0;
+        shownStep = 0;
+    }
+
+    private void requestFrame() {
+        if (isFrameScheduled) {
+            coalescedCount++;
+            return;
+        }
+        isFrameScheduled = true;
+        scheduler.scheduleFrame();
+    }
+
+    /**
+     * Apply the changes since the last frame. Main thread only.
+     */
+    void doFrame() {
+        int changes;
+        String title;
+        int duration;
+        boolean isPlaying;
+        long position;
+        synchronized (this) {
+            changes = this.changes;
+            this.changes = 0;
+            isFrameScheduled = false;
+            title = this.title;
+            duration = this.duration;
+            isPlaying = this.isPlaying;
+            position = this.position;
+        }
+        if (changes == 0) {
+            return;
+        }
+        frameCount++;
+
+        if ((changes & RESET) != 0) {
+            target.reset();
+        }
+        if ((changes & TITLE) != 0) {
+            target.setTitle(title, (changes & ANIMATE_TITLE) != 0);
+        }
+        if ((changes & DURATION) != 0) {
+            target.setDuration(duration);
+        }
+        if ((changes & PLAYING) != 0) {
+            target.setPlaying(isPlaying);
+        }
+        if ((changes & DISMISS_PROGRESS) != 0) {
+            target.dismissProgress();
+        }
+        if ((changes & POSITION) != 0) {
+            target.setPosition(position, (changes & TIME_TEXT) != 0);
+        }
+    }
+
+    /**
+     * @return how many frames applied changes.
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return how many changes were merged into a frame already requested.
+     */
+    synchronized int getCoalescedCount() {
+        return coalescedCount;
+    }
+}
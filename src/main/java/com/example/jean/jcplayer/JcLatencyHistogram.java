@@ -0,0 +1,112 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Latency histogram with fixed buckets, in milliseconds. Recording a value doesn't allocate,
+ * so it is safe to call on the playback thread.
+ */
+public class JcLatencyHistogram {
+    /**
+     * Upper bound (inclusive) of each bucket, in milliseconds. The last bucket holds everything
+     * above the last bound.
+     */
+    private static final long[] BUCKET_BOUNDS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000
+    };
+
+    private final long[] buckets = new long[BUCKET_BOUNDS.length + 1];
+    private long count;
+    private long total;
+    private long max;
+
+    public synchronized void record(long latency) {
+        if (latency < 0) {
+            latency = 0;
+        }
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && latency > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+
+        buckets[bucket]++;
+        count++;
+        total += latency;
+        if (latency > max) {
+            max = latency;
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @return average of the recorded values, or 0 if nothing was recorded.
+     */
+    public synchronized long getMean() {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Approximate percentile. The result is the upper bound of the bucket holding the
+     * percentile, or the max value for the last bucket.
+     *
+     * @param percentile value between 0 and 100.
+     * @return latency in milliseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return i < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[i], max) : max;
+            }
+        }
+        return max;
+    }
+
+    public static int getBucketCount() {
+        return BUCKET_BOUNDS.length + 1;
+    }
+
+    /**
+     * @return upper bound of the bucket in milliseconds, or {@link Long#MAX_VALUE} for the last one.
+     */
+    public static long getBucketBound(int bucket) {
+        return bucket < BUCKET_BOUNDS.length ? BUCKET_BOUNDS[bucket] : Long.MAX_VALUE;
+    }
+
+    public synchronized long getBucketValue(int bucket) {
+        return buckets[bucket];
+    }
+
+    /**
+     * @return an independent copy of the recorded values.
+     */
+    public synchronized JcLatencyHistogram copy() {
+        JcLatencyHistogram copy = new JcLatencyHistogram();
+        System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+        copy.count = count;
+        copy.total = total;
+        copy.max = max;
+        return copy;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        total = 0;
+        max = 0;
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.jean.jcplayer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list over a memory-mapped {@link JcPlaylistFile}. Audios are decoded when they
+ * are read. Only the most recently read ones stay in memory, in a small cache indexed by
+ * position, and so do their titles and paths.
+ * <p>
+ * The same audio may be decoded again into another object, so audios are matched by id.
+ */
+class JcMappedPlaylist extends AbstractList<JcAudio> implements RandomAccess {
+    private static final int AUDIO_CACHE_SIZE = 256;
+    private static final int STRING_CACHE_SIZE = 512;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int stringCount;
+    private final int idTableMask;
+    private final int recordsOffset;
+    private final int idTableOffset;
+    private final int stringOffsetsOffset;
+    private final int poolOffset;
+
+    private final JcAudio[] audioCache = new JcAudio[AUDIO_CACHE_SIZE];
+    private final int[] audioCacheIndexes = new int[AUDIO_CACHE_SIZE];
+    private final String[] stringCache = new String[STRING_CACHE_SIZE];
+    private final int[] stringCacheIndexes = new int[STRING_CACHE_SIZE];
+
+    JcMappedPlaylist(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < JcPlaylistFile.HEADER_SIZE || buffer.getInt(0) != JcPlaylistFile.MAGIC) {
+            throw new IOException("Not a playlist file");
+        }
+        int version = buffer.getInt(4);
+        if (version != JcPlaylistFile.VERSION) {
+            throw new IOException("Unknown playlist file version " + version);
+        }
+
+        size = buffer.getInt(8);
+        stringCount = buffer.getInt(12);
+        idTableMask = buffer.getInt(16) - 1;
+        recordsOffset = buffer.getInt(20);
+        idTableOffset = buffer.getInt(24);
+        stringOffsetsOffset = buffer.getInt(28);
+        poolOffset = buffer.getInt(32);
+        if ((long) stringOffsetsOffset + (stringCount + 1L) * 4 > buffer.capacity()
+                || poolOffset + (long) buffer.getInt(stringOffsetsOffset + stringCount * 4) > buffer.capacity()) {
+            throw new IOException("Truncated playlist file");
+        }
+
+        Arrays.fill(audioCacheIndexes, -1);
+        Arrays.fill(stringCacheIndexes, -1);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized JcAudio get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        int cacheSlot = index & (AUDIO_CACHE_SIZE - 1);
+        if (audioCacheIndexes[cacheSlot] == index) {
+            return audioCache[cacheSlot];
+        }
+
+        int record = recordsOffset + index * JcPlaylistFile.RECORD_SIZE;
+        JcAudio audio = new JcAudio(
+                string(buffer.getInt(record + 16)),
+                string(buffer.getInt(record + 20)),
+                buffer.getLong(record),
+                buffer.getInt(record + 8),
+                JcAudioCodec.originFromByte(buffer.get(record + 12)));
+        audioCache[cacheSlot] = audio;
+        audioCacheIndexes[cacheSlot] = index;
+        return audio;
+    }
+
+    long getId(int index) {
+        return buffer.getLong(recordsOffset + index * JcPlaylistFile.RECORD_SIZE);
+    }
+
+    /**
+     * @return the index of the audio with this id, or -1. Doesn't decode any audio.
+     */
+    int indexOfId(long id) {
+        int slot = JcPlaylistFile.idSlot(id, idTableMask);
+        int entry;
+        while ((entry = buffer.getInt(idTableOffset + slot * 4)) != 0) {
+            if (getId(entry - 1) == id) {
+                return entry - 1;
+            }
+            slot = (slot + 1) & idTableMask;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(Object object) {
+        if (!(object instanceof JcAudio)) {
+            return -1;
+        }
+        return indexOfId(((JcAudio) object).getId());
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+        return indexOf(object);
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        return indexOf(object) >= 0;
+    }
+
+    private String string(int index) {
+        if (index == JcPlaylistFile.NULL_STRING) {
+            return null;
+        }
+
+        // Titles and paths of an album repeat, the cache keeps one instance of each.
+        int cacheSlot = index & (STRING_CACHE_SIZE - 1);
+        if (stringCacheIndexes[cacheSlot] == index) {
+            return stringCache[cacheSlot];
+        }
+
+        int start = buffer.getInt(stringOffsetsOffset + index * 4);
+        int end = buffer.getInt(stringOffsetsOffset + (index + 1) * 4);
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(poolOffset + start + i);
+        }
+        String value = new String(bytes, JcPlaylistFile.UTF_8);
+        stringCache[cacheSlot] = value;
+        stringCacheIndexes[cacheSlot] = index;
+        return value;
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.jean.jcplayer;
+
+import android.content.ComponentCallbacks2;
+import android.media.MediaPlayer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Small pool of idle {@link MediaPlayer} instances. Players are recycled with
+ * {@link MediaPlayer#reset()} between audios, so a track switch doesn't pay for a new native
+ * player and codec setup. At most {@code maxIdle} players are kept, the others are released.
+ */
+class JcMediaPlayerPool {
+    static final int DEFAULT_MAX_IDLE = 2; // Current and next player in gapless mode.
+
+    interface Factory {
+        MediaPlayer newMediaPlayer();
+    }
+
+    private static final Factory DEFAULT_FACTORY = new Factory() {
+        @Override
+        public MediaPlayer newMediaPlayer() {
+            return new MediaPlayer();
+        }
+    };
+
+    private final Deque<MediaPlayer> idlePlayers = new ArrayDeque<>();
+    private final int maxIdle;
+    private final Factory factory;
+    private int hitCount;
+    private int missCount;
+
+    JcMediaPlayerPool() {
+        this(DEFAULT_MAX_IDLE);
+    }
+
+    JcMediaPlayerPool(int maxIdle) {
+        this(maxIdle, DEFAULT_FACTORY);
+    }
+
+    /**
+     * @param factory creates the players when the pool is empty, fake ones in simulations.
+     */
+    JcMediaPlayerPool(int maxIdle, Factory factory) {
+        this.maxIdle = maxIdle;
+        this.factory = factory;
+    }
+
+    /**
+     * @return an idle player in the Idle state, or a new one if the pool is empty.
+     */
+    synchronized MediaPlayer acquire() {
+        MediaPlayer player = idlePlayers.pollFirst();
+        if (player != null) {
+            hitCount++;
+            return player;
+        }
+
+        missCount++;
+        return factory.newMediaPlayer();
+    }
+
+    /**
+     * Give a player back to the pool. It is reset and its listeners are removed, so it can be in
+     * any state and a late callback of its previous audio never reaches the previous owner.
+     *
+     * @param player player that is not used anymore.
+     */
+    synchronized void recycle(MediaPlayer player) {
+        if (player == null) {
+            return;
+        }
+
+        try {
+            player.reset();
+        } catch (IllegalStateException e) {
+            // The player is unusable, don't keep it.
+            player.release();
+            return;
+        }
+        clearListeners(player);
+
+        if (idlePlayers.size() < maxIdle) {
+            idlePlayers.offerFirst(player);
+        } else {
+            player.release();
+        }
+    }
+
+    private static void clearListeners(MediaPlayer player) {
+        player.setOnPreparedListener(null);
+        player.setOnBufferingUpdateListener(null);
+        player.setOnCompletionListener(null);
+        player.setOnSeekCompleteListener(null);
+        player.setOnInfoListener(null);
+        player.setOnErrorListener(null);
+    }
+
+    /**
+     * Release idle players when the system asks for memory.
+     *
+     * @param level level received in {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    synchronized void trim(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            clear();
+        }
+    }
+
+    synchronized void clear() {
+        MediaPlayer player;
+        while ((player = idlePlayers.pollFirst()) != null) {
+            player.release();
+        }
+    }
+
+    synchronized int getIdleCount() {
+        return idlePlayers.size();
+    }
+
+    synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    synchronized int getMissCount() {
+        return missCount;
+    }
+}
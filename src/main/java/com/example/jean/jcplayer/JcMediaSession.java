@@ -0,0 +1,121 @@
+package com.example.jean.jcplayer;
+
+import android.content.Context;
+import android.os.Handler;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+/**
+ * Publishes the playback of {@link JcPlayerService} to a {@link MediaSessionCompat}, so the
+ * lockscreen, the system media controls and connected devices show the audio and its progress.
+ * <p>
+ * A published state holds the position, when it was read and the playback speed, and the system
+ * moves the progress on its own from them. So the state is only published when playback
+ * changes: play, pause, seek, stall or another audio. Nothing is sent while the audio plays on.
+ * <p>
+ * The transport controls run the same actions as the notification buttons.
+ */
+class JcMediaSession {
+    private static final String TAG = "JcPlayer";
+
+    static final long ACTIONS = PlaybackStateCompat.ACTION_PLAY
+            | PlaybackStateCompat.ACTION_PAUSE
+            | PlaybackStateCompat.ACTION_PLAY_PAUSE
+            | PlaybackStateCompat.ACTION_SKIP_TO_NEXT
+            | PlaybackStateCompat.ACTION_SKIP_TO_PREVIOUS
+            | PlaybackStateCompat.ACTION_SEEK_TO;
+
+    private final MediaSessionCompat session;
+    private final JcClock clock;
+    private final PlaybackStateCompat.Builder stateBuilder = new PlaybackStateCompat.Builder().setActions(ACTIONS);
+    private JcAudio jcAudio; // Audio of the published metadata.
+    private long duration;
+    private volatile int stateCount;
+
+    /**
+     * @param callbackHandler runs the transport controls.
+     */
+    JcMediaSession(Context context, JcClock clock, Handler callbackHandler) {
+        this.clock = clock;
+        session = new MediaSessionCompat(context, TAG);
+        session.setFlags(MediaSessionCompat.FLAG_HANDLES_MEDIA_BUTTONS
+                | MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS);
+        session.setCallback(callback, callbackHandler);
+        session.setActive(true);
+    }
+
+    /**
+     * Publish the audio, unless it is already the published one.
+     *
+     * @param duration in milliseconds, 0 while unknown.
+     */
+    void setAudio(JcAudio jcAudio, long duration) {
+        if (jcAudio == this.jcAudio && duration == this.duration) {
+            return;
+        }
+        this.jcAudio = jcAudio;
+        this.duration = duration;
+        session.setMetadata(new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, String.valueOf(jcAudio.getId()))
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, jcAudio.getTitle())
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, duration)
+                .build());
+    }
+
+    /**
+     * @param state    one of the PlaybackStateCompat STATE_* constants.
+     * @param position in milliseconds, read just before.
+     */
+    void setState(int state, long position) {
+        float speed = state == PlaybackStateCompat.STATE_PLAYING ? 1f : 0f;
+        session.setPlaybackState(stateBuilder.setState(state, position, speed, clock.elapsedRealtime()).build());
+        stateCount++;
+    }
+
+    /**
+     * @return how many states were published, which only grows when playback changes.
+     */
+    int getStateCount() {
+        return stateCount;
+    }
+
+    MediaSessionCompat.Token getSessionToken() {
+        return session.getSessionToken();
+    }
+
+    void release() {
+        session.setActive(false);
+        session.release();
+    }
+
+    private final MediaSessionCompat.Callback callback = new MediaSessionCompat.Callback() {
+        @Override
+        public void onPlay() {
+            JcPlayerNotificationReceiver.handleAction(JcNotificationPlayerService.PLAY);
+        }
+
+        @Override
+        public void onPause() {
+            JcPlayerNotificationReceiver.handleAction(JcNotificationPlayerService.PAUSE);
+        }
+
+        @Override
+        public void onSkipToNext() {
+            JcPlayerNotificationReceiver.handleAction(JcNotificationPlayerService.NEXT);
+        }
+
+        @Override
+        public void onSkipToPrevious() {
+            JcPlayerNotificationReceiver.handleAction(JcNotificationPlayerService.PREVIOUS);
+        }
+
+        @Override
+        public void onSeekTo(long position) {
+            JcAudioPlayer jcAudioPlayer = JcAudioPlayer.getInstance();
+            if (jcAudioPlayer != null) {
+                jcAudioPlayer.seekTo((int) position);
+            }
+        }
+    };
+}
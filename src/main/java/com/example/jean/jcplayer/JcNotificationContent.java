@@ -0,0 +1,88 @@
+package com.example.jean.jcplayer;
+
+/**
+ * What the player notification shows, to post only what changed. A change of layout or icon
+ * needs new RemoteViews, a change of text only needs the text set on the current ones.
+ * <p>
+ * Every text set on RemoteViews is one more action replayed each time the notification is
+ * posted, so the RemoteViews are rebuilt after {@code maxTextUpdates} of them. The caller
+ * only passes a new time when the shown second changes, so every time change is posted.
+ */
+class JcNotificationContent {
+    static final int UNCHANGED = 0;
+    static final int TITLE_CHANGED = 1;
+    static final int TIME_CHANGED = 2;
+    static final int LAYOUT_CHANGED = 4; // Title and time are set on the new RemoteViews too.
+
+    static final int DEFAULT_MAX_TEXT_UPDATES = 64;
+
+    private final int maxTextUpdates;
+
+    private boolean hasLayout;
+    private boolean isPaused;
+    private int icon;
+    private String title;
+    private String time;
+    private int textUpdates;
+
+    JcNotificationContent() {
+        this(DEFAULT_MAX_TEXT_UPDATES);
+    }
+
+    JcNotificationContent(int maxTextUpdates) {
+        this.maxTextUpdates = maxTextUpdates;
+    }
+
+    /**
+     * Take the values to show.
+     *
+     * @return the changes to apply, a combination of the *_CHANGED flags, or UNCHANGED if
+     * nothing needs to be posted.
+     */
+    int update(boolean isPaused, int icon, String title, String time) {
+        if (!hasLayout || isPaused != this.isPaused || icon != this.icon || textUpdates >= maxTextUpdates) {
+            hasLayout = true;
+            this.isPaused = isPaused;
+            this.icon = icon;
+            this.title = title;
+            this.time = time;
+            textUpdates = 0;
+            return LAYOUT_CHANGED;
+        }
+
+        int changes = UNCHANGED;
+        if (!equals(title, this.title)) {
+            this.title = title;
+            textUpdates++;
+            changes |= TITLE_CHANGED;
+        }
+        if (!equals(time, this.time)) {
+            this.time = time;
+            textUpdates++;
+            changes |= TIME_CHANGED;
+        }
+        return changes;
+    }
+
+    /**
+     * Forget what is shown, the next update rebuilds everything. Call when the notification
+     * is removed.
+     */
+    void reset() {
+        hasLayout = false;
+        title = null;
+        time = null;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getTime() {
+        return time;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
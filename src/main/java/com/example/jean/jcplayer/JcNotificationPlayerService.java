@@ -5,9 +5,14 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.support.v4.app.NotificationCompat;
+import android.support.v4.media.session.MediaSessionCompat;
 import android.widget.RemoteViews;
 
 /**
@@ -20,6 +25,8 @@ class JcNotificationPlayerService implements JcPlayerView.JcPlayerViewServiceLis
     static final String PLAY = "PLAY";
     static final String ACTION = "ACTION";
     static final String PLAYLIST = "PLAYLIST";
+    static final String PLAYLIST_HANDLE = "PLAYLIST_HANDLE";
+    static final String PLAYLIST_VERSION = "PLAYLIST_VERSION";
     static final String CURRENT_AUDIO = "CURRENT_AUDIO";
 
     private static final int NOTIFICATION_ID = 100;
@@ -29,80 +36,197 @@ class JcNotificationPlayerService implements JcPlayerView.JcPlayerViewServiceLis
     private static final int PAUSE_ID = 3;
 
     private NotificationManager notificationManager;
+    private boolean isShown; // Between createNotificationPlayer and destroyNotificationIfExists.
     private Context context;
     private String title;
     private String time  = "00:00";
+    private long timeSecond = -1; // Second shown in time, it is only formatted again when it changes.
     private int iconResource;
-    private Notification notification;
+
+    // Built once, then only what changed is set before posting again.
+    private final JcNotificationContent content = new JcNotificationContent();
+    private final JcRateCounter postCounter = new JcRateCounter();
+    private Notification.Builder notificationBuilder;
     private NotificationCompat.Builder notificationCompat;
+    private RemoteViews remoteView;
+    private Bitmap largeIcon;
+    private int largeIconResource;
+    private PendingIntent contentIntent;
+    private MediaSessionCompat.Token mediaSessionToken; // Linked to the posted notification.
+    private final PendingIntent[] actionIntents = new PendingIntent[4];
 
     public JcNotificationPlayerService(Context context){
         this.context = context;
     }
 
-    public void createNotificationPlayer(String title, int iconResourceResource) {
+    public synchronized void createNotificationPlayer(String title, int iconResourceResource) {
+        JcTrace.begin("JcNotificationPlayerService.createNotificationPlayer");
         this.title = title;
         this.iconResource = iconResourceResource;
-        Intent openUi = new Intent(context, context.getClass());
-        openUi.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
         JcAudioPlayer.getInstance().registerNotificationListener(this);
 
         if (notificationManager == null) {
             notificationManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
         }
 
+        // Posted even if nothing changed, the user may have dismissed it.
+        isShown = true;
+        content.reset();
+        post();
+        JcTrace.end("JcNotificationPlayerService.createNotificationPlayer");
+    }
+
+    public void updateNotification() {
+        createNotificationPlayer(title, iconResource);
+    }
+
+    /**
+     * Apply what changed since the last post to the notification and post it, if anything did.
+     */
+    private synchronized void post() {
+        if (!isShown) {
+            return; // Not created yet, or destroyed.
+        }
+
+        JcAudioPlayer jcAudioPlayer = JcAudioPlayer.getInstance();
+        boolean isPaused = jcAudioPlayer.isPaused();
+        int changes = content.update(isPaused, iconResource, title, time);
+        MediaSessionCompat.Token token = jcAudioPlayer.getMediaSessionToken();
+        boolean isSessionChanged = token != mediaSessionToken;
+        if (changes == JcNotificationContent.UNCHANGED && !isSessionChanged) {
+            return;
+        }
+
+        JcTrace.begin("JcNotificationPlayerService.post");
+        if ((changes & JcNotificationContent.LAYOUT_CHANGED) != 0) {
+            remoteView = createNotificationPlayerView(isPaused);
+            setContent(remoteView);
+        } else {
+            if ((changes & JcNotificationContent.TITLE_CHANGED) != 0) {
+                remoteView.setTextViewText(R.id.txt_current_music_notification, content.getTitle());
+            }
+            if ((changes & JcNotificationContent.TIME_CHANGED) != 0) {
+                remoteView.setTextViewText(R.id.txt_duration_notification, content.getTime());
+            }
+        }
+        if (isSessionChanged) {
+            setMediaSession(token);
+        }
+
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-            notification = new Notification.Builder(context)
-                    .setVisibility(Notification.VISIBILITY_PUBLIC)
-                    .setSmallIcon(iconResourceResource)
-                    .setLargeIcon(BitmapFactory.decodeResource(context.getResources(), iconResourceResource))
-                    .setContent(createNotificationPlayerView())
-                    .setContentIntent(PendingIntent.getActivity(context, NOTIFICATION_ID, openUi, PendingIntent.FLAG_CANCEL_CURRENT))
-                    .setCategory(Notification.CATEGORY_SOCIAL)
-                    .build();
-            notificationManager.notify(NOTIFICATION_ID, notification);
+            notificationManager.notify(NOTIFICATION_ID, notificationBuilder.build());
         } else {
-            notificationCompat = new NotificationCompat.Builder(context)
-                    //TODO: Set to API below Build.VERSION.SDK_INT
-                    .setVisibility(Notification.VISIBILITY_PUBLIC)
-                    .setSmallIcon(iconResourceResource)
-                    .setLargeIcon(BitmapFactory.decodeResource(context.getResources(), iconResourceResource))
-                    .setContent(createNotificationPlayerView())
-                    .setContentIntent(PendingIntent.getActivity(context, NOTIFICATION_ID, openUi, PendingIntent.FLAG_CANCEL_CURRENT))
-                    .setCategory(Notification.CATEGORY_SOCIAL);
             notificationManager.notify(NOTIFICATION_ID, notificationCompat.build());
         }
+        postCounter.record(SystemClock.elapsedRealtime());
+        JcTrace.end("JcNotificationPlayerService.post");
     }
 
-    public void updateNotification() {
-        createNotificationPlayer(title, iconResource);
+    private void setContent(RemoteViews remoteView) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            if (notificationBuilder == null) {
+                notificationBuilder = new Notification.Builder(context)
+                        .setVisibility(Notification.VISIBILITY_PUBLIC)
+                        .setContentIntent(getContentIntent())
+                        .setCategory(Notification.CATEGORY_SOCIAL);
+            }
+            notificationBuilder
+                    .setSmallIcon(iconResource)
+                    .setLargeIcon(getLargeIcon())
+                    .setContent(remoteView);
+        } else {
+            if (notificationCompat == null) {
+                notificationCompat = new NotificationCompat.Builder(context)
+                        //TODO: Set to API below Build.VERSION.SDK_INT
+                        .setVisibility(Notification.VISIBILITY_PUBLIC)
+                        .setContentIntent(getContentIntent())
+                        .setCategory(Notification.CATEGORY_SOCIAL);
+            }
+            notificationCompat
+                    .setSmallIcon(iconResource)
+                    .setLargeIcon(getLargeIcon())
+                    .setContent(remoteView);
+        }
     }
 
-    private RemoteViews createNotificationPlayerView() {
+    /**
+     * Link the notification to the media session, so the system media controls and the
+     * notification show the same audio. The session token goes into the extras like
+     * MediaStyle does, a MediaStyle would replace the custom layout before Android N.
+     */
+    private void setMediaSession(MediaSessionCompat.Token token) {
+        mediaSessionToken = token;
+        String category = token != null ? Notification.CATEGORY_TRANSPORT : Notification.CATEGORY_SOCIAL;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Bundle extras = new Bundle();
+            if (token != null) {
+                extras.putParcelable(Notification.EXTRA_MEDIA_SESSION, (Parcelable) token.getToken());
+            }
+            notificationBuilder.setExtras(extras).setCategory(category);
+        } else {
+            // No framework session to link to, the session compat handles the media buttons.
+            notificationCompat.setCategory(category);
+        }
+    }
+
+    private Bitmap getLargeIcon() {
+        if (largeIcon == null || largeIconResource != iconResource) {
+            largeIcon = BitmapFactory.decodeResource(context.getResources(), iconResource);
+            largeIconResource = iconResource;
+        }
+        return largeIcon;
+    }
+
+    private PendingIntent getContentIntent() {
+        if (contentIntent == null) {
+            Intent openUi = new Intent(context, context.getClass());
+            openUi.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            contentIntent = PendingIntent.getActivity(context, NOTIFICATION_ID, openUi, PendingIntent.FLAG_CANCEL_CURRENT);
+        }
+        return contentIntent;
+    }
+
+    private RemoteViews createNotificationPlayerView(boolean isPaused) {
         RemoteViews remoteView;
 
-        if (JcAudioPlayer.getInstance().isPaused()) {
+        if (isPaused) {
             remoteView = new RemoteViews(context.getPackageName(), R.layout.notification_play);
-            remoteView.setOnClickPendingIntent(R.id.btn_play_notification, buildPendingIntent(PLAY, PLAY_ID));
+            remoteView.setOnClickPendingIntent(R.id.btn_play_notification, getPendingIntent(PLAY, PLAY_ID));
         } else {
             remoteView = new RemoteViews(context.getPackageName(), R.layout.notification_pause);
-            remoteView.setOnClickPendingIntent(R.id.btn_pause_notification, buildPendingIntent(PAUSE, PAUSE_ID));
+            remoteView.setOnClickPendingIntent(R.id.btn_pause_notification, getPendingIntent(PAUSE, PAUSE_ID));
         }
 
-        remoteView.setTextViewText(R.id.txt_current_music_notification, title);
-        remoteView.setTextViewText(R.id.txt_duration_notification, time);
+        remoteView.setTextViewText(R.id.txt_current_music_notification, content.getTitle());
+        remoteView.setTextViewText(R.id.txt_duration_notification, content.getTime());
         remoteView.setImageViewResource(R.id.icon_player, iconResource);
-        remoteView.setOnClickPendingIntent(R.id.btn_next_notification, buildPendingIntent(NEXT, NEXT_ID));
-        remoteView.setOnClickPendingIntent(R.id.btn_prev_notification, buildPendingIntent(PREVIOUS, PREVIOUS_ID));
+        remoteView.setOnClickPendingIntent(R.id.btn_next_notification, getPendingIntent(NEXT, NEXT_ID));
+        remoteView.setOnClickPendingIntent(R.id.btn_prev_notification, getPendingIntent(PREVIOUS, PREVIOUS_ID));
 
         return remoteView;
     }
 
-    private PendingIntent buildPendingIntent(String action, int id) {
-        Intent playIntent = new Intent(context.getApplicationContext(), JcPlayerNotificationReceiver.class);
-        playIntent.putExtra(ACTION, action);
+    private PendingIntent getPendingIntent(String action, int id) {
+        if (actionIntents[id] == null) {
+            Intent playIntent = new Intent(context.getApplicationContext(), JcPlayerNotificationReceiver.class);
+            playIntent.putExtra(ACTION, action);
+            actionIntents[id] = PendingIntent.getBroadcast(context.getApplicationContext(), id, playIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+        }
+        return actionIntents[id];
+    }
+
+    /**
+     * @return how many times the notification was posted during the last minute.
+     */
+    int getPostsPerMinute() {
+        return postCounter.getCountPerMinute(SystemClock.elapsedRealtime());
+    }
 
-        return PendingIntent.getBroadcast(context.getApplicationContext(), id, playIntent, PendingIntent.FLAG_UPDATE_CURRENT);
+    /**
+     * @return how many times the notification was posted since the player was created.
+     */
+    long getPostCount() {
+        return postCounter.getCount();
     }
 
     @Override
@@ -117,7 +241,7 @@ class JcNotificationPlayerService implements JcPlayerView.JcPlayerViewServiceLis
 
     @Override
     public void onPaused() {
-        createNotificationPlayer(title, iconResource);
+        post();
     }
 
     @Override
@@ -127,28 +251,31 @@ class JcNotificationPlayerService implements JcPlayerView.JcPlayerViewServiceLis
 
     @Override
     public void onPlaying() {
-        createNotificationPlayer(title, iconResource);
+        post();
     }
 
     @Override
     public void onTimeChanged(long currentTime) {
-        long aux = currentTime / 1000;
-        int minutes = (int) (aux / 60);
-        int seconds = (int) (aux % 60);
-        final String sMinutes = minutes < 10 ? "0" + minutes : minutes + "";
-        final String sSeconds = seconds < 10 ? "0" + seconds : seconds + "";
-        this.time = sMinutes + ":" + sSeconds;
-
-        createNotificationPlayer(title, iconResource);
+        // Called on every tick, the shown time only changes once per second. Gating on the
+        // shown second alone posts each second once, however early or late its tick comes.
+        synchronized (this) {
+            long second = currentTime / 1000;
+            if (second == timeSecond) {
+                return;
+            }
+            timeSecond = second;
+            time = JcTimeFormat.format(currentTime);
+        }
+        post();
     }
 
     @Override
-    public void updateTitle(String title) {
+    public synchronized void updateTitle(String title) {
         this.title = title;
-        createNotificationPlayer(title, iconResource);
+        post();
     }
 
-    public void destroyNotificationIfExists() {
+    public synchronized void destroyNotificationIfExists() {
         if (notificationManager != null) {
             try {
                 notificationManager.cancel(NOTIFICATION_ID);
@@ -156,5 +283,7 @@ class JcNotificationPlayerService implements JcPlayerView.JcPlayerViewServiceLis
                 e.printStackTrace();
             }
         }
+        isShown = false;
+        content.reset();
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.example.jean.jcplayer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Service commands issued before {@link JcPlayerService} is bound, replayed in order once it
+ * is. Commands that a later one makes useless are dropped when the later one is added, so the
+ * service only does the work that still matters when it starts.
+ */
+class JcPendingCommands {
+    /** Starts an audio. Drops every play, pause and seek before it. */
+    static final int PLAY = 0;
+    /** Drops the pauses since the last play. */
+    static final int PAUSE = 1;
+    /** Drops the seeks since the last play. */
+    static final int SEEK = 2;
+
+    private static class Command {
+        final int type;
+        final Runnable action;
+
+        Command(int type, Runnable action) {
+            this.type = type;
+            this.action = action;
+        }
+    }
+
+    private final List<Command> commands = new ArrayList<>();
+    private int collapsedCount;
+
+    void add(int type, Runnable action) {
+        // A pause or a seek only replaces the ones that apply to the same audio.
+        int lastPlay = -1;
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i).type == PLAY) {
+                lastPlay = i;
+            }
+        }
+
+        Iterator<Command> iterator = commands.iterator();
+        int index = 0;
+        while (iterator.hasNext()) {
+            Command command = iterator.next();
+            boolean redundant = type == PLAY || (command.type == type && index > lastPlay);
+            if (redundant) {
+                iterator.remove();
+                collapsedCount++;
+            }
+            index++;
+        }
+        commands.add(new Command(type, action));
+    }
+
+    /**
+     * Run the commands in the order they were added and forget them.
+     */
+    void replay() {
+        List<Command> replayed = new ArrayList<>(commands);
+        commands.clear();
+        for (Command command : replayed) {
+            command.action.run();
+        }
+    }
+
+    void clear() {
+        commands.clear();
+    }
+
+    int size() {
+        return commands.size();
+    }
+
+    /**
+     * @return how many commands were dropped because a later one replaced them.
+     */
+    int getCollapsedCount() {
+        return collapsedCount;
+    }
+}
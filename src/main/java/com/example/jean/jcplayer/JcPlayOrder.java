@@ -0,0 +1,194 @@
+package com.example.jean.jcplayer;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * Order in which {@link JcAudioPlayer} plays the playlist: in playlist order or shuffled, with
+ * an "up next" queue on top. Queued audios play before the rest of the order, once each, and
+ * don't move the position in the playlist.
+ * <p>
+ * Nothing here copies the playlist. Next and previous are O(1) in playlist order and in
+ * shuffle order, see {@link JcShuffle}.
+ */
+class JcPlayOrder {
+    private final JcPlaylist playlist;
+    private final ArrayDeque<JcAudio> upNext = new ArrayDeque<>();
+    private JcShuffle shuffle;
+    private int shuffleReorderCount;
+    private boolean playingQueued;
+
+    JcPlayOrder(JcPlaylist playlist) {
+        this.playlist = playlist;
+    }
+
+    boolean isShuffled() {
+        return shuffle != null;
+    }
+
+    /**
+     * Start a new shuffle order from the current audio, or go back to playlist order.
+     */
+    void setShuffled(boolean shuffled, Random random) {
+        if (!shuffled) {
+            shuffle = null;
+            return;
+        }
+
+        shuffle = new JcShuffle(playlist.size(), random);
+        shuffleReorderCount = playlist.getReorderCount();
+        if (playlist.getCurrent() != null) {
+            shuffle.select(playlist.getCurrentIndex());
+        }
+    }
+
+    /**
+     * Play this audio after the current one, and after the audios queued before it.
+     */
+    void enqueue(JcAudio audio) {
+        upNext.addLast(audio);
+    }
+
+    void clearQueue() {
+        upNext.clear();
+    }
+
+    int getQueueSize() {
+        return upNext.size();
+    }
+
+    /**
+     * The audio was picked by the user, the order continues from it.
+     */
+    void setCurrent(JcAudio audio) {
+        playingQueued = false;
+        if (playlist.setCurrent(audio) && shuffle != null) {
+            syncShuffle();
+            shuffle.select(playlist.getCurrentIndex());
+        }
+    }
+
+    /**
+     * Call when audios were added to or removed from the playlist.
+     */
+    void onPlaylistChanged() {
+        if (shuffle != null) {
+            syncShuffle();
+        }
+    }
+
+    /**
+     * @return the audio to play next, or null if there is nothing to play. Wraps around the end
+     * of the playlist, or starts a new shuffle order.
+     */
+    JcAudio next() {
+        if (!upNext.isEmpty()) {
+            playingQueued = true;
+            return upNext.pollFirst();
+        }
+        playingQueued = false;
+        if (playlist.isEmpty()) {
+            return null;
+        }
+
+        JcAudio nextAudio;
+        if (shuffle != null) {
+            syncShuffle();
+            int index = shuffle.next();
+            if (index < 0) {
+                shuffle.restart(playlist.size());
+                index = shuffle.next();
+            }
+            nextAudio = playlist.get(index);
+        } else {
+            nextAudio = playlist.getNext();
+            if (nextAudio == null) {
+                nextAudio = playlist.get(0);
+            }
+        }
+        playlist.setCurrent(nextAudio);
+        return nextAudio;
+    }
+
+    /**
+     * @return the audio to play for previous, or null if there is nothing to play. From a queued
+     * audio, that's the audio played before the queue. At the start of the order, the first
+     * audio.
+     */
+    JcAudio previous() {
+        if (playlist.isEmpty()) {
+            return null;
+        }
+        if (playingQueued) {
+            playingQueued = false;
+            JcAudio current = playlist.getCurrent();
+            if (current != null) {
+                return current;
+            }
+        }
+
+        JcAudio previousAudio;
+        if (shuffle != null) {
+            syncShuffle();
+            int index = shuffle.previous();
+            if (index < 0) {
+                index = shuffle.current();
+            }
+            if (index < 0) {
+                index = shuffle.next();
+            }
+            previousAudio = playlist.get(index);
+        } else {
+            previousAudio = playlist.getPrevious();
+            if (previousAudio == null) {
+                previousAudio = playlist.get(0);
+            }
+        }
+        playlist.setCurrent(previousAudio);
+        return previousAudio;
+    }
+
+    /**
+     * @return the audio that {@link #next()} would return after offset - 1 calls, without moving
+     * in the order. Null if unknown yet, past the end of a shuffle order.
+     */
+    JcAudio peek(int offset) {
+        if (offset <= upNext.size()) {
+            int i = 1;
+            for (JcAudio audio : upNext) {
+                if (i++ == offset) {
+                    return audio;
+                }
+            }
+        }
+        if (playlist.isEmpty()) {
+            return null;
+        }
+
+        offset -= upNext.size();
+        if (shuffle != null) {
+            syncShuffle();
+            int index = shuffle.peek(offset);
+            return index < 0 ? null : playlist.get(index);
+        }
+        int index = (playlist.getCurrentIndex() + offset) % playlist.size();
+        return playlist.get(index);
+    }
+
+    /**
+     * Keep the shuffle indexes valid. Appended audios join the audios not played yet, any other
+     * change starts a new order from the current audio.
+     */
+    private void syncShuffle() {
+        if (shuffleReorderCount == playlist.getReorderCount()) {
+            shuffle.setSize(playlist.size());
+            return;
+        }
+
+        shuffleReorderCount = playlist.getReorderCount();
+        shuffle.restart(playlist.size());
+        if (playlist.getCurrent() != null) {
+            shuffle.select(playlist.getCurrentIndex());
+        }
+    }
+}
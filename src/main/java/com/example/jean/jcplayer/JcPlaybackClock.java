@@ -0,0 +1,125 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Position of the current audio, without asking the MediaPlayer every time: each
+ * {@link android.media.MediaPlayer#getCurrentPosition()} is a synchronous call to the media
+ * server. The clock is anchored on the real position when playback starts, resumes, seeks or
+ * stalls, and moves on from there with the elapsed time and the speed.
+ * <p>
+ * While running it asks to be resynchronized every {@link #DEFAULT_RESYNC_INTERVAL} ms. When a
+ * resync finds it off by more than {@link #DRIFT_THRESHOLD} ms, it asks again sooner, and backs
+ * off once it keeps up.
+ * <p>
+ * Anchored and ticked on the playback thread but read by any thread, every method is synchronized.
+ */
+class JcPlaybackClock {
+    static final long DEFAULT_RESYNC_INTERVAL = 2000;
+    static final long MIN_RESYNC_INTERVAL = 200;
+    static final long DRIFT_THRESHOLD = 50;
+
+    private final JcClock clock;
+    private final long maxResyncInterval;
+    private long resyncInterval;
+
+    private long anchorPosition;
+    private long anchorTime;
+    private boolean isRunning;
+    private float speed = 1f;
+    private long duration;
+
+    private int resyncCount;
+    private long lastDrift;
+    private long maxDrift;
+
+    JcPlaybackClock(JcClock clock) {
+        this(clock, DEFAULT_RESYNC_INTERVAL);
+    }
+
+    JcPlaybackClock(JcClock clock, long resyncInterval) {
+        this.clock = clock;
+        this.maxResyncInterval = resyncInterval;
+        this.resyncInterval = resyncInterval;
+    }
+
+    /**
+     * @param position  real position, in milliseconds.
+     * @param isRunning true if the audio plays from there, false if it stays at the position.
+     */
+    synchronized void anchor(long position, boolean isRunning) {
+        anchorPosition = position;
+        anchorTime = clock.elapsedRealtime();
+        this.isRunning = isRunning;
+    }
+
+    /**
+     * @param duration of the current audio in milliseconds, the position never goes past it.
+     *                 0 while unknown.
+     */
+    synchronized void setDuration(long duration) {
+        this.duration = duration;
+    }
+
+    synchronized void setSpeed(float speed) {
+        anchor(getPosition(), isRunning);
+        this.speed = speed;
+    }
+
+    synchronized float getSpeed() {
+        return speed;
+    }
+
+    synchronized long getPosition() {
+        if (!isRunning) {
+            return anchorPosition;
+        }
+        long position = anchorPosition + (long) ((clock.elapsedRealtime() - anchorTime) * speed);
+        return duration > 0 ? Math.min(position, duration) : position;
+    }
+
+    synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * @return true if the position should be read from the player and passed to
+     * {@link #resync(long)}.
+     */
+    synchronized boolean isResyncDue() {
+        return isRunning && clock.elapsedRealtime() - anchorTime >= resyncInterval;
+    }
+
+    /**
+     * Anchor on the real position without changing whether the clock runs.
+     *
+     * @return how far the clock was off, positive when it was late.
+     */
+    synchronized long resync(long position) {
+        long drift = position - getPosition();
+        anchor(position, isRunning);
+
+        resyncCount++;
+        lastDrift = drift;
+        maxDrift = Math.max(maxDrift, Math.abs(drift));
+        if (Math.abs(drift) > DRIFT_THRESHOLD) {
+            resyncInterval = Math.min(maxResyncInterval, MIN_RESYNC_INTERVAL);
+        } else {
+            resyncInterval = Math.min(maxResyncInterval, resyncInterval * 2);
+        }
+        return drift;
+    }
+
+    synchronized int getResyncCount() {
+        return resyncCount;
+    }
+
+    synchronized long getLastDrift() {
+        return lastDrift;
+    }
+
+    /**
+     * @return the largest drift found by a resync, in milliseconds either way.
+     */
+    synchronized long getMaxDrift() {
+        return maxDrift;
+    }
+}
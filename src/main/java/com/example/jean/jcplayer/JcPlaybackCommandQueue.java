@@ -0,0 +1,167 @@
+package com.example.jean.jcplayer;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the playback commands of {@link JcPlayerService} one after the other on a dedicated
+ * thread. Commands coming from the UI and from the notification are applied in the order they
+ * were issued, and slow work like source resolution never runs on the caller thread.
+ * <p>
+ * For each command type we keep how long commands waited in the queue and how long they took
+ * to execute.
+ * <p>
+ * Simulations run the commands on a given executor instead, usually driven by a virtual clock.
+ */
+class JcPlaybackCommandQueue {
+    static final int PLAY = 0;
+    static final int PAUSE = 1;
+    static final int SEEK = 2;
+    static final int STOP = 3;
+    static final int NEXT_AUDIO = 4;
+    static final int OTHER = 5;
+    static final int TICK = 6; // Progress ticks, see JcPlaybackTicker.
+    private static final int COMMAND_COUNT = 7;
+
+    private final HandlerThread thread; // Null when commands run on an executor.
+    private final Handler handler;
+    private final ScheduledExecutorService executor;
+    private final JcClock clock;
+
+    private final long[] counts = new long[COMMAND_COUNT];
+    private final long[] queueWaitTotal = new long[COMMAND_COUNT];
+    private final long[] queueWaitMax = new long[COMMAND_COUNT];
+    private final long[] executionTotal = new long[COMMAND_COUNT];
+    private final long[] executionMax = new long[COMMAND_COUNT];
+
+    JcPlaybackCommandQueue() {
+        thread = new HandlerThread("JcPlayback", Process.THREAD_PRIORITY_AUDIO);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        executor = null;
+        clock = JcClock.SYSTEM;
+    }
+
+    /**
+     * Run the commands on the executor, which must run them one at a time. It belongs to the
+     * caller, {@link #quit()} doesn't shut it down.
+     */
+    JcPlaybackCommandQueue(ScheduledExecutorService executor, JcClock clock) {
+        thread = null;
+        handler = null;
+        this.executor = executor;
+        this.clock = clock;
+    }
+
+    /**
+     * Queue a command. It runs after every command queued before it.
+     *
+     * @param command type of the command, used for the latency stats.
+     * @param action  what to do on the playback thread.
+     */
+    void post(int command, Runnable action) {
+        postDelayed(command, action, 0);
+    }
+
+    /**
+     * Queue a command that runs once the delay is over. Its queue wait is counted from then.
+     *
+     * @param delay in milliseconds.
+     */
+    void postDelayed(final int command, final Runnable action, long delay) {
+        final long enqueuedAt = clock.nanoTime() + delay * 1000000;
+
+        Runnable timedAction = new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = clock.nanoTime();
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    // Keep the playback thread alive, a broken command must not stop the next ones.
+                    e.printStackTrace();
+                }
+                record(command, Math.max(0, startedAt - enqueuedAt), clock.nanoTime() - startedAt);
+            }
+        };
+        if (handler != null) {
+            handler.postDelayed(timedAction, delay);
+        } else {
+            executor.schedule(timedAction, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return true if the caller is running on the playback thread.
+     */
+    boolean isPlaybackThread() {
+        return thread != null && Looper.myLooper() == thread.getLooper();
+    }
+
+    /**
+     * @return the looper of the playback thread, or null when commands run on an executor.
+     */
+    Looper getLooper() {
+        return thread != null ? thread.getLooper() : null;
+    }
+
+    /**
+     * Stop the playback thread once every queued command ran.
+     */
+    void quit() {
+        if (handler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                thread.quit();
+            }
+        });
+    }
+
+    private synchronized void record(int command, long queueWait, long execution) {
+        counts[command]++;
+        queueWaitTotal[command] += queueWait;
+        queueWaitMax[command] = Math.max(queueWaitMax[command], queueWait);
+        executionTotal[command] += execution;
+        executionMax[command] = Math.max(executionMax[command], execution);
+    }
+
+    synchronized long getCount(int command) {
+        return counts[command];
+    }
+
+    /**
+     * @return average time commands of this type waited before running, in microseconds.
+     */
+    synchronized long getAverageQueueWait(int command) {
+        return counts[command] == 0 ? 0 : queueWaitTotal[command] / counts[command] / 1000;
+    }
+
+    /**
+     * @return longest time a command of this type waited before running, in microseconds.
+     */
+    synchronized long getMaxQueueWait(int command) {
+        return queueWaitMax[command] / 1000;
+    }
+
+    /**
+     * @return average time commands of this type took to run, in microseconds.
+     */
+    synchronized long getAverageExecutionTime(int command) {
+        return counts[command] == 0 ? 0 : executionTotal[command] / counts[command] / 1000;
+    }
+
+    /**
+     * @return longest time a command of this type took to run, in microseconds.
+     */
+    synchronized long getMaxExecutionTime(int command) {
+        return executionMax[command] / 1000;
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.jean.jcplayer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playback measurements of a {@link JcPlayerService}, read with
+ * {@link JcPlayerService#getPlaybackMetrics()}. Every value goes to a fixed-bucket
+ * {@link JcLatencyHistogram}, so recording never allocates.
+ * <p>
+ * Latencies are in milliseconds, except the listener dispatch time which is in microseconds.
+ */
+public class JcPlaybackMetrics {
+    private static final String TAG = JcPlaybackMetrics.class.getSimpleName();
+
+    private final JcLatencyHistogram[] timeToFirstAudio = new JcLatencyHistogram[Origin.values().length];
+    private final JcLatencyHistogram prepareLatency;
+    private final JcLatencyHistogram seekLatency;
+    private final JcLatencyHistogram rebufferDuration;
+    private final JcLatencyHistogram listenerDispatchTime;
+    private final JcLatencyHistogram trackGap;
+    private volatile int errorCount;
+
+    private ScheduledExecutorService dumpExecutor;
+
+    public JcPlaybackMetrics() {
+        for (int i = 0; i < timeToFirstAudio.length; i++) {
+            timeToFirstAudio[i] = new JcLatencyHistogram();
+        }
+        prepareLatency = new JcLatencyHistogram();
+        seekLatency = new JcLatencyHistogram();
+        rebufferDuration = new JcLatencyHistogram();
+        listenerDispatchTime = new JcLatencyHistogram();
+        trackGap = new JcLatencyHistogram();
+    }
+
+    private JcPlaybackMetrics(JcPlaybackMetrics metrics) {
+        for (int i = 0; i < timeToFirstAudio.length; i++) {
+            timeToFirstAudio[i] = metrics.timeToFirstAudio[i].copy();
+        }
+        prepareLatency = metrics.prepareLatency.copy();
+        seekLatency = metrics.seekLatency.copy();
+        rebufferDuration = metrics.rebufferDuration.copy();
+        listenerDispatchTime = metrics.listenerDispatchTime.copy();
+        trackGap = metrics.trackGap.copy();
+        errorCount = metrics.errorCount;
+    }
+
+    /**
+     * @return time from a play request to its audio starting, for audios of this origin.
+     */
+    public JcLatencyHistogram getTimeToFirstAudio(Origin origin) {
+        return timeToFirstAudio[origin.ordinal()];
+    }
+
+    /**
+     * @return time from prepareAsync to onPrepared.
+     */
+    public JcLatencyHistogram getPrepareLatency() {
+        return prepareLatency;
+    }
+
+    /**
+     * @return time between a seek request and playback resuming at the last requested position.
+     */
+    public JcLatencyHistogram getSeekLatency() {
+        return seekLatency;
+    }
+
+    /**
+     * @return how long playback stalled each time it had to rebuffer. Its count is the number
+     * of rebuffers.
+     */
+    public JcLatencyHistogram getRebufferDuration() {
+        return rebufferDuration;
+    }
+
+    /**
+     * @return time spent calling the listeners for one event, in microseconds.
+     */
+    public JcLatencyHistogram getListenerDispatchTime() {
+        return listenerDispatchTime;
+    }
+
+    /**
+     * @return silence between the end of an audio and the start of the next one.
+     */
+    public JcLatencyHistogram getTrackGap() {
+        return trackGap;
+    }
+
+    /**
+     * @return how many times a MediaPlayer reported an error.
+     */
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    void recordError() {
+        errorCount++;
+    }
+
+    /**
+     * @return a copy of the current values, which doesn't change when playback goes on.
+     */
+    public JcPlaybackMetrics snapshot() {
+        return new JcPlaybackMetrics(this);
+    }
+
+    public void reset() {
+        for (JcLatencyHistogram histogram : timeToFirstAudio) {
+            histogram.reset();
+        }
+        prepareLatency.reset();
+        seekLatency.reset();
+        rebufferDuration.reset();
+        listenerDispatchTime.reset();
+        trackGap.reset();
+        errorCount = 0;
+    }
+
+    /**
+     * Write a snapshot of the metrics every interval, to logcat or appended to a file.
+     * Replaces the previous periodic dump.
+     *
+     * @param interval time between two dumps, in milliseconds.
+     * @param file     file to append to, or null for logcat.
+     */
+    public synchronized void startPeriodicDump(long interval, final File file) {
+        stopPeriodicDump();
+        dumpExecutor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        dumpExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                if (file == null) {
+                    Log.i(TAG, snapshot().toString());
+                    return;
+                }
+
+                try {
+                    Writer writer = new FileWriter(file, true);
+                    try {
+                        writer.write(snapshot().toString());
+                        writer.write('\n');
+                    } finally {
+                        writer.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopPeriodicDump() {
+        if (dumpExecutor != null) {
+            dumpExecutor.shutdown();
+            dumpExecutor = null;
+        }
+    }
+
+    /**
+     * One line per histogram: count, mean, 50th and 95th percentiles and max.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Origin origin : Origin.values()) {
+            append(builder, "time_to_first_audio_" + origin.name().toLowerCase(Locale.US), getTimeToFirstAudio(origin));
+        }
+        append(builder, "prepare_latency", prepareLatency);
+        append(builder, "seek_latency", seekLatency);
+        append(builder, "rebuffer_duration", rebufferDuration);
+        append(builder, "listener_dispatch_us", listenerDispatchTime);
+        append(builder, "track_gap", trackGap);
+        builder.append("errors ").append(errorCount);
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, String name, JcLatencyHistogram histogram) {
+        builder.append(name)
+                .append(" count=").append(histogram.getCount())
+                .append(" mean=").append(histogram.getMean())
+                .append(" p50=").append(histogram.getPercentile(50))
+                .append(" p95=").append(histogram.getPercentile(95))
+                .append(" max=").append(histogram.getMax())
+                .append('\n');
+    }
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "JcPlaybackMetrics");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    };
+}
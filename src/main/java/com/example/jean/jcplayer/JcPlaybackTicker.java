@@ -0,0 +1,94 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Single progress ticker owned by {@link JcPlayerService}. It runs the tick on the playback
+ * thread while the audio is playing, no matter how many times playback is started, so ticks
+ * and commands never run at the same time and see the same player.
+ * <p>
+ * Each tick is queued after the previous one ran, on the {@link JcPlaybackCommandQueue} of the
+ * service. Simulations give the queue an executor, the ticks then follow its clock.
+ */
+class JcPlaybackTicker {
+    static final long DEFAULT_INTERVAL = 200; // milliseconds
+
+    private final Runnable tick;
+    private final JcPlaybackCommandQueue commandQueue;
+    private Tick scheduledTick; // Null when stopped.
+    private long interval = DEFAULT_INTERVAL;
+
+    JcPlaybackTicker(Runnable tick, JcPlaybackCommandQueue commandQueue) {
+        this.tick = tick;
+        this.commandQueue = commandQueue;
+    }
+
+    /**
+     * Start ticking. Does nothing if the ticker is already running.
+     */
+    synchronized void start() {
+        if (scheduledTick != null) {
+            return;
+        }
+
+        scheduledTick = new Tick();
+        commandQueue.post(JcPlaybackCommandQueue.TICK, scheduledTick);
+    }
+
+    /**
+     * Stop ticking. A tick already queued doesn't run.
+     */
+    synchronized void stop() {
+        scheduledTick = null;
+    }
+
+    synchronized boolean isRunning() {
+        return scheduledTick != null;
+    }
+
+    /**
+     * Change the tick interval. A running ticker is rescheduled with the new value.
+     *
+     * @param interval time between two ticks, in milliseconds.
+     */
+    synchronized void setInterval(long interval) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Tick interval must be positive: " + interval);
+        }
+
+        this.interval = interval;
+        if (scheduledTick != null) {
+            stop();
+            start();
+        }
+    }
+
+    synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Queues itself again after each run, until the ticker is stopped or started again.
+     */
+    private class Tick implements Runnable {
+        @Override
+        public void run() {
+            synchronized (JcPlaybackTicker.this) {
+                if (scheduledTick != this) {
+                    return;
+                }
+            }
+
+            try {
+                tick.run();
+            } catch (RuntimeException e) {
+                // A failing tick must not cancel the schedule.
+                e.printStackTrace();
+            }
+
+            synchronized (JcPlaybackTicker.this) {
+                if (scheduledTick == this) {
+                    commandQueue.postDelayed(JcPlaybackCommandQueue.TICK, this, interval);
+                }
+            }
+        }
+    }
+}
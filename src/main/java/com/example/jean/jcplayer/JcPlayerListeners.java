@@ -0,0 +1,68 @@
+package com.example.jean.jcplayer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Listeners of {@link JcPlayerView}. The view implements this interface, so they are still
+ * named {@code JcPlayerView.JcPlayerViewServiceListener} and so on. They are declared here to be
+ * usable without the Android views, by the benchmarks for instance.
+ */
+public interface JcPlayerListeners {
+
+    /**
+     * Called on the playback thread of the service, or on the caller thread for an invalid url.
+     */
+    public interface OnInvalidPathListener {
+        void onPathError(JcAudio jcAudio);
+    }
+
+    /**
+     * Called on the playback threads of the service, never on the main thread. Post to the main
+     * thread before touching views or the playlist, or use
+     * {@link JcPlayerView#subscribe(JcPlayerViewStatusListener, int, long, Executor)} with an
+     * executor of the main thread.
+     */
+    public interface JcPlayerViewStatusListener {
+        void onPausedStatus(JcStatus jcStatus);
+
+        void onContinueAudioStatus(JcStatus jcStatus);
+
+        void onPlayingStatus(JcStatus jcStatus);
+
+        void onTimeChangedStatus(JcStatus jcStatus);
+
+        void onCompletedAudioStatus(JcStatus jcStatus);
+
+        void onPreparedAudioStatus(JcStatus jcStatus);
+    }
+
+    /**
+     * Status listener that is also told when playback stalls waiting for data. Register it with
+     * {@link JcPlayerView#registerStatusListener(JcPlayerViewStatusListener)}.
+     */
+    public interface JcPlayerViewBufferingStatusListener extends JcPlayerViewStatusListener {
+        void onStalledStatus(JcStatus jcStatus);
+
+        void onStallEndedStatus(JcStatus jcStatus);
+    }
+
+    /**
+     * Called on the playback threads of the service, never on the main thread. Post to the main
+     * thread before touching views or the playlist.
+     */
+    public interface JcPlayerViewServiceListener {
+        void onPreparedAudio(String audioName, int duration);
+
+        void onCompletedAudio();
+
+        void onPaused();
+
+        void onContinueAudio();
+
+        void onPlaying();
+
+        void onTimeChanged(long currentTime);
+
+        void updateTitle(String title);
+    }
+}
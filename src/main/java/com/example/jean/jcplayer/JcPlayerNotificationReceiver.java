@@ -12,13 +12,24 @@ public class JcPlayerNotificationReceiver extends BroadcastReceiver {
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        JcAudioPlayer jcAudioPlayer = JcAudioPlayer.getInstance();
         String action = "";
 
         if (intent.hasExtra(JcNotificationPlayerService.ACTION)) {
             action = intent.getStringExtra(JcNotificationPlayerService.ACTION);
         }
 
+        handleAction(action);
+    }
+
+    /**
+     * Run a notification action. The media session callbacks go through here too, so the
+     * notification buttons, the lockscreen and the headset buttons behave the same.
+     *
+     * @param action one of the action constants of {@link JcNotificationPlayerService}.
+     */
+    static void handleAction(String action) {
+        JcAudioPlayer jcAudioPlayer = JcAudioPlayer.getInstance();
+
         switch (action) {
             case JcNotificationPlayerService.PLAY:
                 try {
@@ -1,14 +1,20 @@
 package com.example.jean.jcplayer;
 
+import android.annotation.TargetApi;
 import android.app.Service;
 import android.content.Intent;
 import android.content.res.AssetFileDescriptor;
 import android.media.MediaPlayer;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
-import android.util.Log;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.support.v4.media.session.PlaybackStateCompat;
 
 import com.example.jean.jcplayer.JcPlayerExceptions.AudioAssetsInvalidException;
 import com.example.jean.jcplayer.JcPlayerExceptions.AudioFilePathInvalidException;
@@ -17,29 +23,106 @@ import com.example.jean.jcplayer.JcPlayerExceptions.AudioUrlInvalidException;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class JcPlayerService extends Service implements
         MediaPlayer.OnPreparedListener,
         MediaPlayer.OnCompletionListener,
         MediaPlayer.OnBufferingUpdateListener,
+        MediaPlayer.OnSeekCompleteListener,
+        MediaPlayer.OnInfoListener,
         MediaPlayer.OnErrorListener{
 
     private static final String TAG = JcPlayerService.class.getSimpleName();
+    private static final String URL_CACHE_DIRECTORY = "jcplayer-audio-cache";
+    private static final String RESUME_JOURNAL_FILE = "jcplayer-resume.journal";
+
+    // Command types for the latency getters.
+    public static final int COMMAND_PLAY = JcPlaybackCommandQueue.PLAY;
+    public static final int COMMAND_PAUSE = JcPlaybackCommandQueue.PAUSE;
+    public static final int COMMAND_SEEK = JcPlaybackCommandQueue.SEEK;
+    public static final int COMMAND_STOP = JcPlaybackCommandQueue.STOP;
+    public static final int COMMAND_TICK = JcPlaybackCommandQueue.TICK;
 
     private final IBinder mBinder = new JcPlayerServiceBinder();
     private MediaPlayer mediaPlayer;
-    private boolean isPlaying;
+    private final JcMediaPlayerPool mediaPlayerPool;
+    private final JcClock clock;
+    private final ScheduledExecutorService executor; // Null unless simulated, see the constructor.
+    private volatile JcCacheProxy cacheProxy; // Null when url audios are streamed directly.
+    private JcPrefetcher prefetcher;
+    private int prefetchAudiosAhead = JcPrefetcher.DEFAULT_AUDIOS_AHEAD;
+    private long prefetchByteBudget = JcPrefetcher.DEFAULT_BYTE_BUDGET;
+    // The prefetcher waits while the current audio prepares, buffers its start or rebuffers.
+    private boolean isCurrentAudioStarting;
+    private boolean isCurrentAudioRebuffering;
+    private final JcPlaybackMetrics playbackMetrics = new JcPlaybackMetrics();
+    private long playRequestedAt; // elapsedRealtime of the play request being prepared.
+    private long prepareStartedAt;
+
+    // Adaptive start: a url audio only starts once enough of it is buffered.
+    private static final long ADAPTIVE_START_MAX_WAIT = 10000; // milliseconds
+    private final JcBufferMonitor bufferMonitor = new JcBufferMonitor();
+    private final JcPlaybackClock playbackClock; // What the ticks and listeners read, see updatePosition.
+    private long adaptiveStartLeadTime; // 0 to start as soon as prepared.
+    private boolean isWaitingForBuffer;
+    private int prepareTraceCookie;
+    private volatile boolean isFirstTickPending; // For the trace: first tick after an audio started.
+    private volatile boolean isPlaying;
     private int duration;
     private int currentTime;
-    private JcAudio currentJcAudio;
+    private volatile JcAudio currentJcAudio;
+    private JcPlaylist playlist = new JcPlaylist(); // Shared with JcAudioPlayer, not a copy.
+    private int playlistVersion; // Version of the playlist when it was handed over.
+    private JcPlaybackCommandQueue commandQueue; // Every playback command runs on its thread.
+    private JcResumeJournal resumeJournal;
+    private volatile JcMediaSession mediaSession; // Null unless enabled.
+    private int startPosition; // Where the audio being prepared starts, in milliseconds.
+
+    // Incremented on every play request. Only the latest request is prepared and started.
+    private final AtomicInteger playGeneration = new AtomicInteger();
+    private int mediaPlayerGeneration;
+    private int supersededPlayCount;
     private JcStatus jcStatus = new JcStatus();
     private List<JcPlayerView.JcPlayerViewServiceListener> jcPlayerServiceListeners;
     private List<JcPlayerView.OnInvalidPathListener> invalidPathListeners;
     private List<JcPlayerView.JcPlayerViewStatusListener> jcPlayerStatusListeners;
+    private final List<JcSubscription> subscriptions = new CopyOnWriteArrayList<>();
     private JcPlayerView.JcPlayerViewServiceListener notificationListener;
-    private AssetFileDescriptor assetFileDescriptor = null; // For Asset and Raw file.
+
+    // Gapless playback: the next audio is prepared on its own MediaPlayer and chained to the current one.
+    private boolean gaplessEnabled;
+    private boolean isMediaPlayerPrepared;
+    private boolean isPreparedStartPending; // Prepared while a newer play was queued, not started yet.
+    private MediaPlayer nextMediaPlayer;
+    private JcAudio nextJcAudio;
+    private boolean isNextMediaPlayerPrepared;
+    private boolean isNextMediaPlayerChained;
+    private OnGaplessTransitionListener gaplessListener;
+
+    // Silence between two audios, measured from onCompletion to the start of the next one.
+    // A play requested later than this after the completion is the user starting playback again.
+    private static final long MAX_TRACK_GAP_REQUEST_DELAY = 1000; // milliseconds
+    private long completedAt; // 0 when no gap is being measured.
+    private boolean isGaplessStartPending; // Measured on the ticks, once the next player moved.
+    private long lastTrackGap = -1;
+    private long trackGapTotal;
+    private int trackGapCount;
+
+    // Cold start, in elapsedRealtime. 0 until it happened.
+    private volatile long firstPrepareStartedAt;
+    private volatile long firstAudioStartedAt;
+
+    interface OnGaplessTransitionListener {
+        void onGaplessTransition(JcAudio jcAudio);
+    }
 
     public class JcPlayerServiceBinder extends Binder {
         public JcPlayerService getService() {
@@ -51,6 +134,10 @@ public class JcPlayerService extends Service implements
         this.notificationListener = notificationListener;
     }
 
+    void registerGaplessTransitionListener(OnGaplessTransitionListener gaplessListener) {
+        this.gaplessListener = gaplessListener;
+    }
+
     public void registerServicePlayerListener(JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener) {
         if (jcPlayerServiceListeners == null) {
             jcPlayerServiceListeners = new ArrayList<>();
@@ -81,18 +168,155 @@ public class JcPlayerService extends Service implements
         }
     }
 
+    /**
+     * Call a status listener on its own executor instead of the playback threads, so a slow
+     * listener doesn't delay the ticks of the others. See {@link JcSubscription}.
+     *
+     * @param eventTypes      JcSubscription EVENT_* flags.
+     * @param minTimeInterval milliseconds between two time updates, at least.
+     * @param executor        calls the listener, one event at a time.
+     */
+    public JcSubscription subscribe(JcPlayerView.JcPlayerViewStatusListener statusListener, int eventTypes,
+                                    long minTimeInterval, Executor executor) {
+        return subscribe(statusListener, eventTypes, minTimeInterval, executor, JcSubscription.DEFAULT_MAILBOX_CAPACITY);
+    }
+
+    /**
+     * @param mailboxCapacity how many time updates wait for the listener, at most. Older ones are
+     *                        dropped.
+     */
+    public JcSubscription subscribe(JcPlayerView.JcPlayerViewStatusListener statusListener, int eventTypes,
+                                    long minTimeInterval, Executor executor, int mailboxCapacity) {
+        JcSubscription subscription = new JcSubscription(statusListener, eventTypes, minTimeInterval,
+                executor, mailboxCapacity, clock);
+        addSubscription(subscription);
+        return subscription;
+    }
+
+    void addSubscription(JcSubscription subscription) {
+        if (!subscriptions.contains(subscription)) {
+            subscriptions.add(subscription);
+        }
+    }
+
+    /**
+     * @return the subscriptions not cancelled yet, to read their lag.
+     */
+    public List<JcSubscription> getSubscriptions() {
+        List<JcSubscription> active = new ArrayList<>();
+        for (JcSubscription subscription : subscriptions) {
+            if (!subscription.isCancelled()) {
+                active.add(subscription);
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Hand the current status to the subscriptions, which copy it.
+     */
+    private void publish(int method) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long now = clock.elapsedRealtime();
+        for (JcSubscription subscription : subscriptions) {
+            if (subscription.isCancelled()) {
+                subscriptions.remove(subscription);
+            } else {
+                subscription.publish(method, jcStatus, now);
+            }
+        }
+    }
+
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
+        int handle = intent.getIntExtra(JcNotificationPlayerService.PLAYLIST_HANDLE, JcPlaylistStore.NO_HANDLE);
+        JcPlaylist sharedPlaylist = JcPlaylistStore.get(handle);
+        if (sharedPlaylist != null) {
+            playlist = sharedPlaylist;
+            playlistVersion = intent.getIntExtra(JcNotificationPlayerService.PLAYLIST_VERSION, playlist.getVersion());
+        } else {
+            // Bound from another process, the playlist came in the Intent.
+            JcPlaylistParcel parcel = intent.getParcelableExtra(JcNotificationPlayerService.PLAYLIST);
+            playlist = parcel != null ? parcel.getPlaylist() : new JcPlaylist();
+            playlistVersion = playlist.getVersion();
+        }
         return mBinder;
     }
 
+    /**
+     * @return the playlist of the player that bound this service.
+     */
+    public List<JcAudio> getPlaylist() {
+        return playlist;
+    }
+
+    /**
+     * @return true if audios were added or removed since the player bound this service. A
+     * playlist copied from another process never changes.
+     */
+    public boolean isPlaylistChangedSinceBind() {
+        return playlist.getVersion() != playlistVersion;
+    }
+
     @Override
     public void onCreate(){
         super.onCreate();
+        init(new File(getFilesDir(), RESUME_JOURNAL_FILE));
+    }
+
+    void init(File resumeJournalFile) {
+        commandQueue = executor != null ? new JcPlaybackCommandQueue(executor, clock) : new JcPlaybackCommandQueue();
+        ticker = new JcPlaybackTicker(tick, commandQueue);
+        // Reads the previous resume point on its own thread.
+        resumeJournal = new JcResumeJournal(resumeJournalFile);
     }
 
     public JcPlayerService() {
+        this(JcClock.SYSTEM, null, new JcMediaPlayerPool());
+    }
+
+    /**
+     * Service for simulations, which call {@link #init(File)} instead of onCreate and
+     * {@link #release()} instead of {@link #destroy()}.
+     *
+     * @param executor runs the commands and the ticks instead of the playback thread, or null
+     *                 for the thread.
+     */
+    JcPlayerService(JcClock clock, ScheduledExecutorService executor, JcMediaPlayerPool mediaPlayerPool) {
+        this.clock = clock;
+        this.executor = executor;
+        this.mediaPlayerPool = mediaPlayerPool;
+        playbackClock = new JcPlaybackClock(clock);
+        seekCoalescer = new JcSeekCoalescer(seeker, playbackMetrics.getSeekLatency(), clock);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mediaPlayerPool.trim(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mediaPlayerPool.clear();
+    }
+
+    /**
+     * @return how many times a track switch reused an idle MediaPlayer.
+     */
+    public int getPlayerPoolHitCount() {
+        return mediaPlayerPool.getHitCount();
+    }
+
+    /**
+     * @return how many times a track switch had to allocate a new MediaPlayer.
+     */
+    public int getPlayerPoolMissCount() {
+        return mediaPlayerPool.getMissCount();
     }
 
     @Override
@@ -100,13 +324,31 @@ public class JcPlayerService extends Service implements
         return super.onStartCommand(intent, flags, startId);
     }
 
-    public void pause(JcAudio jcAudio) {
+    public void pause(final JcAudio jcAudio) {
+        commandQueue.post(JcPlaybackCommandQueue.PAUSE, new Runnable() {
+            @Override
+            public void run() {
+                handlePause(jcAudio);
+            }
+        });
+    }
+
+    private void handlePause(JcAudio jcAudio) {
+        JcTrace.begin("JcPlayerService.handlePause");
         if (mediaPlayer != null) {
-            mediaPlayer.pause();
+            if (isWaitingForBuffer) {
+                isWaitingForBuffer = false; // Prepared but not started yet.
+            } else {
+                mediaPlayer.pause();
+            }
             duration = mediaPlayer.getDuration();
             currentTime = mediaPlayer.getCurrentPosition();
             isPlaying = false;
+            playbackClock.anchor(currentTime, false);
+            checkpoint(jcAudio, currentTime);
         }
+        ticker.stop();
+        dispatchStallChange(bufferMonitor.onStopped(clock.elapsedRealtime()));
 
         for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
             jcPlayerServiceListener.onPaused();
@@ -116,81 +358,219 @@ public class JcPlayerService extends Service implements
             notificationListener.onPaused();
         }
 
+        jcStatus.setJcAudio(jcAudio);
+        jcStatus.setDuration(duration);
+        jcStatus.setCurrentPosition(currentTime);
+        jcStatus.setPlayState(JcStatus.PlayState.PAUSE);
         if(jcPlayerStatusListeners != null) {
             for (JcPlayerView.JcPlayerViewStatusListener jcPlayerStatusListener : jcPlayerStatusListeners) {
-                jcStatus.setJcAudio(jcAudio);
-                jcStatus.setDuration(duration);
-                jcStatus.setCurrentPosition(currentTime);
-                jcStatus.setPlayState(JcStatus.PlayState.PAUSE);
                 jcPlayerStatusListener.onPausedStatus(jcStatus);
             }
         }
+        publish(JcSubscription.PAUSED);
+        publishPlaybackState(PlaybackStateCompat.STATE_PAUSED);
+        JcTrace.end("JcPlayerService.handlePause");
     }
 
     public void destroy() {
-        stop();
+        release();
         stopSelf();
     }
 
+    /**
+     * Stop playback and let the playback threads die once the queued commands ran.
+     */
+    void release() {
+        stop();
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                ticker.stop();
+                mediaPlayerPool.clear();
+                releaseUrlCache();
+                resumeJournal.close();
+                playbackMetrics.stopPeriodicDump();
+                releaseMediaSession();
+            }
+        });
+        commandQueue.quit();
+    }
+
     public void stop() {
+        commandQueue.post(JcPlaybackCommandQueue.STOP, new Runnable() {
+            @Override
+            public void run() {
+                handleStop();
+                publishPlaybackState(PlaybackStateCompat.STATE_STOPPED);
+            }
+        });
+    }
+
+    private void handleStop() {
+        completedAt = 0;
+        isGaplessStartPending = false;
+        releaseNextMediaPlayer();
+        isMediaPlayerPrepared = false;
+        isPreparedStartPending = false;
+        isPlaying = false;
+        isCurrentAudioStarting = false;
+        isCurrentAudioRebuffering = false;
+        updatePrefetcherPause();
+        seekCoalescer.reset();
+        isWaitingForBuffer = false;
+        dispatchStallChange(bufferMonitor.onStopped(clock.elapsedRealtime()));
+        bufferMonitor.reset(0);
+
         if (mediaPlayer != null) {
-            mediaPlayer.stop();
-            mediaPlayer.release();
+            mediaPlayerPool.recycle(mediaPlayer);
             mediaPlayer = null;
         }
 
-        isPlaying = false;
+        playbackClock.anchor(0, false);
+        playbackClock.setDuration(0);
+        ticker.stop();
     }
 
-    private JcAudio tempJcAudio;
     public void play(JcAudio jcAudio) {
+        play(jcAudio, 0);
+    }
+
+    /**
+     * Play the audio from the given position, for example the one of {@link #getResumePoint()}.
+     *
+     * @param startPosition position in milliseconds.
+     */
+    public void play(final JcAudio jcAudio, final int startPosition) {
+        // Url check is cheap, so we keep throwing to the caller like before.
+        // Other sources need disk access and are checked on the playback thread.
+        if (jcAudio.getOrigin() == Origin.URL && !isAudioFileValid(jcAudio.getPath(), jcAudio.getOrigin())) {
+            currentJcAudio = jcAudio;
+            throwError(jcAudio.getPath(), jcAudio.getOrigin());
+        }
+
+        JcTrace.instant("JcPlayerService.play");
+        final long requestedAt = clock.elapsedRealtime();
+        final int generation = playGeneration.incrementAndGet();
+        commandQueue.post(JcPlaybackCommandQueue.PLAY, new Runnable() {
+            @Override
+            public void run() {
+                if (generation != playGeneration.get()) {
+                    // The user already asked for another audio, don't prepare this one.
+                    supersededPlayCount++;
+                    JcTrace.instant("JcPlayerService.playSuperseded");
+                    return;
+                }
+                playRequestedAt = requestedAt;
+                JcPlayerService.this.startPosition = startPosition;
+                // Only the play that follows the completion right away ends a track gap.
+                long gapStartedAt = completedAt > 0 && requestedAt - completedAt <= MAX_TRACK_GAP_REQUEST_DELAY
+                        ? completedAt : 0;
+                JcTrace.begin("JcPlayerService.handlePlay");
+                try {
+                    handlePlay(jcAudio);
+                } finally {
+                    JcTrace.end("JcPlayerService.handlePlay");
+                }
+                // handleStop cleared it, the gap is recorded once the new audio starts.
+                completedAt = isPlaying ? 0 : gapStartedAt;
+                if (isMediaPlayerPrepared && JcPlayerService.this.startPosition > 0) {
+                    // Same audio resumed, onPrepared won't run again.
+                    seekCoalescer.seekTo(JcPlayerService.this.startPosition, true);
+                    JcPlayerService.this.startPosition = 0;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the audio and position saved before the app was closed, or null if nothing was
+     * played yet. The position is saved every few seconds while playing and when paused.
+     * Only reads the end of a small journal file, but waits until it is read: don't call it on
+     * the main thread before {@link #isResumePointLoaded()}.
+     */
+    @Nullable
+    public JcResumePoint getResumePoint() {
+        return resumeJournal.getResumePoint();
+    }
+
+    /**
+     * @return true if {@link #getResumePoint()} returns right away.
+     */
+    public boolean isResumePointLoaded() {
+        return resumeJournal.isRestored();
+    }
+
+    /**
+     * Run the callback on a background thread once the resume point is loaded.
+     */
+    public void whenResumePointLoaded(Runnable callback) {
+        resumeJournal.whenRestored(callback);
+    }
+
+    private void checkpoint(JcAudio jcAudio, int position) {
+        if (jcAudio != null) {
+            resumeJournal.checkpoint(jcAudio.getId(), position, isPlaying);
+        }
+    }
+
+    private JcAudio tempJcAudio;
+    private void handlePlay(JcAudio jcAudio) {
         tempJcAudio = this.currentJcAudio;
         this.currentJcAudio = jcAudio;
 
         if (isAudioFileValid(jcAudio.getPath(), jcAudio.getOrigin())) {
             try {
                 if (mediaPlayer == null) {
-                    mediaPlayer = new MediaPlayer();
+                    mediaPlayer = mediaPlayerPool.acquire();
+                    JcTrace.begin("JcPlayerService.setDataSource");
+                    boolean isSourceSet = setDataSource(mediaPlayer, jcAudio);
+                    JcTrace.end("JcPlayerService.setDataSource");
+                    if (!isSourceSet) return; // TODO: Should throw error.
 
-                    if (jcAudio.getOrigin() == Origin.URL) {
-                        mediaPlayer.setDataSource(jcAudio.getPath());
-                    } else if (jcAudio.getOrigin() == Origin.RAW) {
-                        assetFileDescriptor = getApplicationContext().getResources().openRawResourceFd(Integer.parseInt(jcAudio.getPath()));
-                        if (assetFileDescriptor == null) return; // TODO: Should throw error.
-                        mediaPlayer.setDataSource(assetFileDescriptor.getFileDescriptor(),
-                                assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
-                        assetFileDescriptor.close();
-                        assetFileDescriptor = null;
-                    } else if (jcAudio.getOrigin() == Origin.ASSETS) {
-                        assetFileDescriptor = getApplicationContext().getAssets().openFd(jcAudio.getPath());
-                        mediaPlayer.setDataSource(assetFileDescriptor.getFileDescriptor(),
-                                assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
-                        assetFileDescriptor.close();
-                        assetFileDescriptor = null;
-                    } else if (jcAudio.getOrigin() == Origin.FILE_PATH) {
-                        mediaPlayer.setDataSource(getApplicationContext(), Uri.parse(jcAudio.getPath()));
+                    mediaPlayerGeneration = playGeneration.get();
+                    prepareStartedAt = clock.elapsedRealtime();
+                    if (firstPrepareStartedAt == 0) {
+                        firstPrepareStartedAt = prepareStartedAt;
                     }
-
+                    prepareTraceCookie = mediaPlayerGeneration;
+                    JcTrace.beginAsync("JcPlayerService.prepare", prepareTraceCookie);
                     mediaPlayer.prepareAsync();
                     mediaPlayer.setOnPreparedListener(this);
                     mediaPlayer.setOnBufferingUpdateListener(this);
                     mediaPlayer.setOnCompletionListener(this);
+                    mediaPlayer.setOnSeekCompleteListener(this);
+                    mediaPlayer.setOnInfoListener(this);
                     mediaPlayer.setOnErrorListener(this);
+                    playbackClock.anchor(startPosition, false);
+                    isCurrentAudioStarting = true;
+                    updatePrefetcherPause();
+                    publishAudio(jcAudio, 0);
+                    publishPlaybackState(PlaybackStateCompat.STATE_BUFFERING);
 
                 //} else if (isPlaying) {
                 //    stop();
                 //    play(jcAudio);
                 } else {
                     if (isPlaying) {
-                        stop();
-                        play(jcAudio);
+                        handleStop();
+                        handlePlay(jcAudio);
                     } else {
                         if(tempJcAudio != jcAudio) {
-                            stop();
-                            play(jcAudio);
+                            handleStop();
+                            handlePlay(jcAudio);
+                        } else if (!isMediaPlayerPrepared) {
+                            // Same audio is still preparing, onPrepared will start it.
+                            mediaPlayerGeneration = playGeneration.get();
+                        } else if (isPreparedStartPending) {
+                            // Prepared between this request and its command, start it like onPrepared would.
+                            mediaPlayerGeneration = playGeneration.get();
+                            handlePrepared();
                         } else {
+                            isWaitingForBuffer = false;
                             mediaPlayer.start();
                             isPlaying = true;
+                            playbackClock.anchor(mediaPlayer.getCurrentPosition(), true);
+                            publishPlaybackState(PlaybackStateCompat.STATE_PLAYING);
 
                             if (jcPlayerServiceListeners != null) {
                                 for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
@@ -198,15 +578,16 @@ public class JcPlayerService extends Service implements
                                 }
                             }
 
+                            jcStatus.setJcAudio(jcAudio);
+                            jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+                            jcStatus.setDuration(duration);
+                            jcStatus.setCurrentPosition(playbackClock.getPosition());
                             if (jcPlayerStatusListeners != null) {
                                 for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
-                                    jcStatus.setJcAudio(jcAudio);
-                                    jcStatus.setPlayState(JcStatus.PlayState.PLAY);
-                                    jcStatus.setDuration(mediaPlayer.getDuration());
-                                    jcStatus.setCurrentPosition(mediaPlayer.getCurrentPosition());
                                     jcPlayerViewStatusListener.onContinueAudioStatus(jcStatus);
                                 }
                             }
+                            publish(JcSubscription.CONTINUE);
                         }
                     }
                 }
@@ -216,74 +597,934 @@ public class JcPlayerService extends Service implements
 
             updateTimeAudio();
 
+            JcTrace.begin("JcPlayerService.dispatchPlaying");
             for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
                 jcPlayerServiceListener.onPlaying();
             }
 
+            jcStatus.setJcAudio(jcAudio);
+            jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+            jcStatus.setDuration(0);
+            jcStatus.setCurrentPosition(0);
             if (jcPlayerStatusListeners != null) {
                 for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
-                    jcStatus.setJcAudio(jcAudio);
-                    jcStatus.setPlayState(JcStatus.PlayState.PLAY);
-                    jcStatus.setDuration(0);
-                    jcStatus.setCurrentPosition(0);
                     jcPlayerViewStatusListener.onPlayingStatus(jcStatus);
                 }
             }
+            publish(JcSubscription.PLAYING);
 
             if (notificationListener != null) notificationListener.onPlaying();
+            JcTrace.end("JcPlayerService.dispatchPlaying");
 
         } else {
             throwError(jcAudio.getPath(), jcAudio.getOrigin());
         }
     }
 
-    public void seekTo(int time){
-        Log.d("time = ", Integer.toString(time));
-        if(mediaPlayer != null) {
-            mediaPlayer.seekTo(time);
+    private boolean setDataSource(MediaPlayer player, JcAudio jcAudio) throws IOException {
+        if (jcAudio.getOrigin() == Origin.URL) {
+            player.setDataSource(cacheProxy != null ? cacheProxy.getProxyUrl(jcAudio.getPath()) : jcAudio.getPath());
+        } else if (jcAudio.getOrigin() == Origin.RAW || jcAudio.getOrigin() == Origin.ASSETS) {
+            AssetFileDescriptor assetFileDescriptor = null;
+            try {
+                assetFileDescriptor = openAssetFileDescriptor(jcAudio.getPath(), jcAudio.getOrigin());
+                if (assetFileDescriptor == null) return false;
+                player.setDataSource(assetFileDescriptor.getFileDescriptor(),
+                        assetFileDescriptor.getStartOffset(), assetFileDescriptor.getLength());
+            } finally {
+                closeAssetFileDescriptor(assetFileDescriptor);
+            }
+        } else if (jcAudio.getOrigin() == Origin.FILE_PATH) {
+            player.setDataSource(getApplicationContext(), Uri.parse(jcAudio.getPath()));
         }
+        return true;
     }
 
-    private void updateTimeAudio() {
-        new Thread() {
+    /**
+     * Serve url audios through a local proxy backed by a disk cache, so replays and seeks back
+     * don't download the same bytes again. Applies to audios played after this call. If the
+     * cache is already enabled only its size changes, without interrupting the playing audio.
+     *
+     * @param maxCacheBytes the cache never grows over this size.
+     */
+    public void enableUrlCache(final long maxCacheBytes) {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
             public void run() {
-                while (isPlaying) {
-                    try {
+                if (cacheProxy != null) {
+                    cacheProxy.setMaxCacheSize(maxCacheBytes);
+                    return;
+                }
 
-                        if (jcPlayerServiceListeners != null) {
-                            for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
-                                jcPlayerServiceListener.onTimeChanged(mediaPlayer.getCurrentPosition());
-                            }
-                        }
-                        if (notificationListener != null) {
-                            notificationListener.onTimeChanged(mediaPlayer.getCurrentPosition());
-                        }
+                JcCacheProxy proxy = new JcCacheProxy(new File(getCacheDir(), URL_CACHE_DIRECTORY), maxCacheBytes);
+                try {
+                    proxy.start();
+                    cacheProxy = proxy;
+                    prefetcher = new JcPrefetcher(proxy);
+                    prefetcher.setBudget(prefetchAudiosAhead, prefetchByteBudget);
+                    updatePrefetcherPause();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
 
-                        if (jcPlayerStatusListeners != null) {
-                            for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
-                                jcStatus.setPlayState(JcStatus.PlayState.PLAY);
-                                jcStatus.setDuration(mediaPlayer.getDuration());
-                                jcStatus.setCurrentPosition(mediaPlayer.getCurrentPosition());
-                                jcPlayerViewStatusListener.onTimeChangedStatus(jcStatus);
-                            }
-                        }
-                        Thread.sleep(200);
-                    } catch (IllegalStateException | InterruptedException | NullPointerException e) {
-                        e.printStackTrace();
+    public void disableUrlCache() {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                releaseUrlCache();
+            }
+        });
+    }
+
+    private void releaseUrlCache() {
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
+        if (cacheProxy != null) {
+            cacheProxy.stop();
+            cacheProxy = null;
+        }
+    }
+
+    /**
+     * Set how much of the upcoming url audios is downloaded ahead of time. Only used when the
+     * url cache is enabled.
+     *
+     * @param audiosAhead how many upcoming audios to prefetch, 0 to disable prefetching.
+     * @param byteBudget  bytes downloaded at most for all of them, split evenly.
+     */
+    public void setPrefetchBudget(final int audiosAhead, final long byteBudget) {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                prefetchAudiosAhead = audiosAhead;
+                prefetchByteBudget = byteBudget;
+                if (prefetcher != null) {
+                    prefetcher.setBudget(audiosAhead, byteBudget);
+                }
+            }
+        });
+    }
+
+    /**
+     * Start downloading the beginning of the upcoming url audios. Cancels the previous prefetch,
+     * so call it again whenever the upcoming audios change. Downloads wait until the current
+     * audio has started, so they don't slow down its prepare and first buffering.
+     *
+     * @param upcomingAudios audios that come after the current one, in play order.
+     */
+    public void prefetch(final List<JcAudio> upcomingAudios) {
+        final int generation = playGeneration.get();
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                if (prefetcher == null || generation != playGeneration.get()) {
+                    return;
+                }
+
+                List<String> urls = new ArrayList<>();
+                for (JcAudio jcAudio : upcomingAudios) {
+                    if (jcAudio.getOrigin() == Origin.URL) {
+                        urls.add(jcAudio.getPath());
+                    }
+                }
+                prefetcher.prefetch(urls);
+            }
+        });
+    }
+
+    @Override
+    public boolean onInfo(MediaPlayer mediaPlayer, int what, int extra) {
+        if (mediaPlayer != this.mediaPlayer) {
+            return false;
+        }
+
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+            // Buffering before the start is part of the prepare latency, not a stall.
+            if (isPlaying) {
+                dispatchStallChange(bufferMonitor.onBufferingStart(clock.elapsedRealtime()));
+            }
+        } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+            dispatchStallChange(bufferMonitor.onBufferingEnd(clock.elapsedRealtime()));
+        }
+
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+            isCurrentAudioRebuffering = true;
+            updatePrefetcherPause();
+        } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+            isCurrentAudioRebuffering = false;
+            updatePrefetcherPause();
+        }
+        return false;
+    }
+
+    /**
+     * Leave the bandwidth to the current audio until it started and while it rebuffers.
+     */
+    private void updatePrefetcherPause() {
+        if (prefetcher != null) {
+            prefetcher.setPaused(isCurrentAudioStarting || isCurrentAudioRebuffering);
+        }
+    }
+
+    /**
+     * @return the url cache, to read its hit ratio and saved bytes, or null if it is disabled.
+     */
+    @Nullable
+    public JcCacheProxy getUrlCache() {
+        return cacheProxy;
+    }
+
+    /**
+     * Enable or disable gapless playback. When enabled, the audio passed to
+     * {@link #setNextAudio(JcAudio)} is prepared on a second MediaPlayer while the current one
+     * plays and chained with {@link MediaPlayer#setNextMediaPlayer(MediaPlayer)}.
+     * Requires API 16, it is ignored on older devices.
+     *
+     * @param gaplessEnabled true to prepare the next audio ahead of time.
+     */
+    public void setGaplessEnabled(final boolean gaplessEnabled) {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                handleSetGaplessEnabled(gaplessEnabled);
+            }
+        });
+    }
+
+    private void handleSetGaplessEnabled(boolean gaplessEnabled) {
+        this.gaplessEnabled = gaplessEnabled && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+        if (!this.gaplessEnabled) {
+            releaseNextMediaPlayer();
+        }
+    }
+
+    public boolean isGaplessEnabled() {
+        return gaplessEnabled;
+    }
+
+    /**
+     * Publish the playback to a media session, for the lockscreen, the system media controls
+     * and headsets. The state is only sent when playback changes and the system moves the
+     * progress on by itself, so a playing audio costs no calls to the system.
+     * The transport controls do what the notification buttons do.
+     *
+     * @param enabled true to create the session, false to release it.
+     */
+    public void setMediaSessionEnabled(final boolean enabled) {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                handleSetMediaSessionEnabled(enabled);
+            }
+        });
+    }
+
+    private void handleSetMediaSessionEnabled(boolean enabled) {
+        if (!enabled) {
+            releaseMediaSession();
+            return;
+        }
+        if (mediaSession != null) {
+            return;
+        }
+
+        // Transport controls run on the main thread, like the notification broadcasts.
+        mediaSession = new JcMediaSession(this, clock, new Handler(Looper.getMainLooper()));
+        if (currentJcAudio != null) {
+            publishAudio(currentJcAudio, isMediaPlayerPrepared ? duration : 0);
+            if (isPlaying) {
+                publishPlaybackState(PlaybackStateCompat.STATE_PLAYING);
+            } else if (mediaPlayer != null) {
+                publishPlaybackState(isMediaPlayerPrepared ? PlaybackStateCompat.STATE_PAUSED : PlaybackStateCompat.STATE_BUFFERING);
+            }
+        }
+    }
+
+    private void releaseMediaSession() {
+        if (mediaSession != null) {
+            mediaSession.release();
+            mediaSession = null;
+        }
+    }
+
+    public boolean isMediaSessionEnabled() {
+        return mediaSession != null;
+    }
+
+    /**
+     * @return the token of the media session, to connect a MediaControllerCompat or a
+     * MediaStyle notification, or null if it is disabled.
+     */
+    @Nullable
+    public MediaSessionCompat.Token getMediaSessionToken() {
+        JcMediaSession session = mediaSession;
+        return session != null ? session.getSessionToken() : null;
+    }
+
+    /**
+     * @return how many playback states were sent to the media session. Doesn't grow while an
+     * audio plays on.
+     */
+    public int getMediaSessionStateCount() {
+        JcMediaSession session = mediaSession;
+        return session != null ? session.getStateCount() : 0;
+    }
+
+    private void publishAudio(JcAudio jcAudio, long duration) {
+        JcMediaSession session = mediaSession;
+        if (session != null && jcAudio != null) {
+            session.setAudio(jcAudio, duration);
+        }
+    }
+
+    private void publishPlaybackState(int state) {
+        JcMediaSession session = mediaSession;
+        if (session == null) {
+            return;
+        }
+
+        // Every state change anchors the clock first, so this is the real position.
+        session.setState(state, playbackClock.getPosition());
+    }
+
+    /**
+     * Prepare the audio that should play after the current one. Does nothing unless gapless
+     * playback is enabled.
+     *
+     * @param jcAudio the next audio, or null if there is nothing to chain.
+     */
+    public void setNextAudio(final JcAudio jcAudio) {
+        final int generation = playGeneration.get();
+        commandQueue.post(JcPlaybackCommandQueue.NEXT_AUDIO, new Runnable() {
+            @Override
+            public void run() {
+                // A newer play comes with its own next audio.
+                if (generation == playGeneration.get()) {
+                    handleSetNextAudio(jcAudio);
+                }
+            }
+        });
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void handleSetNextAudio(JcAudio jcAudio) {
+        if (!gaplessEnabled) {
+            return;
+        }
+        if (jcAudio != null && jcAudio == nextJcAudio && nextMediaPlayer != null) {
+            return; // Already preparing or prepared.
+        }
+
+        releaseNextMediaPlayer();
+        if (jcAudio == null || mediaPlayer == null || !isAudioFileValid(jcAudio.getPath(), jcAudio.getOrigin())) {
+            return;
+        }
+
+        try {
+            nextJcAudio = jcAudio;
+            nextMediaPlayer = mediaPlayerPool.acquire();
+            if (!setDataSource(nextMediaPlayer, jcAudio)) {
+                releaseNextMediaPlayer();
+                return;
+            }
+            nextMediaPlayer.setOnPreparedListener(nextPreparedListener);
+            nextMediaPlayer.setOnErrorListener(nextErrorListener);
+            nextMediaPlayer.prepareAsync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            releaseNextMediaPlayer();
+        }
+    }
+
+    private final MediaPlayer.OnPreparedListener nextPreparedListener = new MediaPlayer.OnPreparedListener() {
+        @Override
+        public void onPrepared(MediaPlayer player) {
+            if (player != nextMediaPlayer) {
+                return;
+            }
+            isNextMediaPlayerPrepared = true;
+            chainNextMediaPlayer();
+        }
+    };
+
+    /**
+     * A next audio that fails only loses the chain, the current one plays on and completes
+     * like without gapless playback.
+     */
+    private final MediaPlayer.OnErrorListener nextErrorListener = new MediaPlayer.OnErrorListener() {
+        @Override
+        public boolean onError(MediaPlayer player, int what, int extra) {
+            if (player == nextMediaPlayer) {
+                playbackMetrics.recordError();
+                releaseNextMediaPlayer();
+            }
+            return true; // Handled, so it doesn't complete.
+        }
+    };
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void chainNextMediaPlayer() {
+        if (mediaPlayer != null && isMediaPlayerPrepared && isNextMediaPlayerPrepared && !isNextMediaPlayerChained) {
+            try {
+                mediaPlayer.setNextMediaPlayer(nextMediaPlayer);
+                isNextMediaPlayerChained = true;
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void releaseNextMediaPlayer() {
+        if (nextMediaPlayer != null) {
+            if (isNextMediaPlayerChained && mediaPlayer != null) {
+                try {
+                    mediaPlayer.setNextMediaPlayer(null);
+                } catch (IllegalStateException e) {
+                    e.printStackTrace();
+                }
+            }
+            mediaPlayerPool.recycle(nextMediaPlayer);
+            nextMediaPlayer = null;
+        }
+        nextJcAudio = null;
+        isNextMediaPlayerPrepared = false;
+        isNextMediaPlayerChained = false;
+    }
+
+    /**
+     * Swap the chained MediaPlayer in as the current one. The system already started it when the
+     * previous one completed, so we only need to move our state and listeners over.
+     */
+    private void onGaplessTransition(MediaPlayer completed) {
+        JcAudio previousJcAudio = currentJcAudio;
+
+        mediaPlayer = nextMediaPlayer;
+        currentJcAudio = nextJcAudio;
+        nextMediaPlayer = null;
+        nextJcAudio = null;
+        isNextMediaPlayerPrepared = false;
+        isNextMediaPlayerChained = false;
+        mediaPlayerPool.recycle(completed);
+
+        mediaPlayer.setOnPreparedListener(this);
+        mediaPlayer.setOnBufferingUpdateListener(this);
+        mediaPlayer.setOnCompletionListener(this);
+        mediaPlayer.setOnSeekCompleteListener(this);
+        mediaPlayer.setOnInfoListener(this);
+        mediaPlayer.setOnErrorListener(this);
+        isMediaPlayerPrepared = true;
+        seekCoalescer.reset();
+        isPlaying = true;
+        isFirstTickPending = true;
+        bufferMonitor.reset(mediaPlayer.getDuration());
+        JcTrace.instant("JcPlayerService.gaplessTransition");
+
+        // The system started the next track, its start is measured once its position moved.
+        isGaplessStartPending = true;
+
+        this.duration = mediaPlayer.getDuration();
+        this.currentTime = mediaPlayer.getCurrentPosition();
+        playbackClock.setDuration(duration);
+        playbackClock.anchor(currentTime, true);
+        checkpoint(currentJcAudio, currentTime);
+        publishAudio(currentJcAudio, duration);
+        publishPlaybackState(PlaybackStateCompat.STATE_PLAYING);
+
+        if (jcPlayerServiceListeners != null) {
+            for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
+                jcPlayerServiceListener.updateTitle(currentJcAudio.getTitle());
+                jcPlayerServiceListener.onPreparedAudio(currentJcAudio.getTitle(), duration);
+            }
+        }
+
+        if (notificationListener != null) {
+            notificationListener.updateTitle(currentJcAudio.getTitle());
+            notificationListener.onPreparedAudio(currentJcAudio.getTitle(), duration);
+        }
+
+        if (jcPlayerStatusListeners != null) {
+            for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
+                jcStatus.setJcAudio(previousJcAudio);
+                jcPlayerViewStatusListener.onCompletedAudioStatus(jcStatus);
+                jcStatus.setJcAudio(currentJcAudio);
+                jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+                jcStatus.setDuration(duration);
+                jcStatus.setCurrentPosition(currentTime);
+                jcPlayerViewStatusListener.onPreparedAudioStatus(jcStatus);
+            }
+        }
+        jcStatus.setJcAudio(previousJcAudio);
+        publish(JcSubscription.COMPLETED);
+        jcStatus.setJcAudio(currentJcAudio);
+        jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+        jcStatus.setDuration(duration);
+        jcStatus.setCurrentPosition(currentTime);
+        publish(JcSubscription.PREPARED);
+
+        if (gaplessListener != null) {
+            gaplessListener.onGaplessTransition(currentJcAudio);
+        }
+    }
+
+    /**
+     * Measure when the chained player started from its first position past 0.
+     */
+    private void measureGaplessStart(long position) {
+        if (position > 0) {
+            isGaplessStartPending = false;
+            recordTrackGap(clock.elapsedRealtime() - position);
+        }
+    }
+
+    private void recordTrackGap(long startedAt) {
+        if (completedAt > 0) {
+            lastTrackGap = Math.max(0, startedAt - completedAt);
+            playbackMetrics.getTrackGap().record(lastTrackGap);
+            trackGapTotal += lastTrackGap;
+            trackGapCount++;
+            completedAt = 0;
+        }
+    }
+
+    /**
+     * @return the silence measured between the end of the previous audio and the start of the
+     * current one, in milliseconds, or -1 if no transition happened yet. Only a play requested
+     * right after the completion counts as a transition.
+     */
+    public long getLastTrackGap() {
+        return lastTrackGap;
+    }
+
+    /**
+     * @return the average silence between audios since the service was created, in milliseconds,
+     * or -1 if no transition happened yet.
+     */
+    public long getAverageTrackGap() {
+        return trackGapCount == 0 ? -1 : trackGapTotal / trackGapCount;
+    }
+
+    /**
+     * Seek exactly to the given time. If a seek is already running, only the latest target is
+     * applied once it completes.
+     *
+     * @param time position in milliseconds.
+     */
+    public void seekTo(final int time){
+        commandQueue.post(JcPlaybackCommandQueue.SEEK, new Runnable() {
+            @Override
+            public void run() {
+                seekCoalescer.seekTo(time, true);
+            }
+        });
+    }
+
+    /**
+     * Cheap seek to the sync frame closest to the given time, for previews while the user
+     * drags the SeekBar. Call {@link #seekTo(int)} when the drag ends.
+     *
+     * @param time position in milliseconds.
+     */
+    public void previewSeekTo(final int time) {
+        commandQueue.post(JcPlaybackCommandQueue.SEEK, new Runnable() {
+            @Override
+            public void run() {
+                seekCoalescer.seekTo(time, false);
+            }
+        });
+    }
+
+    private final JcSeekCoalescer.Seeker seeker = new JcSeekCoalescer.Seeker() {
+        @Override
+        public boolean seek(int position, boolean precise) {
+            if (mediaPlayer == null || !isMediaPlayerPrepared) {
+                return false;
+            }
+
+            try {
+                if (!SeekModes.seekTo(mediaPlayer, position, precise)) {
+                    mediaPlayer.seekTo(position);
+                }
+                // Show the target until the seek completes, where the real position is read.
+                playbackClock.anchor(position, false);
+                return true;
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    };
+
+    /**
+     * MediaPlayer.seekTo(long, int) is API 26. The library compiles against an older SDK, so it
+     * is called through reflection.
+     */
+    private static final class SeekModes {
+        private static final int API_O = 26;
+        private static final int SEEK_CLOSEST_SYNC = 2; // MediaPlayer.SEEK_CLOSEST_SYNC
+        private static final int SEEK_CLOSEST = 3; // MediaPlayer.SEEK_CLOSEST
+        private static final Method SEEK_TO = findSeekTo();
+
+        private static Method findSeekTo() {
+            if (Build.VERSION.SDK_INT < API_O) {
+                return null;
+            }
+            try {
+                return MediaPlayer.class.getMethod("seekTo", long.class, int.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        /**
+         * @return false if the seek modes are not available, the caller seeks the old way.
+         */
+        static boolean seekTo(MediaPlayer mediaPlayer, int position, boolean precise) {
+            if (SEEK_TO == null) {
+                return false;
+            }
+            try {
+                SEEK_TO.invoke(mediaPlayer, (long) position, precise ? SEEK_CLOSEST : SEEK_CLOSEST_SYNC);
+                return true;
+            } catch (IllegalAccessException e) {
+                return false;
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                return false;
+            }
+        }
+    }
+
+    private final JcSeekCoalescer seekCoalescer;
+
+    @Override
+    public void onSeekComplete(MediaPlayer mediaPlayer) {
+        if (mediaPlayer == this.mediaPlayer) {
+            seekCoalescer.onSeekComplete();
+            if (!seekCoalescer.isSeeking()) {
+                anchorPlaybackClock(isPlaying && !bufferMonitor.isStalled());
+                // The position jumped, the session can't guess it.
+                publishPlaybackState(isPlaying ? PlaybackStateCompat.STATE_PLAYING : PlaybackStateCompat.STATE_PAUSED);
+            }
+        }
+    }
+
+    /**
+     * @return time between a seek request and playback resuming at the last requested position.
+     */
+    public JcLatencyHistogram getSeekLatencyHistogram() {
+        return playbackMetrics.getSeekLatency();
+    }
+
+    /**
+     * @return latencies, rebuffers and errors measured since the service was created or the
+     * metrics were reset.
+     */
+    public JcPlaybackMetrics getPlaybackMetrics() {
+        return playbackMetrics;
+    }
+
+    private void recordListenerDispatch(long startedAt) {
+        playbackMetrics.getListenerDispatchTime().record((clock.nanoTime() - startedAt) / 1000);
+    }
+
+    /**
+     * @return when the first audio started preparing, in {@link SystemClock#elapsedRealtime()}
+     * time, or 0 if none did yet.
+     */
+    public long getFirstPrepareStartedAt() {
+        return firstPrepareStartedAt;
+    }
+
+    /**
+     * @return when the first audio started playing, in {@link SystemClock#elapsedRealtime()}
+     * time, or 0 if none did yet.
+     */
+    public long getFirstAudioStartedAt() {
+        return firstAudioStartedAt;
+    }
+
+    /**
+     * @return how many play requests were dropped because a newer one arrived before they ran.
+     */
+    public int getSupersededPlayCount() {
+        return supersededPlayCount;
+    }
+
+    /**
+     * @param command one of the COMMAND_* constants.
+     * @return average time this command waited in the playback queue, in microseconds.
+     */
+    public long getAverageCommandQueueWait(int command) {
+        return commandQueue.getAverageQueueWait(command);
+    }
+
+    /**
+     * @param command one of the COMMAND_* constants.
+     * @return longest time this command waited in the playback queue, in microseconds.
+     */
+    public long getMaxCommandQueueWait(int command) {
+        return commandQueue.getMaxQueueWait(command);
+    }
+
+    /**
+     * @param command one of the COMMAND_* constants.
+     * @return average time this command took on the playback thread, in microseconds.
+     */
+    public long getAverageCommandExecutionTime(int command) {
+        return commandQueue.getAverageExecutionTime(command);
+    }
+
+    /**
+     * @param command one of the COMMAND_* constants.
+     * @return longest time this command took on the playback thread, in microseconds.
+     */
+    public long getMaxCommandExecutionTime(int command) {
+        return commandQueue.getMaxExecutionTime(command);
+    }
+
+    /**
+     * Change how often the listeners receive the current time.
+     *
+     * @param interval time between two updates, in milliseconds. Default is 200.
+     */
+    public void setTimeUpdateInterval(long interval) {
+        ticker.setInterval(interval);
+    }
+
+    private void updateTimeAudio() {
+        if (isPlaying) {
+            ticker.start();
+        } else {
+            ticker.stop();
+        }
+    }
+
+    private JcPlaybackTicker ticker; // Ticks on the playback thread, between the commands.
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            if (!isPlaying) {
+                return;
+            }
+
+            try {
+                long position = updatePosition();
+                if (isGaplessStartPending) {
+                    measureGaplessStart(mediaPlayer.getCurrentPosition());
+                }
+                checkpoint(currentJcAudio, (int) position);
+                if (isFirstTickPending) {
+                    isFirstTickPending = false;
+                    JcTrace.instant("JcPlayerService.firstTick");
+                }
+
+                JcTrace.begin("JcPlayerService.dispatchTimeChanged");
+                long dispatchStartedAt = clock.nanoTime();
+                if (jcPlayerServiceListeners != null) {
+                    for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
+                        jcPlayerServiceListener.onTimeChanged(position);
                     }
                 }
+                if (notificationListener != null) {
+                    notificationListener.onTimeChanged(position);
+                }
+
+                if (jcPlayerStatusListeners != null || !subscriptions.isEmpty()) {
+                    jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+                    jcStatus.setDuration(duration);
+                    jcStatus.setCurrentPosition(position);
+                    updateBufferStatus();
+                }
+                if (jcPlayerStatusListeners != null) {
+                    for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
+                        jcPlayerViewStatusListener.onTimeChangedStatus(jcStatus);
+                    }
+                }
+                publish(JcSubscription.TIME_CHANGED);
+                recordListenerDispatch(dispatchStartedAt);
+            } catch (IllegalStateException | NullPointerException e) {
+                e.printStackTrace();
+            } finally {
+                JcTrace.end("JcPlayerService.dispatchTimeChanged");
             }
-        }.start();
+        }
+    };
+
+    /**
+     * @return the position of the playback clock, after reading the real one from the player if
+     * a resync is due. The real position also feeds the stall detection, so it is read on every
+     * tick while stalled.
+     */
+    private long updatePosition() {
+        if (!bufferMonitor.isStalled() && !playbackClock.isResyncDue()) {
+            return playbackClock.getPosition();
+        }
+
+        int position = mediaPlayer.getCurrentPosition();
+        playbackClock.resync(position);
+        dispatchStallChange(bufferMonitor.onPosition(position, clock.elapsedRealtime()));
+        return position;
+    }
+
+    /**
+     * Anchor the playback clock on the position of the player, if it has one.
+     */
+    private void anchorPlaybackClock(boolean isRunning) {
+        if (mediaPlayer == null || !isMediaPlayerPrepared) {
+            playbackClock.anchor(playbackClock.getPosition(), false);
+            return;
+        }
+        try {
+            playbackClock.anchor(mediaPlayer.getCurrentPosition(), isRunning);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return position of the current audio in milliseconds. Derived from the time since it
+     * was last read from the player, so it costs no call to the media server.
+     */
+    public long getCurrentPosition() {
+        return playbackClock.getPosition();
+    }
+
+    /**
+     * @return how many times the position was read from the player to correct the clock.
+     */
+    public int getPositionResyncCount() {
+        return playbackClock.getResyncCount();
+    }
 
+    /**
+     * @return the largest gap between the clock and the player found by a resync, in
+     * milliseconds.
+     */
+    public long getMaxPositionDrift() {
+        return playbackClock.getMaxDrift();
     }
 
     @Override
-    public void onBufferingUpdate(MediaPlayer mediaPlayer, int i) {
+    public void onBufferingUpdate(MediaPlayer mediaPlayer, int percent) {
+        if (mediaPlayer != this.mediaPlayer) {
+            return;
+        }
+
+        bufferMonitor.onBufferingUpdate(percent, clock.elapsedRealtime(),
+                isWaitingForBuffer || bufferMonitor.isStalled());
+        if (isWaitingForBuffer && bufferMonitor.canStart(mediaPlayer.getCurrentPosition(), adaptiveStartLeadTime)) {
+            startPreparedAudio();
+        }
+    }
+
+    /**
+     * Wait until enough of a url audio is buffered before starting it, instead of starting it
+     * as soon as it is prepared. Helps on slow connections, where an early start stalls soon
+     * after. The audio starts anyway after {@value #ADAPTIVE_START_MAX_WAIT} ms.
+     *
+     * @param leadTime milliseconds of audio buffered ahead when the download is as fast as
+     *                 playback, less on a faster one. 0 to disable.
+     */
+    public void setAdaptiveStartLeadTime(final long leadTime) {
+        commandQueue.post(JcPlaybackCommandQueue.OTHER, new Runnable() {
+            @Override
+            public void run() {
+                adaptiveStartLeadTime = leadTime;
+            }
+        });
+    }
+
+    /**
+     * @return how far the current audio is downloaded, in milliseconds.
+     */
+    public long getBufferedPosition() {
+        JcAudio jcAudio = currentJcAudio;
+        return jcAudio != null && jcAudio.getOrigin() != Origin.URL ? duration : bufferMonitor.getBufferedPosition();
+    }
+
+    /**
+     * @return estimated download speed, in milliseconds of audio per millisecond, or -1 if
+     * unknown. Below 1 url audios download slower than they play.
+     */
+    public double getThroughputEstimate() {
+        return bufferMonitor.getThroughput();
+    }
 
+    /**
+     * @return true if playback is waiting for data.
+     */
+    public boolean isStalled() {
+        return bufferMonitor.isStalled();
+    }
+
+    private void updateBufferStatus() {
+        jcStatus.setBufferedPosition(getBufferedPosition());
+        jcStatus.setThroughput(bufferMonitor.getThroughput());
+        jcStatus.setStalled(bufferMonitor.isStalled());
+        jcStatus.setStallCount(bufferMonitor.getStallCount());
+    }
+
+    private void dispatchStallChange(int change) {
+        if (change == JcBufferMonitor.NO_CHANGE) {
+            return;
+        }
+        if (change == JcBufferMonitor.STALL_ENDED) {
+            playbackMetrics.getRebufferDuration().record(bufferMonitor.getLastStallDuration());
+            JcTrace.instant("JcPlayerService.stallEnded");
+            anchorPlaybackClock(isPlaying);
+            if (isPlaying) {
+                publishPlaybackState(PlaybackStateCompat.STATE_PLAYING);
+            }
+        } else {
+            JcTrace.instant("JcPlayerService.stallStarted");
+            anchorPlaybackClock(false);
+            // Otherwise the system would move the progress on while nothing plays.
+            publishPlaybackState(PlaybackStateCompat.STATE_BUFFERING);
+        }
+
+        jcStatus.setJcAudio(currentJcAudio);
+        updateBufferStatus();
+        if (jcPlayerStatusListeners != null) {
+            for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
+                if (jcPlayerViewStatusListener instanceof JcPlayerView.JcPlayerViewBufferingStatusListener) {
+                    JcPlayerView.JcPlayerViewBufferingStatusListener listener =
+                            (JcPlayerView.JcPlayerViewBufferingStatusListener) jcPlayerViewStatusListener;
+                    if (change == JcBufferMonitor.STALL_STARTED) {
+                        listener.onStalledStatus(jcStatus);
+                    } else {
+                        listener.onStallEndedStatus(jcStatus);
+                    }
+                }
+            }
+        }
+        publish(change == JcBufferMonitor.STALL_STARTED ? JcSubscription.STALLED : JcSubscription.STALL_ENDED);
     }
 
     @Override
     public void onCompletion(MediaPlayer mediaPlayer) {
+        if (mediaPlayer != this.mediaPlayer) {
+            return; // A player already replaced or recycled.
+        }
+        completedAt = clock.elapsedRealtime();
+
+        if (isNextMediaPlayerChained) {
+            onGaplessTransition(mediaPlayer);
+            return;
+        }
+
+        ticker.stop();
+        playbackClock.anchor(duration, false);
+        publishPlaybackState(PlaybackStateCompat.STATE_STOPPED);
+
         if (jcPlayerServiceListeners != null) {
             for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
                 jcPlayerServiceListener.onCompletedAudio();
@@ -298,6 +1539,7 @@ public class JcPlayerService extends Service implements
                 jcPlayerViewStatusListener.onCompletedAudioStatus(jcStatus);
             }
         }
+        publish(JcSubscription.COMPLETED);
     }
 
     private void throwError(String path, Origin origin) {
@@ -334,18 +1576,17 @@ public class JcPlayerService extends Service implements
     private boolean isAudioFileValid(String path, Origin origin) {
         if (origin == Origin.URL) {
             return path.startsWith("http") || path.startsWith("https");
-        } else if (origin == Origin.RAW) {
-            assetFileDescriptor = null;
-            assetFileDescriptor = getApplicationContext().getResources().openRawResourceFd(Integer.parseInt(path));
-            return assetFileDescriptor != null;
-        } else if (origin == Origin.ASSETS) {
+        } else if (origin == Origin.RAW || origin == Origin.ASSETS) {
+            // Runs before every chained audio too, so the descriptor must not leak.
+            AssetFileDescriptor assetFileDescriptor = null;
             try {
-                assetFileDescriptor = null;
-                assetFileDescriptor = getApplicationContext().getAssets().openFd(path);
+                assetFileDescriptor = openAssetFileDescriptor(path, origin);
                 return assetFileDescriptor != null;
             } catch (IOException e) {
                 e.printStackTrace(); //TODO: need to give user more readable error.
                 return false;
+            } finally {
+                closeAssetFileDescriptor(assetFileDescriptor);
             }
         } else if (origin == Origin.FILE_PATH) {
             File file = new File(path);
@@ -358,40 +1599,128 @@ public class JcPlayerService extends Service implements
         }
     }
 
+    private AssetFileDescriptor openAssetFileDescriptor(String path, Origin origin) throws IOException {
+        if (origin == Origin.RAW) {
+            return getApplicationContext().getResources().openRawResourceFd(Integer.parseInt(path));
+        }
+        return getApplicationContext().getAssets().openFd(path);
+    }
+
+    private static void closeAssetFileDescriptor(AssetFileDescriptor assetFileDescriptor) {
+        if (assetFileDescriptor != null) {
+            try {
+                assetFileDescriptor.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Override
     public boolean onError(MediaPlayer mediaPlayer, int i, int i1) {
+        if (mediaPlayer != this.mediaPlayer) {
+            return true; // Not playing anymore, don't let it complete.
+        }
+        playbackMetrics.recordError();
         return false;
     }
 
     @Override
     public void onPrepared(MediaPlayer mediaPlayer) {
+        if (mediaPlayer != this.mediaPlayer) {
+            return;
+        }
+        JcTrace.endAsync("JcPlayerService.prepare", prepareTraceCookie);
+        if (mediaPlayerGeneration != playGeneration.get()) {
+            // A newer play is queued: don't start it or tell anyone yet. If that play asks for
+            // this audio again, its command starts it.
+            isMediaPlayerPrepared = true;
+            isPreparedStartPending = true;
+            return;
+        }
+        handlePrepared();
+    }
+
+    private void handlePrepared() {
+        isMediaPlayerPrepared = true;
+        isPreparedStartPending = false;
+        if (startPosition > 0) {
+            mediaPlayer.seekTo(startPosition);
+            startPosition = 0;
+        }
+        bufferMonitor.reset(mediaPlayer.getDuration());
+
+        if (adaptiveStartLeadTime > 0 && currentJcAudio.getOrigin() == Origin.URL) {
+            // The buffering updates start it once enough is downloaded.
+            isWaitingForBuffer = true;
+            JcTrace.instant("JcPlayerService.waitForBuffer");
+            final int generation = mediaPlayerGeneration;
+            commandQueue.postDelayed(JcPlaybackCommandQueue.OTHER, new Runnable() {
+                @Override
+                public void run() {
+                    if (isWaitingForBuffer && generation == playGeneration.get()) {
+                        startPreparedAudio();
+                    }
+                }
+            }, ADAPTIVE_START_MAX_WAIT);
+            return;
+        }
+        startPreparedAudio();
+    }
+
+    private void startPreparedAudio() {
+        isWaitingForBuffer = false;
         mediaPlayer.start();
         isPlaying = true;
+        isCurrentAudioStarting = false;
+        updatePrefetcherPause();
+        long startedAt = clock.elapsedRealtime();
+        if (firstAudioStartedAt == 0) {
+            firstAudioStartedAt = startedAt;
+        }
+        playbackMetrics.getPrepareLatency().record(startedAt - prepareStartedAt);
+        if (currentJcAudio.getOrigin() != null) {
+            playbackMetrics.getTimeToFirstAudio(currentJcAudio.getOrigin()).record(startedAt - playRequestedAt);
+        }
+        recordTrackGap(startedAt);
+        isFirstTickPending = true;
+        JcTrace.instant("JcPlayerService.started");
+        chainNextMediaPlayer();
         this.duration = mediaPlayer.getDuration();
         this.currentTime = mediaPlayer.getCurrentPosition();
+        playbackClock.setDuration(duration);
+        playbackClock.anchor(currentTime, true);
+        checkpoint(currentJcAudio, currentTime);
         updateTimeAudio();
+        publishAudio(currentJcAudio, duration);
+        publishPlaybackState(PlaybackStateCompat.STATE_PLAYING);
 
+        JcTrace.begin("JcPlayerService.dispatchPrepared");
+        long dispatchStartedAt = clock.nanoTime();
         if (jcPlayerServiceListeners != null) {
             for (JcPlayerView.JcPlayerViewServiceListener jcPlayerServiceListener : jcPlayerServiceListeners) {
                 jcPlayerServiceListener.updateTitle(currentJcAudio.getTitle());
-                jcPlayerServiceListener.onPreparedAudio(currentJcAudio.getTitle(), mediaPlayer.getDuration());
+                jcPlayerServiceListener.onPreparedAudio(currentJcAudio.getTitle(), duration);
             }
         }
 
         if (notificationListener != null) {
             notificationListener.updateTitle(currentJcAudio.getTitle());
-            notificationListener.onPreparedAudio(currentJcAudio.getTitle(), mediaPlayer.getDuration());
+            notificationListener.onPreparedAudio(currentJcAudio.getTitle(), duration);
         }
 
+        jcStatus.setJcAudio(currentJcAudio);
+        jcStatus.setPlayState(JcStatus.PlayState.PLAY);
+        jcStatus.setDuration(duration);
+        jcStatus.setCurrentPosition(currentTime);
         if (jcPlayerStatusListeners != null) {
             for (JcPlayerView.JcPlayerViewStatusListener jcPlayerViewStatusListener : jcPlayerStatusListeners) {
-                jcStatus.setJcAudio(currentJcAudio);
-                jcStatus.setPlayState(JcStatus.PlayState.PLAY);
-                jcStatus.setDuration(duration);
-                jcStatus.setCurrentPosition(currentTime);
                 jcPlayerViewStatusListener.onPreparedAudioStatus(jcStatus);
             }
         }
+        publish(JcSubscription.PREPARED);
+        recordListenerDispatch(dispatchStartedAt);
+        JcTrace.end("JcPlayerService.dispatchPrepared");
     }
 
     public JcAudio getCurrentAudio() {
@@ -3,8 +3,12 @@ package com.example.jean.jcplayer;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.Nullable;
 import android.support.v4.content.res.ResourcesCompat;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageButton;
@@ -17,11 +21,11 @@ import com.daimajia.androidanimations.library.Techniques;
 import com.daimajia.androidanimations.library.YoYo;
 import com.example.jean.jcplayer.JcPlayerExceptions.AudioListNullPointerException;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 public class JcPlayerView extends LinearLayout implements
-        View.OnClickListener, SeekBar.OnSeekBarChangeListener {
+        View.OnClickListener, SeekBar.OnSeekBarChangeListener, JcPlayerListeners {
 
     private static final String TAG = JcPlayerView.class.getSimpleName();
 
@@ -38,115 +42,139 @@ public class JcPlayerView extends LinearLayout implements
     private SeekBar seekBar;
     private TextView txtCurrentDuration;
     private boolean isInitialized;
+    private boolean isTrackingTouch;
+    private boolean isSeekPreviewEnabled = true;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     private OnInvalidPathListener onInvalidPathListener = new OnInvalidPathListener() {
         @Override
         public void onPathError(JcAudio jcAudio) {
-            dismissProgressBar();
+            frameBridge.dismissProgress();
         }
     };
 
+    // The service calls us from its threads, every view change goes through the frame bridge.
     JcPlayerViewServiceListener jcPlayerViewServiceListener = new JcPlayerViewServiceListener() {
 
         @Override
         public void onPreparedAudio(String audioName, int duration) {
-            dismissProgressBar();
-            resetPlayerInfo();
+            frameBridge.setAudio(audioName, duration);
+        }
 
-            long aux = duration / 1000;
-            int minute = (int) (aux / 60);
-            int second = (int) (aux % 60);
+        @Override
+        public void onCompletedAudio() {
+            frameBridge.reset();
+            // The playlist is only changed on the main thread.
+            mainHandler.post(playNextAudio);
+        }
 
-            final String sDuration = // Minutes
-                    (minute < 10 ? "0" + minute : minute + "")
-                            + ":" +
-                            // Seconds
-                            (second < 10 ? "0" + second : second + "");
+        @Override
+        public void onPaused() {
+            frameBridge.setPlaying(false);
+        }
 
-            seekBar.setMax(duration);
+        @Override
+        public void onContinueAudio() {
+            frameBridge.dismissProgress();
+        }
 
-            txtDuration.post(new Runnable() {
-                @Override
-                public void run() {
-                    txtDuration.setText(sDuration);
-                }
-            });
+        @Override
+        public void onPlaying() {
+            frameBridge.setPlaying(true);
         }
 
         @Override
-        public void onCompletedAudio() {
-            resetPlayerInfo();
+        public void onTimeChanged(long currentPosition) {
+            frameBridge.setPosition(currentPosition);
+        }
+
+        @Override
+        public void updateTitle(String title) {
+            frameBridge.setTitle(title);
+        }
+    };
 
+    private final Runnable playNextAudio = new Runnable() {
+        @Override
+        public void run() {
             try {
                 jcAudioPlayer.nextAudio();
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+    };
+
+    private final char[] timeChars = new char[JcTimeFormat.MAX_LENGTH]; // Reused by every frame.
 
+    private final JcFrameBridge.Target frameTarget = new JcFrameBridge.Target() {
         @Override
-        public void onPaused() {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                btnPlay.setBackground(ResourcesCompat.getDrawable(getResources(),
-                        R.drawable.ic_play_black, null));
-            } else {
-                btnPlay.setBackgroundDrawable(ResourcesCompat.getDrawable(getResources(),
-                        R.drawable.ic_play_black, null));
+        public void reset() {
+            seekBar.setProgress(0);
+            txtCurrentMusic.setText("");
+            txtCurrentDuration.setText(getContext().getString(R.string.play_initial_time));
+            txtDuration.setText(getContext().getString(R.string.play_initial_time));
+        }
+
+        @Override
+        public void setTitle(String title, boolean animate) {
+            if (animate) {
+                YoYo.with(Techniques.FadeInLeft)
+                        .duration(TITLE_ANIMATION_DURATION)
+                        .playOn(txtCurrentMusic);
             }
-            btnPlay.setTag(R.drawable.ic_play_black);
+            txtCurrentMusic.setText(title);
         }
 
         @Override
-        public void onContinueAudio() {
-            dismissProgressBar();
+        public void setDuration(int duration) {
+            seekBar.setMax(duration);
+            txtDuration.setText(JcTimeFormat.format(duration));
+            updateProgressResolution();
         }
 
         @Override
-        public void onPlaying() {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                btnPlay.setBackground(ResourcesCompat.getDrawable(getResources(),
-                        R.drawable.ic_pause_black, null));
-            } else {
-                btnPlay.setBackgroundDrawable(ResourcesCompat.getDrawable(getResources(),
-                        R.drawable.ic_pause_black, null));
-            }
-            btnPlay.setTag(R.drawable.ic_pause_black);
+        public void setPlaying(boolean isPlaying) {
+            setPlayButtonDrawable(isPlaying ? R.drawable.ic_pause_black : R.drawable.ic_play_black);
         }
 
         @Override
-        public void onTimeChanged(long currentPosition) {
-            long aux = currentPosition / 1000;
-            int minutes = (int) (aux / 60);
-            int seconds = (int) (aux % 60);
-            final String sMinutes = minutes < 10 ? "0" + minutes : minutes + "";
-            final String sSeconds = seconds < 10 ? "0" + seconds : seconds + "";
-
-            seekBar.setProgress((int) currentPosition);
-            txtCurrentDuration.post(new Runnable() {
-                @Override
-                public void run() {
-                    txtCurrentDuration.setText(String.valueOf(sMinutes + ":" + sSeconds));
-                }
-            });
+        public void dismissProgress() {
+            dismissProgressBar();
         }
 
         @Override
-        public void updateTitle(final String title) {
-//            final String mTitle = title;
+        public void setPosition(long position, boolean isSecondChanged) {
+            if (!isTrackingTouch) {
+                seekBar.setProgress((int) position);
+            }
+            if (isSecondChanged) {
+                txtCurrentDuration.setText(timeChars, 0, JcTimeFormat.format(position, timeChars));
+            }
+        }
+    };
 
-            YoYo.with(Techniques.FadeInLeft)
-                    .duration(TITLE_ANIMATION_DURATION)
-                    .playOn(txtCurrentMusic);
+    private Choreographer choreographer; // Null before API 16, frames are posted instead.
+    private Choreographer.FrameCallback frameCallback;
 
-            txtCurrentMusic.post(new Runnable() {
-                @Override
-                public void run() {
-                    txtCurrentMusic.setText(title);
-                }
-            });
+    private final Runnable frameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            frameBridge.doFrame();
         }
     };
 
+    private final JcFrameBridge frameBridge = new JcFrameBridge(frameTarget, new JcFrameBridge.FrameScheduler() {
+        @Override
+        public void scheduleFrame() {
+            if (choreographer != null) {
+                postFrameCallback();
+            } else {
+                post(frameRunnable);
+            }
+        }
+    });
+
     //JcPlayerViewStatusListener jcPlayerViewStatusListener = new JcPlayerViewStatusListener() {
     //
     //    @Override public void onPausedStatus(JcStatus jcStatus) {
@@ -174,40 +202,6 @@ public class JcPlayerView extends LinearLayout implements
     //    }
     //};
 
-    public interface OnInvalidPathListener {
-        void onPathError(JcAudio jcAudio);
-    }
-
-    public interface JcPlayerViewStatusListener {
-        void onPausedStatus(JcStatus jcStatus);
-
-        void onContinueAudioStatus(JcStatus jcStatus);
-
-        void onPlayingStatus(JcStatus jcStatus);
-
-        void onTimeChangedStatus(JcStatus jcStatus);
-
-        void onCompletedAudioStatus(JcStatus jcStatus);
-
-        void onPreparedAudioStatus(JcStatus jcStatus);
-    }
-
-    public interface JcPlayerViewServiceListener {
-        void onPreparedAudio(String audioName, int duration);
-
-        void onCompletedAudio();
-
-        void onPaused();
-
-        void onContinueAudio();
-
-        void onPlaying();
-
-        void onTimeChanged(long currentTime);
-
-        void updateTitle(String title);
-    }
-
     public JcPlayerView(Context context) {
         super(context);
         init();
@@ -240,10 +234,51 @@ public class JcPlayerView extends LinearLayout implements
         btnPrev.setOnClickListener(this);
         btnPlay.setOnClickListener(this);
         seekBar.setOnSeekBarChangeListener(this);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            initChoreographer();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void initChoreographer() {
+        choreographer = Choreographer.getInstance(); // Of the main thread, the service threads have none.
+        frameCallback = new Choreographer.FrameCallback() {
+            @Override
+            public void doFrame(long frameTimeNanos) {
+                frameBridge.doFrame();
+            }
+        };
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        choreographer.postFrameCallback(frameCallback);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateProgressResolution();
     }
 
     /**
-     * Initialize the playlist and controls.
+     * Positions that would move the SeekBar by less than a pixel don't need a frame.
+     */
+    private void updateProgressResolution() {
+        int width = seekBar.getWidth() - seekBar.getPaddingLeft() - seekBar.getPaddingRight();
+        if (width > 0) {
+            frameBridge.setProgressResolution(seekBar.getMax() / width);
+        }
+    }
+
+    /**
+     * Initialize the playlist and controls. The player copies the list, change the
+     * playlist through {@link #getMyPlaylist()}, {@link #addAudio(JcAudio)} and
+     * {@link #removeAudio(JcAudio)} afterwards.
+     * <p>
+     * A list opened with {@link JcPlaylistFile#open(java.io.File)} isn't copied, audios are
+     * read from the file as they play. Large libraries open in constant time this way.
      *
      * @param playlist List of JcAudio objects that you want play
      */
@@ -295,7 +330,10 @@ public class JcPlayerView extends LinearLayout implements
 
     /**
      * Add an audio for the playlist. We can track the JcAudio by
-     * its id. So here we returning its id after adding to list.
+     * its id. So here we returning its id after adding to list. The
+     * playlist gives the audio a new id, it replaces the one it had and
+     * is never given to another audio of the playlist, even after this one
+     * is removed. Store the returned id, not the one set before adding.
      *
      * @param jcAudio audio file generated from {@link JcAudio}
      * @return id of jcAudio.
@@ -305,11 +343,12 @@ public class JcPlayerView extends LinearLayout implements
         List<JcAudio> playlist = jcAudioPlayer.getPlaylist();
         int lastPosition = playlist.size();
 
-        jcAudio.setId(lastPosition + 1);
-        jcAudio.setPosition(lastPosition + 1);
-
+        // The playlist finds audios by id, so only change it while the audio is not in it.
         if (!playlist.contains(jcAudio)) {
+            jcAudio.setId(-1);
+            jcAudio.setPosition(lastPosition + 1);
             playlist.add(lastPosition, jcAudio);
+            jcAudioPlayer.onPlaylistChanged();
         }
         return jcAudio.getId();
     }
@@ -343,6 +382,7 @@ public class JcPlayerView extends LinearLayout implements
                     pause();
                     resetPlayerInfo();
                 }
+                jcAudioPlayer.onPlaylistChanged();
             }
         }
     }
@@ -356,12 +396,20 @@ public class JcPlayerView extends LinearLayout implements
 
         try {
             jcAudioPlayer.playAudio(jcAudio);
-        } catch (AudioListNullPointerException e1) {
+        } catch (AudioListNullPointerException e) {
             dismissProgressBar();
-            e1.printStackTrace();
-        } catch (NullPointerException e2) {
-            // Service is not bounded yet.
-            jcAudioPlayer.lazyPlayAudio(jcAudio);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Play the audio that was playing when the app was last closed, from where it stopped.
+     * Does nothing if that audio isn't in the playlist anymore.
+     */
+    public void resumeLastAudio() {
+        createJcAudioPlayer();
+        if (jcAudioPlayer.resumeAudio()) {
+            showProgressBar();
         }
     }
 
@@ -461,6 +509,110 @@ public class JcPlayerView extends LinearLayout implements
         }
     }
 
+    /**
+     * Play the next audio right after the current one ends, without silence between them.
+     * Must be called after the playlist was initialized.
+     *
+     * @param gaplessEnabled true to prepare the next audio while the current one plays.
+     */
+    public void setGaplessEnabled(boolean gaplessEnabled) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setGaplessEnabled(gaplessEnabled);
+        }
+    }
+
+    /**
+     * Publish the playback to a media session, so the lockscreen, the system media controls and
+     * headsets can show and control it. The notification keeps showing the time and is linked
+     * to the session from its next update.
+     * Must be called after the playlist was initialized.
+     *
+     * @param mediaSessionEnabled true to create the session, false to release it.
+     */
+    public void setMediaSessionEnabled(boolean mediaSessionEnabled) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setMediaSessionEnabled(mediaSessionEnabled);
+        }
+    }
+
+    /**
+     * Play the playlist in a random order, starting from the current audio. The playlist
+     * itself keeps its order. Must be called after the playlist was initialized.
+     *
+     * @param shuffleEnabled true to shuffle, false to go back to the playlist order.
+     */
+    public void setShuffleEnabled(boolean shuffleEnabled) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setShuffleEnabled(shuffleEnabled);
+        }
+    }
+
+    public boolean isShuffleEnabled() {
+        return jcAudioPlayer != null && jcAudioPlayer.isShuffleEnabled();
+    }
+
+    /**
+     * Play an audio after the current one, before the rest of the playlist. The audio doesn't
+     * need to be in the playlist.
+     *
+     * @param jcAudio audio file generated from {@link JcAudio}
+     */
+    public void addToUpNext(JcAudio jcAudio) {
+        createJcAudioPlayer();
+        jcAudioPlayer.addToUpNext(jcAudio);
+    }
+
+    /**
+     * Remove the audios added with {@link #addToUpNext(JcAudio)} that didn't play yet.
+     */
+    public void clearUpNext() {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.clearUpNext();
+        }
+    }
+
+    /**
+     * Cache url audios on the disk while they play, so replays and seeks back are served
+     * locally. Must be called after the playlist was initialized.
+     * <p>
+     * The player then reads the audios from a local http proxy. Apps targeting API 28 or higher
+     * block cleartext traffic by default, they must allow it for 127.0.0.1 in their network
+     * security config, see {@link JcCacheProxy}.
+     *
+     * @param maxCacheBytes size of the cache in bytes, or 0 to disable it.
+     */
+    public void setUrlCacheSize(long maxCacheBytes) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setUrlCacheSize(maxCacheBytes);
+        }
+    }
+
+    /**
+     * Download the beginning of the next url audios while the current one plays, so skipping to
+     * them starts from the disk. Needs the url cache, see {@link #setUrlCacheSize(long)}.
+     *
+     * @param audiosAhead how many upcoming audios to prefetch, 0 to disable prefetching.
+     * @param byteBudget  bytes downloaded at most for all of them, split evenly.
+     */
+    public void setPrefetchBudget(int audiosAhead, long byteBudget) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setPrefetchBudget(audiosAhead, byteBudget);
+        }
+    }
+
+    /**
+     * On slow connections, wait until enough of a url audio is downloaded before starting it,
+     * so it doesn't stall right after. Stalls are reported to the status listeners that
+     * implement {@link JcPlayerViewBufferingStatusListener}.
+     *
+     * @param leadTime milliseconds of audio to buffer ahead, 0 to start as soon as prepared.
+     */
+    public void setAdaptiveStartLeadTime(long leadTime) {
+        if (jcAudioPlayer != null) {
+            jcAudioPlayer.setAdaptiveStartLeadTime(leadTime);
+        }
+    }
+
     public List<JcAudio> getMyPlaylist() {
         return jcAudioPlayer.getPlaylist();
     }
@@ -477,10 +629,47 @@ public class JcPlayerView extends LinearLayout implements
         return jcAudioPlayer.getCurrentAudio();
     }
 
+    /**
+     * @return latencies, rebuffers and errors of the playback, or null until the player service
+     * is bound.
+     */
+    @Nullable
+    public JcPlaybackMetrics getPlaybackMetrics() {
+        return jcAudioPlayer != null ? jcAudioPlayer.getPlaybackMetrics() : null;
+    }
+
+    /**
+     * @return milliseconds from the creation of the player to its service being bound, or -1.
+     */
+    public long getBindTime() {
+        return jcAudioPlayer != null ? jcAudioPlayer.getBindTime() : -1;
+    }
+
+    /**
+     * @return milliseconds from the service being bound to the first audio starting to prepare,
+     * or -1.
+     */
+    public long getBindToFirstPrepareTime() {
+        return jcAudioPlayer != null ? jcAudioPlayer.getBindToFirstPrepareTime() : -1;
+    }
+
+    /**
+     * @return milliseconds from the first audio starting to prepare to it being audible, or -1.
+     */
+    public long getFirstPrepareToAudioTime() {
+        return jcAudioPlayer != null ? jcAudioPlayer.getFirstPrepareToAudioTime() : -1;
+    }
+
+    /**
+     * @return how many times the notification was posted during the last minute, or -1.
+     */
+    public int getNotificationPostsPerMinute() {
+        return jcAudioPlayer != null ? jcAudioPlayer.getNotificationPostsPerMinute() : -1;
+    }
+
     private void createJcAudioPlayer() {
         if (jcAudioPlayer == null) {
-            List<JcAudio> playlist = new ArrayList<>();
-            jcAudioPlayer = new JcAudioPlayer(getContext(), playlist, jcPlayerViewServiceListener);
+            jcAudioPlayer = new JcAudioPlayer(getContext(), new JcPlaylist(), jcPlayerViewServiceListener);
         }
         jcAudioPlayer.registerInvalidPathListener(onInvalidPathListener);
         //jcAudioPlayer.registerStatusListener(jcPlayerViewStatusListener);
@@ -488,11 +677,7 @@ public class JcPlayerView extends LinearLayout implements
     }
 
     private void sortPlaylist(List<JcAudio> playlist) {
-        for (int i = 0; i < playlist.size(); i++) {
-            JcAudio jcAudio = playlist.get(i);
-            jcAudio.setId(i);
-            jcAudio.setPosition(i);
-        }
+        JcAudios.sort(playlist);
     }
 
     /**
@@ -517,13 +702,16 @@ public class JcPlayerView extends LinearLayout implements
     }
 
     private void generateTitleAudio(List<JcAudio> playlist, String title) {
-        for (int i = 0; i < playlist.size(); i++) {
-            if (title.equals(getContext().getString(R.string.track_number))) {
-                playlist.get(i).setTitle(getContext().getString(R.string.track_number) + " " + String.valueOf(i + 1));
-            } else {
-                playlist.get(i).setTitle(title);
-            }
+        JcAudios.generateTitles(playlist, title, getContext().getString(R.string.track_number));
+    }
+
+    private void setPlayButtonDrawable(int drawable) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            btnPlay.setBackground(ResourcesCompat.getDrawable(getResources(), drawable, null));
+        } else {
+            btnPlay.setBackgroundDrawable(ResourcesCompat.getDrawable(getResources(), drawable, null));
         }
+        btnPlay.setTag(drawable);
     }
 
     private void showProgressBar() {
@@ -541,24 +729,43 @@ public class JcPlayerView extends LinearLayout implements
     }
 
     private void resetPlayerInfo() {
-        seekBar.setProgress(0);
-        txtCurrentMusic.setText("");
-        txtCurrentDuration.setText(getContext().getString(R.string.play_initial_time));
-        txtDuration.setText(getContext().getString(R.string.play_initial_time));
+        // Also drops the positions from the service that weren't shown yet.
+        frameBridge.reset();
+    }
+
+    /**
+     * Seek to the nearest sync frame while the user drags the SeekBar, before the exact seek
+     * when the drag ends. Enabled by default.
+     *
+     * @param seekPreviewEnabled false to only seek when the user releases the SeekBar.
+     */
+    public void setSeekPreviewEnabled(boolean seekPreviewEnabled) {
+        this.isSeekPreviewEnabled = seekPreviewEnabled;
     }
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int i, boolean fromUser) {
-        if (fromUser && jcAudioPlayer != null) jcAudioPlayer.seekTo(i);
+        if (!fromUser || jcAudioPlayer == null) {
+            return;
+        }
+
+        if (!isTrackingTouch) {
+            jcAudioPlayer.seekTo(i);
+        } else if (isSeekPreviewEnabled) {
+            jcAudioPlayer.previewSeekTo(i);
+        }
     }
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
+        isTrackingTouch = true;
         showProgressBar();
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
+        isTrackingTouch = false;
+        if (jcAudioPlayer != null) jcAudioPlayer.seekTo(seekBar.getProgress());
         dismissProgressBar();
     }
 
@@ -584,4 +791,23 @@ public class JcPlayerView extends LinearLayout implements
         }
     }
 
+    /**
+     * Like {@link #registerStatusListener(JcPlayerViewStatusListener)}, but the listener is
+     * called on its own executor and can't slow down playback. Must be called after the
+     * playlist was initialized.
+     *
+     * @param eventTypes      JcSubscription EVENT_* flags.
+     * @param minTimeInterval milliseconds between two time updates, at least.
+     * @param executor        calls the listener, one event at a time.
+     * @return the subscription, to cancel it and read its lag, or null without a playlist.
+     */
+    @Nullable
+    public JcSubscription subscribe(JcPlayerViewStatusListener statusListener, int eventTypes,
+                                    long minTimeInterval, Executor executor) {
+        if (jcAudioPlayer == null) {
+            return null;
+        }
+        return jcAudioPlayer.subscribe(statusListener, eventTypes, minTimeInterval, executor);
+    }
+
 }
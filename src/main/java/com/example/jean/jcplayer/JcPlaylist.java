@@ -0,0 +1,527 @@
+package com.example.jean.jcplayer;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * Playlist backing {@link JcAudioPlayer}. Finds audios by id without scanning the list and
+ * keeps track of the current audio, so moving to the next or previous one is cheap even with
+ * very large playlists.
+ * <p>
+ * Audios are stored in slots. Removing an audio leaves an empty slot behind instead of shifting
+ * the ones after it, and a Fenwick tree over the slots converts between slots and list indexes.
+ * While there are no empty slots, index and slot are the same and every lookup is O(1). With
+ * empty slots, index lookups cost O(log n) until the slots are compacted, which happens once
+ * they outnumber the audios. An insert before the end takes the empty slot just before it or the
+ * first one after it: it is cheap next to a removal, and costs O(n) without empty slots.
+ * <p>
+ * Ids are unique within the playlist: an audio added without id gets a new one, and adding an
+ * audio with the id of another audio of the playlist fails. Only the audios of the list a playlist
+ * is created from are renumbered when their ids collide. Don't change the id of an audio while it
+ * is in the playlist. The same audio can't be added twice.
+ * <p>
+ * A playlist made from a {@link JcPlaylistFile} reads its audios from the file and finds them
+ * with the id table of the file. It is copied into slots on its first change.
+ */
+class JcPlaylist extends AbstractList<JcAudio> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MIN_EMPTY_SLOTS_TO_COMPACT = 32;
+
+    private transient JcAudio[] slots;
+    private transient int[] tree; // Fenwick tree, 1-based, counts the audios of each slot range.
+    private transient JcLongIntMap slotsById;
+    private transient int slotCount;
+    private transient int size;
+    private transient long nextId;
+    private transient int reorderCount;
+
+    // Slot of the current audio. When the current audio was removed, slot of the audio before it.
+    private transient int currentSlot = -1;
+    private transient boolean currentRemoved;
+
+    // Audios of a playlist file, until the first change. Slots are unused meanwhile.
+    private transient JcMappedPlaylist file;
+
+    JcPlaylist() {
+        this(MIN_CAPACITY);
+    }
+
+    JcPlaylist(int capacity) {
+        init(capacity);
+    }
+
+    JcPlaylist(Collection<? extends JcAudio> audios) {
+        if (audios instanceof JcMappedPlaylist) {
+            init(MIN_CAPACITY);
+            file = (JcMappedPlaylist) audios;
+            size = slotCount = file.size();
+            return;
+        }
+
+        init(audios.size());
+        for (JcAudio audio : audios) {
+            appendSlot(audio);
+        }
+        rebuildTree();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public JcAudio get(int index) {
+        checkIndex(index, size);
+        return audioAt(slotAt(index));
+    }
+
+    /**
+     * @return the audio with this id, or null.
+     */
+    JcAudio getById(long id) {
+        int slot = file != null ? file.indexOfId(id) : slotsById.get(id);
+        return slot < 0 ? null : audioAt(slot);
+    }
+
+    @Override
+    public boolean contains(Object object) {
+        return slotOf(object) != JcLongIntMap.MISSING;
+    }
+
+    @Override
+    public int indexOf(Object object) {
+        int slot = slotOf(object);
+        return slot == JcLongIntMap.MISSING ? -1 : indexOfSlot(slot);
+    }
+
+    @Override
+    public int lastIndexOf(Object object) {
+        return indexOf(object);
+    }
+
+    @Override
+    public JcAudio set(int index, JcAudio audio) {
+        checkIndex(index, size);
+        copyFile();
+        int slot = slotAt(index);
+        JcAudio previous = slots[slot];
+        if (previous == audio) {
+            return previous;
+        }
+        checkNotContained(audio);
+        if (audio.getId() != previous.getId()) {
+            checkIdAvailable(audio);
+        }
+
+        slotsById.remove(previous.getId());
+        slots[slot] = audio;
+        slotsById.put(assignId(audio), slot);
+        return previous;
+    }
+
+    /**
+     * Appending costs O(log n). Inserting before the end takes the empty slot left by a removal
+     * right before the insertion point if there is one, in O(log n). Otherwise the following
+     * audios shift up to the next empty slot, so without empty slots the insert costs O(n)
+     * like in an ArrayList.
+     */
+    @Override
+    public void add(int index, JcAudio audio) {
+        checkIndex(index, size + 1);
+        checkNotContained(audio);
+        checkIdAvailable(audio);
+        copyFile();
+        modCount++;
+
+        if (index == size) {
+            if (slotCount == slots.length) {
+                compact(Math.max(MIN_CAPACITY, size * 2));
+            }
+            appendSlot(audio);
+            appendToTree(slotCount);
+            return;
+        }
+
+        reorderCount++;
+        int slot = slotAt(index);
+        int previousSlot = index > 0 ? slotAt(index - 1) : -1;
+        if (previousSlot < slot - 1) {
+            // Empty slot right before, nothing moves.
+            slot--;
+            addToTree(slot + 1, 1);
+        } else {
+            int empty = slot;
+            while (empty < slotCount && slots[empty] != null) {
+                empty++;
+            }
+            boolean isNewSlot = empty == slotCount;
+            if (isNewSlot && slotCount == slots.length) {
+                slots = Arrays.copyOf(slots, slots.length * 2);
+                tree = Arrays.copyOf(tree, slots.length + 1);
+            }
+
+            System.arraycopy(slots, slot, slots, slot + 1, empty - slot);
+            for (int moved = slot + 1; moved <= empty; moved++) {
+                slotsById.put(slots[moved].getId(), moved);
+            }
+            if (currentSlot >= slot && currentSlot < empty) {
+                currentSlot++;
+            }
+            // Only the empty slot changes count, the audios before it moved by one slot.
+            if (isNewSlot) {
+                slotCount++;
+                appendToTree(slotCount);
+            } else {
+                addToTree(empty + 1, 1);
+            }
+        }
+        slots[slot] = audio;
+        slotsById.put(assignId(audio), slot);
+        size++;
+    }
+
+    @Override
+    public JcAudio remove(int index) {
+        checkIndex(index, size);
+        copyFile();
+        modCount++;
+        reorderCount++;
+
+        int slot = slotAt(index);
+        JcAudio audio = slots[slot];
+        if (slot == currentSlot) {
+            currentSlot = index > 0 ? slotAt(index - 1) : -1;
+            currentRemoved = true;
+        }
+
+        slots[slot] = null;
+        slotsById.remove(audio.getId());
+        addToTree(slot + 1, -1);
+        size--;
+
+        int emptySlots = slotCount - size;
+        if (emptySlots >= MIN_EMPTY_SLOTS_TO_COMPACT && emptySlots > size) {
+            compact(Math.max(MIN_CAPACITY, size * 2));
+        }
+        return audio;
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        int index = indexOf(object);
+        if (index < 0) {
+            return false;
+        }
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        modCount++;
+        reorderCount++;
+        long unusedId = nextId;
+        init(MIN_CAPACITY);
+        nextId = unusedId;
+    }
+
+    /**
+     * @return a number that changes every time audios are added or removed.
+     */
+    int getVersion() {
+        return modCount;
+    }
+
+    /**
+     * @return how many times audios moved to other indexes, by a removal or an insertion before
+     * the end. Appending audios doesn't count.
+     */
+    int getReorderCount() {
+        return reorderCount;
+    }
+
+    /**
+     * Make this audio the current one.
+     *
+     * @return false if the audio isn't in the playlist, the current audio doesn't change then.
+     */
+    boolean setCurrent(JcAudio audio) {
+        int slot = slotOf(audio);
+        if (slot == JcLongIntMap.MISSING) {
+            return false;
+        }
+        currentSlot = slot;
+        currentRemoved = false;
+        return true;
+    }
+
+    /**
+     * @return the current audio, or null if there is none or it was removed.
+     */
+    JcAudio getCurrent() {
+        return currentSlot < 0 || currentRemoved ? null : audioAt(currentSlot);
+    }
+
+    /**
+     * @return index of the current audio. If it was removed, index of the audio that was before
+     * it. -1 if there is none.
+     */
+    int getCurrentIndex() {
+        return currentSlot < 0 ? -1 : indexOfSlot(currentSlot);
+    }
+
+    /**
+     * @return the audio after the current one, or null at the end of the playlist. Without
+     * current audio, the first one.
+     */
+    JcAudio getNext() {
+        int index = getCurrentIndex() + 1;
+        return index < size ? get(index) : null;
+    }
+
+    /**
+     * @return the audio before the current one, or null at the start of the playlist.
+     */
+    JcAudio getPrevious() {
+        if (currentRemoved) {
+            return currentSlot < 0 ? null : audioAt(currentSlot);
+        }
+        int index = getCurrentIndex() - 1;
+        return index >= 0 ? get(index) : null;
+    }
+
+    private void init(int capacity) {
+        capacity = Math.max(MIN_CAPACITY, capacity);
+        file = null;
+        slots = new JcAudio[capacity];
+        tree = new int[capacity + 1];
+        slotsById = new JcLongIntMap(capacity);
+        slotCount = 0;
+        size = 0;
+        nextId = 0;
+        currentSlot = -1;
+        currentRemoved = false;
+    }
+
+    private int slotOf(Object object) {
+        if (!(object instanceof JcAudio)) {
+            return JcLongIntMap.MISSING;
+        }
+        if (file != null) {
+            int index = file.indexOfId(((JcAudio) object).getId());
+            return index < 0 ? JcLongIntMap.MISSING : index;
+        }
+        int slot = slotsById.get(((JcAudio) object).getId());
+        return slot != JcLongIntMap.MISSING && slots[slot] == object ? slot : JcLongIntMap.MISSING;
+    }
+
+    private void checkNotContained(JcAudio audio) {
+        if (audio == null) {
+            throw new NullPointerException("The playlist can't hold null audios");
+        }
+        if (contains(audio)) {
+            throw new IllegalArgumentException("The audio is already in the playlist");
+        }
+    }
+
+    private void checkIdAvailable(JcAudio audio) {
+        long id = audio.getId();
+        if (id >= 0 && (file != null ? file.indexOfId(id) >= 0 : slotsById.containsKey(id))) {
+            throw new IllegalArgumentException("Another audio of the playlist uses the id " + id);
+        }
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + bound);
+        }
+    }
+
+    /**
+     * Give the audio a new id if it has none or if another audio of the playlist uses it. New ids
+     * are never reused, an audio added after a removal or a clear doesn't get a removed id.
+     *
+     * @return the id of the audio.
+     */
+    private long assignId(JcAudio audio) {
+        long id = audio.getId();
+        if (id < 0 || slotsById.containsKey(id)) {
+            id = nextId;
+            audio.setId(id);
+        }
+        nextId = Math.max(nextId, id + 1);
+        return id;
+    }
+
+    /**
+     * Store the audio in the next free slot. The caller updates the tree.
+     */
+    private void appendSlot(JcAudio audio) {
+        if (audio == null) {
+            throw new NullPointerException("The playlist can't hold null audios");
+        }
+        if (slotOf(audio) != JcLongIntMap.MISSING) {
+            throw new IllegalArgumentException("The audio is already in the playlist");
+        }
+        if (slotCount == slots.length) {
+            // Tree nodes don't depend on the capacity, they stay valid.
+            slots = Arrays.copyOf(slots, slots.length * 2);
+            tree = Arrays.copyOf(tree, slots.length + 1);
+        }
+        slots[slotCount] = audio;
+        slotsById.put(assignId(audio), slotCount);
+        slotCount++;
+        size++;
+    }
+
+    private JcAudio audioAt(int slot) {
+        return file != null ? file.get(slot) : slots[slot];
+    }
+
+    /**
+     * Copy the audios of the playlist file into slots, before the first change.
+     */
+    private void copyFile() {
+        if (file == null) {
+            return;
+        }
+
+        JcMappedPlaylist audios = file;
+        int current = currentSlot;
+        boolean removed = currentRemoved;
+        init(audios.size());
+        for (int i = 0; i < audios.size(); i++) {
+            appendSlot(audios.get(i));
+        }
+        rebuildTree();
+        currentSlot = current;
+        currentRemoved = removed;
+    }
+
+    private boolean hasEmptySlots() {
+        return size != slotCount;
+    }
+
+    private int slotAt(int index) {
+        if (!hasEmptySlots()) {
+            return index;
+        }
+
+        // Find the smallest slot with (index + 1) audios up to it.
+        int remaining = index + 1;
+        int position = 0;
+        for (int step = Integer.highestOneBit(slotCount); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= slotCount && tree[next] < remaining) {
+                position = next;
+                remaining -= tree[next];
+            }
+        }
+        // The audio is at 1-based position + 1, which is the 0-based slot position.
+        return position;
+    }
+
+    private int indexOfSlot(int slot) {
+        if (!hasEmptySlots()) {
+            return slot;
+        }
+
+        int count = 0;
+        for (int position = slot + 1; position > 0; position -= position & -position) {
+            count += tree[position];
+        }
+        // An empty slot isn't counted, it maps to the index of the audio before it.
+        return count - 1;
+    }
+
+    private void addToTree(int position, int delta) {
+        for (; position <= slotCount; position += position & -position) {
+            tree[position] += delta;
+        }
+    }
+
+    /**
+     * Fill the tree node of a slot that was just appended, in O(log n).
+     */
+    private void appendToTree(int position) {
+        // The node covers slots (position - lowbit, position], all of them before this one are
+        // summed by the nodes under it.
+        int count = 1;
+        int lowest = position - (position & -position);
+        for (int child = position - 1; child > lowest; child -= child & -child) {
+            count += tree[child];
+        }
+        tree[position] = count;
+    }
+
+    private void rebuildTree() {
+        Arrays.fill(tree, 0);
+        for (int position = 1; position <= slotCount; position++) {
+            tree[position] += slots[position - 1] != null ? 1 : 0;
+            int parent = position + (position & -position);
+            if (parent <= slotCount) {
+                tree[parent] += tree[position];
+            }
+        }
+    }
+
+    /**
+     * Move the audios to the first slots, in order, and resize the slots.
+     */
+    private void compact(int capacity) {
+        capacity = Math.max(capacity, size);
+        JcAudio[] compacted = new JcAudio[Math.max(MIN_CAPACITY, capacity)];
+        int newCurrentSlot = -1;
+        int count = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slots[slot] == null) {
+                continue;
+            }
+            if (slot == currentSlot) {
+                newCurrentSlot = count;
+            }
+            if (hasEmptySlots()) {
+                slotsById.put(slots[slot].getId(), count);
+            }
+            compacted[count++] = slots[slot];
+        }
+
+        slots = compacted;
+        slotCount = count;
+        currentSlot = newCurrentSlot;
+        tree = new int[slots.length + 1];
+        rebuildTree();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (audioAt(slot) != null) {
+                out.writeObject(audioAt(slot));
+            }
+        }
+        out.writeInt(getCurrentIndex());
+        out.writeBoolean(currentRemoved);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int count = in.readInt();
+        init(count);
+        for (int i = 0; i < count; i++) {
+            appendSlot((JcAudio) in.readObject());
+        }
+        rebuildTree();
+        currentSlot = in.readInt();
+        currentRemoved = in.readBoolean();
+    }
+}
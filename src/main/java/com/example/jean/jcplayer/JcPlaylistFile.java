@@ -0,0 +1,188 @@
+package com.example.jean.jcplayer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only playlist file for very large libraries. {@link #open(File)} maps the file in memory
+ * and returns a list that creates the {@link JcAudio} objects when they are read, so opening a
+ * playlist takes the same time and heap whatever its size. Pass the list to
+ * {@link JcPlayerView#initPlaylist(List)}.
+ * <p>
+ * Layout, big endian:
+ * <pre>
+ * header         magic, version, audio count, string count, id table capacity, section offsets
+ * audios         fixed-size records: id, position, origin, title string, path string
+ * id table       open addressing table of (audio index + 1), 0 for an empty entry
+ * string offsets offset of each string in the pool, plus the end of the pool
+ * string pool    UTF-8 bytes of every distinct title and path, once each
+ * </pre>
+ */
+public final class JcPlaylistFile {
+    static final int MAGIC = 0x4A43504C; // "JCPL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 36;
+    static final int RECORD_SIZE = 24;
+    static final int NULL_STRING = -1;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private JcPlaylistFile() {
+    }
+
+    /**
+     * Write the audios to a playlist file. Audios without id, or with the id of an audio written
+     * before them, get a new one. Audios without position get their index.
+     */
+    public static void write(File file, List<JcAudio> audios) throws IOException {
+        int count = audios.size();
+        long[] ids = assignIds(audios);
+        int idTableCapacity = idTableCapacity(count);
+
+        Map<String, Integer> stringIndexes = new HashMap<>();
+        List<byte[]> strings = new ArrayList<>();
+        int[] titles = new int[count];
+        int[] paths = new int[count];
+        long poolSize = 0;
+        for (int i = 0; i < count; i++) {
+            JcAudio audio = audios.get(i);
+            titles[i] = intern(audio.getTitle(), stringIndexes, strings);
+            paths[i] = intern(audio.getPath(), stringIndexes, strings);
+        }
+        for (byte[] string : strings) {
+            poolSize += string.length;
+        }
+
+        long recordsOffset = HEADER_SIZE;
+        long idTableOffset = recordsOffset + (long) count * RECORD_SIZE;
+        long stringOffsetsOffset = idTableOffset + (long) idTableCapacity * 4;
+        long poolOffset = stringOffsetsOffset + (strings.size() + 1L) * 4;
+        if (poolOffset + poolSize > Integer.MAX_VALUE) {
+            throw new IOException("Playlist too large for one file: " + (poolOffset + poolSize) + " bytes");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeInt(strings.size());
+            out.writeInt(idTableCapacity);
+            out.writeInt((int) recordsOffset);
+            out.writeInt((int) idTableOffset);
+            out.writeInt((int) stringOffsetsOffset);
+            out.writeInt((int) poolOffset);
+
+            for (int i = 0; i < count; i++) {
+                JcAudio audio = audios.get(i);
+                out.writeLong(ids[i]);
+                out.writeInt(audio.getPosition() < 0 ? i : audio.getPosition());
+                out.writeByte(JcAudioCodec.originToByte(audio.getOrigin()));
+                out.write(new byte[3]);
+                out.writeInt(titles[i]);
+                out.writeInt(paths[i]);
+            }
+
+            for (int entry : buildIdTable(ids, idTableCapacity)) {
+                out.writeInt(entry);
+            }
+
+            int offset = 0;
+            for (byte[] string : strings) {
+                out.writeInt(offset);
+                offset += string.length;
+            }
+            out.writeInt(offset);
+
+            for (byte[] string : strings) {
+                out.write(string);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Map a playlist file written by {@link #write(File, List)}.
+     *
+     * @return a read-only list of the audios of the file.
+     */
+    public static List<JcAudio> open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new JcMappedPlaylist(buffer);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    static int idSlot(long id, int mask) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long[] assignIds(List<JcAudio> audios) {
+        long[] ids = new long[audios.size()];
+        JcLongIntMap used = new JcLongIntMap(audios.size());
+        long nextId = 0;
+        for (JcAudio audio : audios) {
+            nextId = Math.max(nextId, audio.getId() + 1);
+        }
+        for (int i = 0; i < ids.length; i++) {
+            long id = audios.get(i).getId();
+            if (id < 0 || used.containsKey(id)) {
+                id = nextId++;
+            }
+            used.put(id, i);
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    private static int idTableCapacity(int count) {
+        int capacity = 16;
+        while (capacity < count * 2L) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int[] buildIdTable(long[] ids, int capacity) {
+        int[] table = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < ids.length; i++) {
+            int slot = idSlot(ids[i], mask);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        return table;
+    }
+
+    private static int intern(String value, Map<String, Integer> indexes, List<byte[]> strings) {
+        if (value == null) {
+            return NULL_STRING;
+        }
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = strings.size();
+            indexes.put(value, index);
+            strings.add(value.getBytes(UTF_8));
+        }
+        return index;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.jean.jcplayer;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.io.IOException;
+
+/**
+ * Carries a playlist to a {@link JcPlayerService} running in another process, where
+ * {@link JcPlaylistStore} handles don't resolve.
+ * <p>
+ * Audios are written with {@link JcAudioCodec} instead of being Java-serialized, which keeps
+ * the parcel small and fast to read. It still goes through Binder, so very large playlists
+ * should stay in the process of the service.
+ */
+class JcPlaylistParcel implements Parcelable {
+    private final JcPlaylist playlist;
+
+    JcPlaylistParcel(JcPlaylist playlist) {
+        this.playlist = playlist;
+    }
+
+    JcPlaylist getPlaylist() {
+        return playlist;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel parcel, int flags) {
+        parcel.writeByteArray(JcAudioCodec.encode(playlist));
+    }
+
+    public static final Creator<JcPlaylistParcel> CREATOR = new Creator<JcPlaylistParcel>() {
+        @Override
+        public JcPlaylistParcel createFromParcel(Parcel parcel) {
+            try {
+                return new JcPlaylistParcel(new JcPlaylist(JcAudioCodec.decode(parcel.createByteArray())));
+            } catch (IOException e) {
+                // Written by writeToParcel of the same library version.
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public JcPlaylistParcel[] newArray(int size) {
+            return new JcPlaylistParcel[size];
+        }
+    };
+}
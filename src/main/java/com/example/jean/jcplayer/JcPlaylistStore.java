@@ -0,0 +1,42 @@
+package com.example.jean.jcplayer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands playlists from {@link JcAudioPlayer} to {@link JcPlayerService} inside the process.
+ * <p>
+ * The bind Intent only carries the handle returned by {@link #register(JcPlaylist)} and the
+ * playlist version, so binding costs the same whatever the playlist size and never hits the
+ * Binder transaction limit. When the service runs in another process the handle is unknown
+ * there, {@link JcPlaylistParcel} carries the audios instead.
+ */
+final class JcPlaylistStore {
+    static final int NO_HANDLE = 0;
+
+    private static final Map<Integer, JcPlaylist> playlists = new HashMap<>();
+    private static int lastHandle = NO_HANDLE;
+
+    private JcPlaylistStore() {
+    }
+
+    /**
+     * @return the handle of the playlist, to pass in the bind Intent.
+     */
+    static synchronized int register(JcPlaylist playlist) {
+        int handle = ++lastHandle;
+        playlists.put(handle, playlist);
+        return handle;
+    }
+
+    /**
+     * @return the playlist of this handle, or null if it isn't registered in this process.
+     */
+    static synchronized JcPlaylist get(int handle) {
+        return playlists.get(handle);
+    }
+
+    static synchronized void unregister(int handle) {
+        playlists.remove(handle);
+    }
+}
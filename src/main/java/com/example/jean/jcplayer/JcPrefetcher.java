@@ -0,0 +1,162 @@
+package com.example.jean.jcplayer;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Downloads the beginning of the next url audios of the playlist into the {@link JcCacheProxy}
+ * cache while the current audio plays, so skipping to them starts from the disk.
+ * <p>
+ * Downloads stay within a byte budget per playlist position, pause while the current audio is
+ * starting or rebuffering and are cancelled when a new list of upcoming audios is given.
+ */
+class JcPrefetcher {
+    static final int DEFAULT_AUDIOS_AHEAD = 2;
+    static final long DEFAULT_BYTE_BUDGET = 1024 * 1024;
+
+    private final JcCacheProxy proxy;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "JcPrefetcher");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    private final Object lock = new Object();
+    private int generation; // Incremented to cancel the running prefetch.
+    private boolean paused;
+    private int audiosAhead = DEFAULT_AUDIOS_AHEAD;
+    private long byteBudget = DEFAULT_BYTE_BUDGET;
+
+    JcPrefetcher(JcCacheProxy proxy) {
+        this.proxy = proxy;
+    }
+
+    /**
+     * @param audiosAhead how many upcoming audios to prefetch.
+     * @param byteBudget  bytes downloaded at most for all of them, split evenly.
+     */
+    void setBudget(int audiosAhead, long byteBudget) {
+        synchronized (lock) {
+            this.audiosAhead = audiosAhead;
+            this.byteBudget = byteBudget;
+        }
+    }
+
+    /**
+     * Cancel the running prefetch and start prefetching these urls, in order.
+     *
+     * @param upcomingUrls urls of the audios that come after the current one.
+     */
+    void prefetch(List<String> upcomingUrls) {
+        final int prefetchGeneration;
+        final List<String> urls;
+        final long bytesPerAudio;
+        synchronized (lock) {
+            prefetchGeneration = ++generation;
+            lock.notifyAll();
+
+            if (audiosAhead <= 0 || byteBudget <= 0 || upcomingUrls.isEmpty()) {
+                return;
+            }
+            urls = new ArrayList<>(upcomingUrls.subList(0, Math.min(audiosAhead, upcomingUrls.size())));
+            bytesPerAudio = byteBudget / urls.size();
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                OutputStream sink = new PrefetchSink(prefetchGeneration);
+                for (String url : urls) {
+                    if (isCancelled(prefetchGeneration)) {
+                        return;
+                    }
+
+                    try {
+                        proxy.prefetch(url, bytesPerAudio, sink);
+                    } catch (InterruptedIOException e) {
+                        return; // Cancelled.
+                    } catch (IOException e) {
+                        // Try the next one, the player will report the error if this one is played.
+                        e.printStackTrace();
+                    }
+                }
+            }
+        });
+    }
+
+    void cancel() {
+        synchronized (lock) {
+            generation++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Pause downloads, for example while the current audio is rebuffering and needs all the
+     * bandwidth. The running download waits until it is resumed or cancelled.
+     */
+    void setPaused(boolean paused) {
+        synchronized (lock) {
+            this.paused = paused;
+            lock.notifyAll();
+        }
+    }
+
+    void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private boolean isCancelled(int prefetchGeneration) {
+        synchronized (lock) {
+            return prefetchGeneration != generation;
+        }
+    }
+
+    /**
+     * Receives the prefetched bytes. It only checks for pause and cancellation between chunks,
+     * the data itself is already in the cache.
+     */
+    private class PrefetchSink extends OutputStream {
+        private final int prefetchGeneration;
+
+        PrefetchSink(int prefetchGeneration) {
+            this.prefetchGeneration = prefetchGeneration;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            awaitTurn();
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            awaitTurn();
+        }
+
+        private void awaitTurn() throws InterruptedIOException {
+            synchronized (lock) {
+                while (paused && prefetchGeneration == generation) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (prefetchGeneration != generation) {
+                    throw new InterruptedIOException("Prefetch cancelled");
+                }
+            }
+        }
+    }
+}
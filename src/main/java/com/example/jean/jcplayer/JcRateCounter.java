@@ -0,0 +1,48 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Counts events over the last minute, in one-second buckets, so that recording an event
+ * neither allocates nor keeps their times.
+ */
+class JcRateCounter {
+    private static final int BUCKETS = 60; // One per second.
+
+    private final long[] bucketSeconds = new long[BUCKETS];
+    private final int[] bucketCounts = new int[BUCKETS];
+    private long count;
+
+    /**
+     * @param now in milliseconds.
+     */
+    synchronized void record(long now) {
+        long second = now / 1000;
+        int bucket = (int) (second % BUCKETS);
+        if (bucketSeconds[bucket] != second) {
+            bucketSeconds[bucket] = second;
+            bucketCounts[bucket] = 0;
+        }
+        bucketCounts[bucket]++;
+        count++;
+    }
+
+    /**
+     * @return events recorded during the last 60 seconds, the current one included.
+     */
+    synchronized int getCountPerMinute(long now) {
+        long second = now / 1000;
+        int total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketCounts[i] > 0 && second - bucketSeconds[i] < BUCKETS && bucketSeconds[i] <= second) {
+                total += bucketCounts[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return events recorded since the counter was created.
+     */
+    synchronized long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.jean.jcplayer;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the current audio and position, so playback can resume where it
+ * stopped after the process died.
+ * <p>
+ * {@link #checkpoint(long, int, boolean)} only keeps the latest values in memory. A single
+ * journal thread appends them as one fixed-size record and syncs the file at most once per
+ * flush delay, so the playback and UI threads never wait for the disk. Each record carries a
+ * checksum: on startup the journal reads its last records only and skips a torn one. Once it
+ * holds enough records, the file is rewritten with the latest one. If that fails, the journal
+ * keeps growing and the next try waits for as many records again.
+ * <pre>
+ * record  magic int, audio id long, position int, playing byte, 3 bytes padding,
+ *         saved at long, CRC32 of the previous 28 bytes int
+ * </pre>
+ */
+class JcResumeJournal {
+    private static final String TAG = JcResumeJournal.class.getSimpleName();
+
+    static final int RECORD_SIZE = 32;
+    static final int RECORD_MAGIC = 0x4A435250; // "JCRP"
+    static final long DEFAULT_FLUSH_DELAY = 3000; // milliseconds
+    static final int DEFAULT_COMPACT_THRESHOLD = 1024; // records
+
+    // A crash can only tear the record being appended, older ones were synced before it.
+    private static final int MAX_TAIL_RECORDS = 4;
+
+    private final File file;
+    private final long flushDelay;
+    private final int compactThreshold;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Future<JcResumePoint> restored;
+
+    // Latest checkpoint not written yet. Guarded by this.
+    private boolean hasPending;
+    private long pendingAudioId;
+    private int pendingPosition;
+    private boolean pendingPlaying;
+    private boolean isFlushScheduled;
+    private boolean isClosed;
+
+    // Journal thread only.
+    private RandomAccessFile journal;
+    private long recordCount;
+    private long nextCompactionAt;
+    private long writtenAudioId = -1;
+    private int writtenPosition = -1;
+    private boolean writtenPlaying;
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+    private final CRC32 crc = new CRC32();
+
+    private volatile int flushCount;
+    private volatile int compactionCount;
+    private volatile int failedCompactionCount;
+
+    JcResumeJournal(File file) {
+        this(file, DEFAULT_FLUSH_DELAY, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    JcResumeJournal(File file, long flushDelay, int compactThreshold) {
+        this.file = file;
+        this.flushDelay = flushDelay;
+        this.compactThreshold = compactThreshold;
+        this.nextCompactionAt = compactThreshold;
+        this.executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        // close() writes the pending checkpoint itself, the scheduled flush is not needed anymore.
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.restored = executor.submit(new Callable<JcResumePoint>() {
+            @Override
+            public JcResumePoint call() {
+                return open();
+            }
+        });
+    }
+
+    /**
+     * Remember the current state. Cheap enough to call on every progress tick: it is written
+     * with the next flush, and only the latest state is.
+     */
+    void checkpoint(long audioId, int position, boolean playing) {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+
+            hasPending = true;
+            pendingAudioId = audioId;
+            pendingPosition = position;
+            pendingPlaying = playing;
+            if (!isFlushScheduled) {
+                isFlushScheduled = true;
+                executor.schedule(flushTask, flushDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * Write the latest checkpoint now instead of after the flush delay.
+     */
+    synchronized Future<?> flush() {
+        if (isClosed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        return executor.submit(flushTask);
+    }
+
+    /**
+     * Write the latest checkpoint and close the file. Doesn't wait for either.
+     */
+    void close() {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                flushTask.run();
+                closeJournal();
+            }
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * @return the state saved by the previous run, or null if there is none. Waits until the
+     * journal thread has read the end of the file, which happens first thing after creation.
+     */
+    JcResumePoint getResumePoint() {
+        try {
+            return restored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Can't read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return true once the state saved by the previous run was read, {@link #getResumePoint()}
+     * doesn't wait anymore then.
+     */
+    boolean isRestored() {
+        return restored.isDone();
+    }
+
+    /**
+     * Run the callback on the journal thread once the saved state was read. Dropped if the
+     * journal is closed.
+     */
+    void whenRestored(Runnable callback) {
+        try {
+            executor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            // Closed, nobody is going to resume anymore.
+        }
+    }
+
+    /**
+     * Wait until {@link #close()} has written the last checkpoint and closed the file.
+     */
+    boolean awaitClosed(long timeout) throws InterruptedException {
+        return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    int getFlushCount() {
+        return flushCount;
+    }
+
+    int getCompactionCount() {
+        return compactionCount;
+    }
+
+    int getFailedCompactionCount() {
+        return failedCompactionCount;
+    }
+
+    private JcResumePoint open() {
+        try {
+            journal = new RandomAccessFile(file, "rw");
+            long length = journal.length();
+            long end = length - length % RECORD_SIZE;
+
+            JcResumePoint resumePoint = null;
+            for (int i = 0; i < MAX_TAIL_RECORDS && resumePoint == null && end >= RECORD_SIZE; i++) {
+                journal.seek(end - RECORD_SIZE);
+                journal.readFully(record.array());
+                resumePoint = readRecord();
+                if (resumePoint == null) {
+                    end -= RECORD_SIZE;
+                }
+            }
+            if (resumePoint == null) {
+                end = 0;
+            }
+
+            // Drop the torn records, so the next ones are appended on a record boundary.
+            if (end != length) {
+                journal.setLength(end);
+            }
+            recordCount = end / RECORD_SIZE;
+            return resumePoint;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't open " + file, e);
+            closeJournal();
+            return null;
+        }
+    }
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            long audioId;
+            int position;
+            boolean playing;
+            synchronized (JcResumeJournal.this) {
+                isFlushScheduled = false;
+                if (!hasPending) {
+                    return;
+                }
+                hasPending = false;
+                audioId = pendingAudioId;
+                position = pendingPosition;
+                playing = pendingPlaying;
+            }
+
+            if (journal == null
+                    || (audioId == writtenAudioId && position == writtenPosition && playing == writtenPlaying)) {
+                return;
+            }
+
+            try {
+                append(audioId, position, playing);
+            } catch (IOException e) {
+                Log.e(TAG, "Can't write to " + file, e);
+                return;
+            }
+
+            if (recordCount >= nextCompactionAt) {
+                try {
+                    compact();
+                    nextCompactionAt = compactThreshold;
+                } catch (IOException e) {
+                    // Don't retry on every flush, the journal stays readable while it grows.
+                    Log.w(TAG, "Can't compact " + file, e);
+                    failedCompactionCount++;
+                    nextCompactionAt = recordCount + compactThreshold;
+                }
+            }
+        }
+    };
+
+    private void append(long audioId, int position, boolean playing) throws IOException {
+        record.clear();
+        record.putInt(RECORD_MAGIC);
+        record.putLong(audioId);
+        record.putInt(position);
+        record.put((byte) (playing ? 1 : 0));
+        record.put(new byte[3]);
+        record.putLong(System.currentTimeMillis());
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.putInt((int) crc.getValue());
+
+        journal.seek(recordCount * RECORD_SIZE);
+        journal.write(record.array());
+        journal.getFD().sync();
+        recordCount++;
+        flushCount++;
+
+        writtenAudioId = audioId;
+        writtenPosition = position;
+        writtenPlaying = playing;
+    }
+
+    /**
+     * Replace the journal with a file holding only the last record. The new file is synced
+     * before it replaces the old one, so a crash leaves one of them complete.
+     */
+    private void compact() throws IOException {
+        File compacted = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(compacted, "rw");
+        try {
+            out.setLength(0);
+            out.write(record.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        closeJournal();
+        boolean renamed = compacted.renameTo(file);
+        journal = new RandomAccessFile(file, "rw");
+        recordCount = journal.length() / RECORD_SIZE;
+        if (!renamed) {
+            compacted.delete();
+            throw new IOException("Can't replace " + file);
+        }
+        compactionCount++;
+    }
+
+    private JcResumePoint readRecord() {
+        crc.reset();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        record.clear();
+        if (record.getInt(0) != RECORD_MAGIC || record.getInt(RECORD_SIZE - 4) != (int) crc.getValue()) {
+            return null;
+        }
+        return new JcResumePoint(record.getLong(4), record.getInt(12), record.get(16) != 0, record.getLong(20));
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Can't close " + file, e);
+            }
+            journal = null;
+        }
+    }
+
+    private static final ThreadFactory threadFactory = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "JcResumeJournal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+}
@@ -0,0 +1,47 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Audio and position saved by {@link JcPlayerService} before the process died, read back
+ * with {@link JcPlayerService#getResumePoint()}.
+ */
+public final class JcResumePoint {
+    private final long audioId;
+    private final int position;
+    private final boolean playing;
+    private final long savedAt;
+
+    JcResumePoint(long audioId, int position, boolean playing, long savedAt) {
+        this.audioId = audioId;
+        this.position = position;
+        this.playing = playing;
+        this.savedAt = savedAt;
+    }
+
+    /**
+     * @return id of the audio in the playlist.
+     */
+    public long getAudioId() {
+        return audioId;
+    }
+
+    /**
+     * @return position in the audio, in milliseconds.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return true if the audio was playing, false if it was paused.
+     */
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * @return when the position was saved, in {@link System#currentTimeMillis()} time.
+     */
+    public long getSavedAt() {
+        return savedAt;
+    }
+}
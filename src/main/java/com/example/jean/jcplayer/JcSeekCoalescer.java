@@ -0,0 +1,103 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Keeps at most one seek in flight. While the player is seeking, new targets replace each other
+ * and only the latest one is sent once the current seek completes. Used for SeekBar drags, where
+ * every progress event would otherwise start its own buffering seek.
+ */
+class JcSeekCoalescer {
+
+    interface Seeker {
+        /**
+         * Start a seek.
+         *
+         * @param position target in milliseconds.
+         * @param precise  false for a cheap seek to a nearby sync frame, true for an exact seek.
+         * @return false if the player can't seek right now.
+         */
+        boolean seek(int position, boolean precise);
+    }
+
+    private final Seeker seeker;
+    private final JcLatencyHistogram latencyHistogram;
+    private final JcClock clock;
+
+    private boolean isSeeking;
+    private boolean hasPendingSeek;
+    private int pendingPosition;
+    private boolean pendingPrecise;
+    private long requestedAt; // nanoTime of the first request not yet completed.
+    private int requestCount;
+    private int issuedCount;
+
+    JcSeekCoalescer(Seeker seeker, JcLatencyHistogram latencyHistogram) {
+        this(seeker, latencyHistogram, JcClock.SYSTEM);
+    }
+
+    JcSeekCoalescer(Seeker seeker, JcLatencyHistogram latencyHistogram, JcClock clock) {
+        this.seeker = seeker;
+        this.latencyHistogram = latencyHistogram;
+        this.clock = clock;
+    }
+
+    void seekTo(int position, boolean precise) {
+        requestCount++;
+        if (!isSeeking && !hasPendingSeek) {
+            requestedAt = clock.nanoTime();
+        }
+
+        if (isSeeking) {
+            // Keep only the latest target.
+            hasPendingSeek = true;
+            pendingPosition = position;
+            pendingPrecise = precise;
+            return;
+        }
+
+        issue(position, precise);
+    }
+
+    /**
+     * Call when the player reports that the current seek completed.
+     */
+    void onSeekComplete() {
+        if (!isSeeking) {
+            return;
+        }
+
+        isSeeking = false;
+        if (hasPendingSeek) {
+            hasPendingSeek = false;
+            issue(pendingPosition, pendingPrecise);
+        } else {
+            latencyHistogram.record((clock.nanoTime() - requestedAt) / 1000000);
+        }
+    }
+
+    /**
+     * Forget the seek in flight, for example when the player is reset for another audio.
+     */
+    void reset() {
+        isSeeking = false;
+        hasPendingSeek = false;
+    }
+
+    boolean isSeeking() {
+        return isSeeking;
+    }
+
+    int getRequestCount() {
+        return requestCount;
+    }
+
+    int getIssuedCount() {
+        return issuedCount;
+    }
+
+    private void issue(int position, boolean precise) {
+        if (seeker.seek(position, precise)) {
+            issuedCount++;
+            isSeeking = true;
+        }
+    }
+}
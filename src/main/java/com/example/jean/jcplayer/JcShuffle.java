@@ -0,0 +1,144 @@
+package com.example.jean.jcplayer;
+
+import java.util.Random;
+
+/**
+ * Random permutation of the playlist indexes, drawn one index at a time with Fisher-Yates.
+ * <p>
+ * The index array of Fisher-Yates is virtual: a position holds its own index until a swap
+ * touches it, and only swapped positions are stored, in two sparse maps. Shuffling a playlist
+ * costs nothing up front, memory grows with the number of audios drawn.
+ * <p>
+ * Positions before {@code drawn} are the shuffled order played so far, the cursor moves among
+ * them for previous and next, and new indexes are drawn when it moves past the last one.
+ */
+class JcShuffle {
+    private final Random random;
+    private final JcLongIntMap indexAt = new JcLongIntMap();
+    private final JcLongIntMap positionOf = new JcLongIntMap();
+    private int size;
+    private int drawn;
+    private int cursor = -1;
+
+    JcShuffle(int size, Random random) {
+        this.size = size;
+        this.random = random;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Audios were appended to the playlist. They join the indexes not drawn yet.
+     */
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Forget the order and start a new one over this many indexes.
+     */
+    void restart(int size) {
+        indexAt.clear();
+        positionOf.clear();
+        this.size = size;
+        drawn = 0;
+        cursor = -1;
+    }
+
+    /**
+     * @return index at the cursor, or -1 before the first one.
+     */
+    int current() {
+        return cursor < 0 ? -1 : indexAt(cursor);
+    }
+
+    /**
+     * Move the cursor forward.
+     *
+     * @return the next index, or -1 when every index was played in this order.
+     */
+    int next() {
+        if (!ensureDrawn(cursor + 1)) {
+            return -1;
+        }
+        return indexAt(++cursor);
+    }
+
+    /**
+     * Move the cursor back.
+     *
+     * @return the previous index, or -1 at the start of the order.
+     */
+    int previous() {
+        if (cursor <= 0) {
+            return -1;
+        }
+        return indexAt(--cursor);
+    }
+
+    /**
+     * @return the index that {@link #next()} would return after offset - 1 calls, or -1 past
+     * the end of the order. The cursor doesn't move.
+     */
+    int peek(int offset) {
+        int position = cursor + offset;
+        return position >= 0 && ensureDrawn(position) ? indexAt(position) : -1;
+    }
+
+    /**
+     * Move the cursor to an index picked by the user. An index that wasn't played yet is
+     * drawn now, one that was is found in the history.
+     */
+    void select(int index) {
+        if (index < 0 || index >= size) {
+            return;
+        }
+
+        int position = positionOf(index);
+        if (position >= drawn) {
+            swap(drawn, position);
+            position = drawn++;
+        }
+        cursor = position;
+    }
+
+    /**
+     * Draw random indexes until this position holds one.
+     *
+     * @return false if the position is past the end of the order.
+     */
+    private boolean ensureDrawn(int position) {
+        if (position >= size) {
+            return false;
+        }
+        while (drawn <= position) {
+            swap(drawn, drawn + random.nextInt(size - drawn));
+            drawn++;
+        }
+        return true;
+    }
+
+    private int indexAt(int position) {
+        int index = indexAt.get(position);
+        return index == JcLongIntMap.MISSING ? position : index;
+    }
+
+    private int positionOf(int index) {
+        int position = positionOf.get(index);
+        return position == JcLongIntMap.MISSING ? index : position;
+    }
+
+    private void swap(int first, int second) {
+        if (first == second) {
+            return;
+        }
+        int firstIndex = indexAt(first);
+        int secondIndex = indexAt(second);
+        indexAt.put(first, secondIndex);
+        indexAt.put(second, firstIndex);
+        positionOf.put(secondIndex, first);
+        positionOf.put(firstIndex, second);
+    }
+}
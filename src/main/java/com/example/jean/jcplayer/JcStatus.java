@@ -13,6 +13,10 @@ public class JcStatus {
   private long duration;
   private long currentPosition;
   private PlayState playState;
+  private long bufferedPosition;
+  private double throughput = -1;
+  private boolean stalled;
+  private int stallCount;
 
   public JcStatus() {
     this(null, 0, 0, PlayState.UNINTIALIZED);
@@ -25,6 +29,18 @@ public class JcStatus {
     this.playState = playState;
   }
 
+  /**
+   * Copy of the status, for listeners called later on another thread while the player keeps
+   * updating its own.
+   */
+  public JcStatus(JcStatus status) {
+    this(status.jcAudio, status.duration, status.currentPosition, status.playState);
+    this.bufferedPosition = status.bufferedPosition;
+    this.throughput = status.throughput;
+    this.stalled = status.stalled;
+    this.stallCount = status.stallCount;
+  }
+
   public JcAudio getJcAudio() {
     return jcAudio;
   }
@@ -56,4 +72,49 @@ public class JcStatus {
   public void setPlayState(PlayState playState) {
     this.playState = playState;
   }
+
+  /**
+   * @return how far the audio is downloaded, in milliseconds. The whole audio for local files.
+   */
+  public long getBufferedPosition() {
+    return bufferedPosition;
+  }
+
+  public void setBufferedPosition(long bufferedPosition) {
+    this.bufferedPosition = bufferedPosition;
+  }
+
+  /**
+   * @return estimated download speed, in milliseconds of audio per millisecond, or -1 if
+   * unknown. Below 1 the audio downloads slower than it plays.
+   */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  public void setThroughput(double throughput) {
+    this.throughput = throughput;
+  }
+
+  /**
+   * @return true if playback is waiting for data.
+   */
+  public boolean isStalled() {
+    return stalled;
+  }
+
+  public void setStalled(boolean stalled) {
+    this.stalled = stalled;
+  }
+
+  /**
+   * @return how many times the current audio stalled.
+   */
+  public int getStallCount() {
+    return stallCount;
+  }
+
+  public void setStallCount(int stallCount) {
+    this.stallCount = stallCount;
+  }
 }
@@ -0,0 +1,264 @@
+package com.example.jean.jcplayer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A status listener called on its own executor, created by
+ * {@link JcPlayerService#subscribe(JcPlayerView.JcPlayerViewStatusListener, int, long, Executor)}.
+ * The player never waits for the listener: events go to a mailbox, drained on the executor one
+ * at a time and in order, so a slow listener only delays itself.
+ * <p>
+ * Time updates are progress: when the mailbox already holds {@link #getMailboxCapacity()} of
+ * them, the oldest one is dropped. State changes and stalls are never dropped.
+ */
+public class JcSubscription {
+    /** Prepared, playing, paused, continued and completed audios. */
+    public static final int EVENT_STATE = 1;
+    /** Time updates, at most one per minimum interval. */
+    public static final int EVENT_TIME = 1 << 1;
+    /** Stalls, for a {@link JcPlayerView.JcPlayerViewBufferingStatusListener}. */
+    public static final int EVENT_BUFFERING = 1 << 2;
+    public static final int EVENT_ALL = EVENT_STATE | EVENT_TIME | EVENT_BUFFERING;
+
+    public static final int DEFAULT_MAILBOX_CAPACITY = 4;
+
+    // Listener methods, see deliver.
+    static final int PREPARED = 0;
+    static final int PLAYING = 1;
+    static final int CONTINUE = 2;
+    static final int PAUSED = 3;
+    static final int COMPLETED = 4;
+    static final int TIME_CHANGED = 5;
+    static final int STALLED = 6;
+    static final int STALL_ENDED = 7;
+
+    private static final class Event {
+        final int method;
+        final JcStatus status;
+        final long publishedAt; // nanoTime
+
+        Event(int method, JcStatus status, long publishedAt) {
+            this.method = method;
+            this.status = status;
+            this.publishedAt = publishedAt;
+        }
+    }
+
+    private final JcPlayerView.JcPlayerViewStatusListener listener;
+    private final int eventTypes;
+    private final long minTimeInterval;
+    private final Executor executor;
+    private final int mailboxCapacity;
+    private final JcClock clock;
+
+    // Guarded by mailbox.
+    private final ArrayDeque<Event> mailbox = new ArrayDeque<>();
+    private int timeEventCount;
+    private boolean isDraining;
+    private int maxMailboxSize;
+    private long droppedCount;
+    private long deliveredCount;
+
+    private long lastTimeEventAt = -1; // elapsedRealtime, only written by the ticker.
+    private volatile boolean isCancelled;
+    private final JcLatencyHistogram lag = new JcLatencyHistogram();
+
+    JcSubscription(JcPlayerView.JcPlayerViewStatusListener listener, int eventTypes, long minTimeInterval,
+                   Executor executor, int mailboxCapacity, JcClock clock) {
+        if (mailboxCapacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + mailboxCapacity);
+        }
+        this.listener = listener;
+        this.eventTypes = eventTypes;
+        this.minTimeInterval = minTimeInterval;
+        this.executor = executor;
+        this.mailboxCapacity = mailboxCapacity;
+        this.clock = clock;
+    }
+
+    /**
+     * Stop calling the listener. Events still in the mailbox are dropped.
+     */
+    public void cancel() {
+        isCancelled = true;
+        synchronized (mailbox) {
+            mailbox.clear();
+            timeEventCount = 0;
+        }
+    }
+
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
+    public int getMailboxCapacity() {
+        return mailboxCapacity;
+    }
+
+    /**
+     * @return time between an event and the call of the listener, in milliseconds.
+     */
+    public JcLatencyHistogram getLag() {
+        return lag;
+    }
+
+    /**
+     * @return how many time updates were dropped because the listener was too slow.
+     */
+    public long getDroppedCount() {
+        synchronized (mailbox) {
+            return droppedCount;
+        }
+    }
+
+    public long getDeliveredCount() {
+        synchronized (mailbox) {
+            return deliveredCount;
+        }
+    }
+
+    /**
+     * @return how many events wait for the listener.
+     */
+    public int getMailboxSize() {
+        synchronized (mailbox) {
+            return mailbox.size();
+        }
+    }
+
+    public int getMaxMailboxSize() {
+        synchronized (mailbox) {
+            return maxMailboxSize;
+        }
+    }
+
+    /**
+     * @param method one of the listener method constants.
+     * @param status copied, the player keeps updating its own.
+     * @param now    elapsedRealtime, for the minimum time interval.
+     */
+    void publish(int method, JcStatus status, long now) {
+        if (isCancelled || (eventTypes & typeOf(method)) == 0) {
+            return;
+        }
+        if (method == STALLED || method == STALL_ENDED) {
+            if (!(listener instanceof JcPlayerView.JcPlayerViewBufferingStatusListener)) {
+                return;
+            }
+        } else if (method == TIME_CHANGED) {
+            if (lastTimeEventAt >= 0 && now - lastTimeEventAt < minTimeInterval) {
+                return;
+            }
+            lastTimeEventAt = now;
+        }
+
+        Event event = new Event(method, new JcStatus(status), clock.nanoTime());
+        synchronized (mailbox) {
+            if (method == TIME_CHANGED) {
+                if (timeEventCount == mailboxCapacity) {
+                    dropOldestTimeEvent();
+                }
+                timeEventCount++;
+            }
+            mailbox.add(event);
+            maxMailboxSize = Math.max(maxMailboxSize, mailbox.size());
+            if (isDraining) {
+                return; // The running drain takes it.
+            }
+            isDraining = true;
+        }
+
+        try {
+            executor.execute(drain);
+        } catch (RejectedExecutionException e) {
+            e.printStackTrace();
+            synchronized (mailbox) {
+                isDraining = false; // Retried on the next event.
+            }
+        }
+    }
+
+    private void dropOldestTimeEvent() {
+        Iterator<Event> iterator = mailbox.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().method == TIME_CHANGED) {
+                iterator.remove();
+                timeEventCount--;
+                droppedCount++;
+                return;
+            }
+        }
+    }
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                Event event;
+                synchronized (mailbox) {
+                    event = mailbox.poll();
+                    if (event == null || isCancelled) {
+                        isDraining = false;
+                        return;
+                    }
+                    if (event.method == TIME_CHANGED) {
+                        timeEventCount--;
+                    }
+                    deliveredCount++;
+                }
+
+                lag.record((clock.nanoTime() - event.publishedAt) / 1000000);
+                try {
+                    deliver(event);
+                } catch (RuntimeException e) {
+                    // Keep draining, the next events are still wanted.
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+
+    private void deliver(Event event) {
+        switch (event.method) {
+            case PREPARED:
+                listener.onPreparedAudioStatus(event.status);
+                break;
+            case PLAYING:
+                listener.onPlayingStatus(event.status);
+                break;
+            case CONTINUE:
+                listener.onContinueAudioStatus(event.status);
+                break;
+            case PAUSED:
+                listener.onPausedStatus(event.status);
+                break;
+            case COMPLETED:
+                listener.onCompletedAudioStatus(event.status);
+                break;
+            case TIME_CHANGED:
+                listener.onTimeChangedStatus(event.status);
+                break;
+            case STALLED:
+                ((JcPlayerView.JcPlayerViewBufferingStatusListener) listener).onStalledStatus(event.status);
+                break;
+            case STALL_ENDED:
+                ((JcPlayerView.JcPlayerViewBufferingStatusListener) listener).onStallEndedStatus(event.status);
+                break;
+        }
+    }
+
+    private static int typeOf(int method) {
+        switch (method) {
+            case TIME_CHANGED:
+                return EVENT_TIME;
+            case STALLED:
+            case STALL_ENDED:
+                return EVENT_BUFFERING;
+            default:
+                return EVENT_STATE;
+        }
+    }
+}
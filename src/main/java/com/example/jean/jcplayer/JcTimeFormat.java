@@ -0,0 +1,47 @@
+package com.example.jean.jcplayer;
+
+/**
+ * Formats playback positions for {@link JcPlayerView}.
+ */
+final class JcTimeFormat {
+    /** Longest formatted position: every digit of a long of minutes, ':' and the seconds. */
+    static final int MAX_LENGTH = 22;
+
+    private JcTimeFormat() {
+    }
+
+    /**
+     * @param position in milliseconds.
+     * @return the position as minutes and seconds, like 03:07.
+     */
+    static String format(long position) {
+        char[] buffer = new char[MAX_LENGTH];
+        return new String(buffer, 0, format(position, buffer));
+    }
+
+    /**
+     * Same as {@link #format(long)}, written into a buffer that the caller reuses, so that
+     * formatting allocates nothing.
+     *
+     * @param buffer at least {@link #MAX_LENGTH} chars.
+     * @return how many chars were written from the start of the buffer.
+     */
+    static int format(long position, char[] buffer) {
+        long totalSeconds = Math.max(0, position) / 1000;
+        long minutes = totalSeconds / 60;
+        int seconds = (int) (totalSeconds % 60);
+
+        int minuteDigits = 2;
+        for (long rest = minutes / 100; rest > 0; rest /= 10) {
+            minuteDigits++;
+        }
+        for (int i = minuteDigits - 1; i >= 0; i--) {
+            buffer[i] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        }
+        buffer[minuteDigits] = ':';
+        buffer[minuteDigits + 1] = (char) ('0' + seconds / 10);
+        buffer[minuteDigits + 2] = (char) ('0' + seconds % 10);
+        return minuteDigits + 3;
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.jean.jcplayer;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records what the player does and when: commands, data sources, prepares, ticks and listener
+ * calls. Events go to a fixed-size ring buffer, so only the latest ones are kept, and are
+ * mirrored into {@link Trace} sections for systrace. {@link #writeChromeTrace(Writer)} exports
+ * the buffer in the Chrome trace format, which chrome://tracing and Perfetto open.
+ * <p>
+ * Disabled by default. Recording an event takes no lock and allocates nothing: writers claim a
+ * slot with an atomic counter and publish it with a sequence number, and the export skips the
+ * slots being overwritten.
+ */
+public final class JcTrace {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final char BEGIN = 'B';
+    private static final char END = 'E';
+    private static final char INSTANT = 'i';
+    private static final char ASYNC_BEGIN = 'b';
+    private static final char ASYNC_END = 'e';
+
+    private static volatile boolean enabled;
+    private static volatile Buffer buffer = new Buffer(DEFAULT_CAPACITY);
+
+    private static final class Buffer {
+        final int mask;
+        final AtomicLong nextSequence = new AtomicLong();
+        final AtomicLongArray sequences; // Sequence + 1 of the event in each slot, 0 while it is written.
+        final String[] names;
+        final char[] phases;
+        final long[] timestamps;
+        final long[] threadIds;
+        final int[] cookies;
+
+        Buffer(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            mask = size - 1;
+            sequences = new AtomicLongArray(size);
+            names = new String[size];
+            phases = new char[size];
+            timestamps = new long[size];
+            threadIds = new long[size];
+            cookies = new int[size];
+        }
+    }
+
+    private JcTrace() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        JcTrace.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replace the buffer, dropping the recorded events.
+     *
+     * @param capacity how many events are kept, rounded up to a power of two.
+     */
+    public static void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        buffer = new Buffer(capacity);
+    }
+
+    public static void clear() {
+        buffer = new Buffer(buffer.mask + 1);
+    }
+
+    /**
+     * Start a section on the current thread. Must be closed by {@link #end(String)} on the same
+     * thread.
+     *
+     * @param name a constant, it is kept as is in the buffer.
+     */
+    static void begin(String name) {
+        if (enabled) {
+            record(name, BEGIN, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                beginSection(name);
+            }
+        }
+    }
+
+    static void end(String name) {
+        if (enabled) {
+            record(name, END, 0);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                endSection();
+            }
+        }
+    }
+
+    static void instant(String name) {
+        if (enabled) {
+            record(name, INSTANT, 0);
+        }
+    }
+
+    /**
+     * Start a section that may end on another thread, like a prepare that ends in onPrepared.
+     *
+     * @param cookie tells apart sections of the same name that overlap.
+     */
+    static void beginAsync(String name, int cookie) {
+        if (enabled) {
+            record(name, ASYNC_BEGIN, cookie);
+            AsyncSections.invoke(AsyncSections.BEGIN, name, cookie);
+        }
+    }
+
+    static void endAsync(String name, int cookie) {
+        if (enabled) {
+            record(name, ASYNC_END, cookie);
+            AsyncSections.invoke(AsyncSections.END, name, cookie);
+        }
+    }
+
+    private static void record(String name, char phase, int cookie) {
+        Buffer buffer = JcTrace.buffer;
+        long sequence = buffer.nextSequence.getAndIncrement();
+        int slot = (int) (sequence & buffer.mask);
+
+        buffer.sequences.set(slot, 0);
+        buffer.names[slot] = name;
+        buffer.phases[slot] = phase;
+        buffer.timestamps[slot] = System.nanoTime();
+        buffer.threadIds[slot] = Thread.currentThread().getId();
+        buffer.cookies[slot] = cookie;
+        buffer.sequences.set(slot, sequence + 1);
+    }
+
+    /**
+     * @return how many events the buffer holds, at most its capacity.
+     */
+    public static int getEventCount() {
+        Buffer buffer = JcTrace.buffer;
+        return (int) Math.min(buffer.nextSequence.get(), buffer.mask + 1);
+    }
+
+    /**
+     * Write the buffered events, oldest first, as a Chrome trace JSON object.
+     */
+    public static void writeChromeTrace(Writer writer) throws IOException {
+        Buffer buffer = JcTrace.buffer;
+        long last = buffer.nextSequence.get();
+        long first = Math.max(0, last - (buffer.mask + 1));
+
+        writer.write("{\"traceEvents\":[");
+        boolean isFirstEvent = true;
+        for (long sequence = first; sequence < last; sequence++) {
+            int slot = (int) (sequence & buffer.mask);
+            long published = buffer.sequences.get(slot);
+            String name = buffer.names[slot];
+            char phase = buffer.phases[slot];
+            long timestamp = buffer.timestamps[slot];
+            long threadId = buffer.threadIds[slot];
+            int cookie = buffer.cookies[slot];
+            if (published != sequence + 1 || buffer.sequences.get(slot) != published) {
+                continue; // Not written yet, or overwritten while we read it.
+            }
+
+            if (!isFirstEvent) {
+                writer.write(',');
+            }
+            isFirstEvent = false;
+
+            writer.write("\n{\"name\":");
+            writeString(writer, name);
+            writer.write(",\"cat\":\"jcplayer\",\"ph\":\"");
+            writer.write(phase);
+            writer.write("\",\"ts\":");
+            writer.write(Long.toString(timestamp / 1000));
+            writer.write('.');
+            writer.write(Long.toString(timestamp % 1000 + 1000).substring(1)); // Microseconds, 3 decimals.
+            writer.write(",\"pid\":1,\"tid\":"); // A trace only holds the events of this process.
+            writer.write(Long.toString(threadId));
+            if (phase == ASYNC_BEGIN || phase == ASYNC_END) {
+                writer.write(",\"id\":");
+                writer.write(Integer.toString(cookie));
+            } else if (phase == INSTANT) {
+                writer.write(",\"s\":\"t\"");
+            }
+            writer.write('}');
+        }
+        writer.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+    }
+
+    /**
+     * @return the buffered events as a Chrome trace JSON object.
+     */
+    public static String toChromeTrace() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeChromeTrace(writer);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write the buffered events to a file, to pull with adb and open in chrome://tracing.
+     */
+    public static void exportChromeTrace(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeString(Writer writer, String value) throws IOException {
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginSection(String name) {
+        Trace.beginSection(name);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endSection() {
+        Trace.endSection();
+    }
+
+    /**
+     * Trace.beginAsyncSection and endAsyncSection are API 29. The library compiles against an
+     * older SDK, so they are called through reflection, which boxes the cookie.
+     */
+    private static final class AsyncSections {
+        private static final int API_Q = 29;
+        static final Method BEGIN = find("beginAsyncSection");
+        static final Method END = find("endAsyncSection");
+
+        private static Method find(String name) {
+            if (Build.VERSION.SDK_INT < API_Q) {
+                return null;
+            }
+            try {
+                return Trace.class.getMethod(name, String.class, int.class);
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        static void invoke(Method method, String name, int cookie) {
+            if (method == null) {
+                return;
+            }
+            try {
+                method.invoke(null, name, cookie);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // Tracing is best effort, the ring buffer has the event anyway.
+            }
+        }
+    }
+}
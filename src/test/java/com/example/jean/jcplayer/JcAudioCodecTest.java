@@ -0,0 +1,74 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JcAudioCodecTest {
+
+    @Test
+    public void audios_survive_a_round_trip() throws IOException {
+        List<JcAudio> audios = Arrays.asList(
+                new JcAudio("Intro", "http://example.com/intro.mp3", 7, 0, Origin.URL),
+                new JcAudio("Intro", "intro.mp3", 8, 1, Origin.ASSETS),
+                new JcAudio("Song", "/sdcard/song.mp3", Long.MAX_VALUE, Integer.MAX_VALUE, Origin.FILE_PATH),
+                new JcAudio("\u00dcn\u00efc\u00f8d\u00e9 \u266a", "123", Origin.RAW),
+                new JcAudio(null, null, 9, 3, null));
+
+        List<JcAudio> decoded = JcAudioCodec.decode(JcAudioCodec.encode(audios));
+
+        assertEquals(audios.size(), decoded.size());
+        for (int i = 0; i < audios.size(); i++) {
+            assertEquals(audios.get(i).getId(), decoded.get(i).getId());
+            assertEquals(audios.get(i).getPosition(), decoded.get(i).getPosition());
+            assertEquals(audios.get(i).getTitle(), decoded.get(i).getTitle());
+            assertEquals(audios.get(i).getPath(), decoded.get(i).getPath());
+            assertEquals(audios.get(i).getOrigin(), decoded.get(i).getOrigin());
+        }
+        assertEquals(-1, decoded.get(3).getId());
+        assertNull(decoded.get(4).getOrigin());
+    }
+
+    @Test
+    public void repeated_strings_are_written_once() {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            audios.add(new JcAudio("Same title", "same/path.mp3", i, i, Origin.ASSETS));
+        }
+
+        // 1 byte per reference after the first audio.
+        byte[] bytes = JcAudioCodec.encode(audios);
+        assertTrue(bytes.length < 100 * 8);
+    }
+
+    @Test
+    public void encoding_is_smaller_than_serialization() throws IOException {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            audios.add(new JcAudio("Track " + i, "http://example.com/track" + i + ".mp3", i, i, Origin.URL));
+        }
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(audios);
+        out.close();
+
+        assertTrue(JcAudioCodec.encode(audios).length < serialized.size() / 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void truncated_data_is_rejected() throws IOException {
+        List<JcAudio> audios = Arrays.asList(new JcAudio("Intro", "intro.mp3", Origin.ASSETS));
+        byte[] bytes = JcAudioCodec.encode(audios);
+        JcAudioCodec.decode(Arrays.copyOf(bytes, bytes.length - 3));
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JcBufferMonitorTest {
+    private final JcBufferMonitor monitor = new JcBufferMonitor();
+
+    @Before
+    public void setUp() {
+        monitor.reset(100000);
+    }
+
+    @Test
+    public void throughput_follows_the_buffered_position() {
+        monitor.onBufferingUpdate(1, 1000, false);
+        for (int i = 2; i <= 10; i++) {
+            // 1% of 100 s every second: buffered as fast as it plays.
+            monitor.onBufferingUpdate(i, i * 1000, false);
+        }
+
+        assertEquals(10000, monitor.getBufferedPosition());
+        assertEquals(1.0, monitor.getThroughput(), 0.01);
+    }
+
+    @Test
+    public void full_buffer_pauses_do_not_lower_the_throughput() {
+        monitor.onBufferingUpdate(10, 1000, false);
+        monitor.onBufferingUpdate(20, 2000, false);
+        monitor.onBufferingUpdate(20, 3000, false);
+        monitor.onBufferingUpdate(20, 4000, false);
+
+        assertEquals(10.0, monitor.getThroughput(), 0.01);
+
+        monitor.onBufferingUpdate(20, 5000, true);
+        assertTrue(monitor.getThroughput() < 10);
+    }
+
+    @Test
+    public void start_waits_for_the_lead_time() {
+        monitor.onBufferingUpdate(1, 1000, true);
+        monitor.onBufferingUpdate(2, 3000, true); // Half as fast as playback.
+
+        assertFalse(monitor.canStart(0, 5000));
+        monitor.onBufferingUpdate(5, 9000, true);
+        assertTrue(monitor.canStart(0, 5000));
+    }
+
+    @Test
+    public void fast_download_needs_a_shorter_lead() {
+        monitor.onBufferingUpdate(1, 1000, false);
+        monitor.onBufferingUpdate(3, 1500, false); // 4 times as fast as playback.
+
+        assertTrue(monitor.canStart(0, 10000));
+    }
+
+    @Test
+    public void whole_audio_buffered_can_start() {
+        monitor.onBufferingUpdate(100, 1000, false);
+        assertTrue(monitor.canStart(99000, 10000));
+    }
+
+    @Test
+    public void position_stuck_while_playing_is_a_stall() {
+        assertEquals(JcBufferMonitor.NO_CHANGE, monitor.onPosition(1000, 0));
+        assertEquals(JcBufferMonitor.NO_CHANGE, monitor.onPosition(1000, 500));
+        assertEquals(JcBufferMonitor.STALL_STARTED, monitor.onPosition(1000, JcBufferMonitor.STALL_TIMEOUT));
+        assertTrue(monitor.isStalled());
+        assertEquals(JcBufferMonitor.NO_CHANGE, monitor.onPosition(1000, 1500));
+
+        assertEquals(JcBufferMonitor.STALL_ENDED, monitor.onPosition(1200, 2500));
+        assertEquals(1500, monitor.getLastStallDuration());
+        assertEquals(1, monitor.getStallCount());
+    }
+
+    @Test
+    public void buffering_info_stall_ends_with_buffering_end() {
+        monitor.onPosition(1000, 0);
+        assertEquals(JcBufferMonitor.STALL_STARTED, monitor.onBufferingStart(100));
+        // The position may still move a little while the player drains its buffer.
+        assertEquals(JcBufferMonitor.NO_CHANGE, monitor.onPosition(1100, 200));
+        assertEquals(JcBufferMonitor.STALL_ENDED, monitor.onBufferingEnd(900));
+        assertEquals(800, monitor.getLastStallDuration());
+    }
+
+    @Test
+    public void pause_ends_a_stall() {
+        monitor.onBufferingStart(0);
+        assertEquals(JcBufferMonitor.STALL_ENDED, monitor.onStopped(300));
+        assertFalse(monitor.isStalled());
+        assertEquals(JcBufferMonitor.NO_CHANGE, monitor.onPosition(1000, 5000));
+    }
+}
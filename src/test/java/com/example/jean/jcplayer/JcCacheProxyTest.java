@@ -0,0 +1,318 @@
+package com.example.jean.jcplayer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the proxy against a local HTTP server standing in for the audio host.
+ */
+public class JcCacheProxyTest {
+    private static final int CHUNK_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer origin;
+    private AtomicLong originBytes;
+    private byte[] audio;
+    private String audioUrl;
+    private JcCacheProxy proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        audio = new byte[10 * CHUNK_SIZE + 100];
+        new Random(42).nextBytes(audio);
+        originBytes = new AtomicLong();
+
+        origin = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        origin.createContext("/audio.mp3", new RangeHandler());
+        origin.createContext("/live.mp3", new StreamHandler());
+        origin.start();
+        audioUrl = "http://127.0.0.1:" + origin.getAddress().getPort() + "/audio.mp3";
+
+        proxy = new JcCacheProxy(folder.newFolder("cache"), 1024 * 1024, CHUNK_SIZE);
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() {
+        proxy.stop();
+        origin.stop(0);
+    }
+
+    @Test
+    public void replay_is_served_from_the_cache() throws IOException {
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+        long downloaded = originBytes.get();
+
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+        assertEquals(downloaded, originBytes.get());
+        assertEquals(audio.length, proxy.getBytesSaved());
+        assertEquals(0.5, proxy.getHitRatio(), 0.001);
+    }
+
+    @Test
+    public void range_request_returns_the_requested_bytes() throws IOException {
+        byte[] body = get(proxy.getProxyUrl(audioUrl), "bytes=1500-4999");
+        assertArrayEquals(Arrays.copyOfRange(audio, 1500, 5000), body);
+
+        // Chunks 1 to 4 are cached now, reading inside them doesn't hit the origin.
+        long downloaded = originBytes.get();
+        body = get(proxy.getProxyUrl(audioUrl), "bytes=2048-3000");
+        assertArrayEquals(Arrays.copyOfRange(audio, 2048, 3001), body);
+        assertEquals(downloaded, originBytes.get());
+    }
+
+    @Test
+    public void open_ended_range_reaches_the_end_of_the_audio() throws IOException {
+        byte[] body = get(proxy.getProxyUrl(audioUrl), "bytes=" + (audio.length - 50) + "-");
+        assertArrayEquals(Arrays.copyOfRange(audio, audio.length - 50, audio.length), body);
+    }
+
+    @Test
+    public void range_without_bounds_returns_the_whole_audio() throws IOException {
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), "bytes=1500"));
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), "bytes=-"));
+    }
+
+    @Test
+    public void request_without_the_token_is_refused() throws IOException {
+        String proxyUrl = proxy.getProxyUrl(audioUrl);
+        String port = proxyUrl.substring(0, proxyUrl.indexOf('/', "http://".length()));
+        assertEquals(403, status(port + "/?url=" + audioUrl));
+        assertEquals(0, originBytes.get());
+    }
+
+    @Test
+    public void only_http_audios_are_fetched() throws IOException {
+        File local = folder.newFile("audio.mp3");
+        assertEquals(-1, status(proxy.getProxyUrl(local.toURI().toString())));
+        assertEquals(-1, status(proxy.getProxyUrl("jar:" + local.toURI() + "!/audio.mp3")));
+
+        // The proxy still serves afterwards.
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+    }
+
+    @Test
+    public void stream_without_length_is_passed_through() throws IOException {
+        String streamUrl = audioUrl.replace("audio.mp3", "live.mp3");
+        assertArrayEquals(audio, get(proxy.getProxyUrl(streamUrl), null));
+        assertArrayEquals(audio, get(proxy.getProxyUrl(streamUrl), null));
+
+        assertEquals(0, proxy.getCacheSize());
+        assertEquals(2 * audio.length, proxy.getBytesDownloaded());
+    }
+
+    @Test
+    public void cache_stays_under_its_size_limit() throws IOException {
+        proxy.stop();
+        File directory = folder.newFolder("small-cache");
+        proxy = new JcCacheProxy(directory, 3 * CHUNK_SIZE, CHUNK_SIZE);
+        proxy.start();
+
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+        assertTrue(proxy.getCacheSize() <= 3 * CHUNK_SIZE);
+
+        // The most recent chunks survived the eviction.
+        String key = JcChunkCache.keyFor(audioUrl);
+        assertTrue(proxy.getCache().hasChunk(key, 10));
+        assertTrue(!proxy.getCache().hasChunk(key, 0));
+    }
+
+    @Test
+    public void evicted_audios_leave_no_directory_or_metadata() throws IOException {
+        proxy.stop();
+        File directory = folder.newFolder("many-urls-cache");
+        proxy = new JcCacheProxy(directory, 3 * CHUNK_SIZE, CHUNK_SIZE);
+        proxy.start();
+
+        for (int i = 0; i < 20; i++) {
+            get(proxy.getProxyUrl(audioUrl + "?v=" + i), "bytes=0-99");
+        }
+
+        // One chunk and one meta file per audio, only two audios fit.
+        assertEquals(2, directory.listFiles().length);
+        assertTrue(proxy.getCacheSize() <= 3 * CHUNK_SIZE);
+        assertTrue(proxy.getCacheSize() > 2 * CHUNK_SIZE);
+        assertEquals(-1, proxy.getCache().getContentLength(JcChunkCache.keyFor(audioUrl + "?v=0")));
+        assertEquals(audio.length, proxy.getCache().getContentLength(JcChunkCache.keyFor(audioUrl + "?v=19")));
+    }
+
+    @Test
+    public void shrinking_the_running_cache_evicts_right_away() throws IOException {
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+        String proxyUrl = proxy.getProxyUrl(audioUrl);
+
+        proxy.setMaxCacheSize(3 * CHUNK_SIZE);
+        assertTrue(proxy.getCacheSize() <= 3 * CHUNK_SIZE);
+        assertEquals(proxyUrl, proxy.getProxyUrl(audioUrl));
+        assertArrayEquals(audio, get(proxyUrl, null));
+    }
+
+    @Test
+    public void cache_index_is_rebuilt_from_disk() throws IOException {
+        proxy.stop();
+        File directory = folder.newFolder("persistent-cache");
+        proxy = new JcCacheProxy(directory, 1024 * 1024, CHUNK_SIZE);
+        proxy.start();
+        get(proxy.getProxyUrl(audioUrl), null);
+        proxy.stop();
+
+        proxy = new JcCacheProxy(directory, 1024 * 1024, CHUNK_SIZE);
+        proxy.start();
+        long downloaded = originBytes.get();
+        assertArrayEquals(audio, get(proxy.getProxyUrl(audioUrl), null));
+        assertEquals(downloaded, originBytes.get());
+    }
+
+    @Test
+    public void prefetched_start_is_served_from_the_cache() throws Exception {
+        JcPrefetcher prefetcher = new JcPrefetcher(proxy);
+        prefetcher.setBudget(1, 2 * CHUNK_SIZE);
+        prefetcher.prefetch(Collections.singletonList(audioUrl));
+        waitFor(2 * CHUNK_SIZE, proxy);
+
+        long downloaded = originBytes.get();
+        byte[] body = get(proxy.getProxyUrl(audioUrl), "bytes=0-" + (2 * CHUNK_SIZE - 1));
+        assertArrayEquals(Arrays.copyOfRange(audio, 0, 2 * CHUNK_SIZE), body);
+        assertEquals(downloaded, originBytes.get());
+        assertEquals(1.0, proxy.getHitRatio(), 0.001);
+        prefetcher.shutdown();
+    }
+
+    @Test
+    public void paused_prefetch_stops_after_the_current_chunk() throws Exception {
+        JcPrefetcher prefetcher = new JcPrefetcher(proxy);
+        prefetcher.setBudget(1, audio.length);
+        prefetcher.setPaused(true);
+        prefetcher.prefetch(Collections.singletonList(audioUrl));
+
+        String key = JcChunkCache.keyFor(audioUrl);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!proxy.getCache().hasChunk(key, 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(100);
+        assertTrue(proxy.getCache().hasChunk(key, 0));
+        assertTrue(!proxy.getCache().hasChunk(key, 1));
+
+        prefetcher.setPaused(false);
+        waitFor(audio.length, proxy);
+        prefetcher.shutdown();
+    }
+
+    private static void waitFor(long prefetchedBytes, JcCacheProxy proxy) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (proxy.getBytesPrefetched() < prefetchedBytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(prefetchedBytes, proxy.getBytesPrefetched());
+    }
+
+    private static byte[] get(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        connection.disconnect();
+        return body.toByteArray();
+    }
+
+    /**
+     * @return the status code, or -1 if the proxy closed the connection without answering.
+     */
+    private static int status(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            return connection.getResponseCode();
+        } catch (IOException e) {
+            return -1;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends the audio chunked, without a length, and ignores ranges like a live stream.
+     */
+    private class StreamHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(audio);
+            } catch (IOException e) {
+                // Proxy stopped reading.
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private class RangeHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int start = 0;
+            int end = audio.length - 1;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                start = Integer.parseInt(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(bounds[1]));
+                }
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + audio.length);
+            }
+
+            exchange.getResponseHeaders().add("Content-Type", "audio/mpeg");
+            exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                // Write slowly enough for the proxy to close the connection early.
+                for (int position = start; position <= end; position += 512) {
+                    int count = Math.min(512, end - position + 1);
+                    out.write(audio, position, count);
+                    originBytes.addAndGet(count);
+                }
+            } catch (IOException e) {
+                // Proxy stopped reading.
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,452 @@
+package com.example.jean.jcplayer;
+
+import android.media.MediaPlayer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MediaPlayer that plays nothing, following a {@link Script} on the clock of a
+ * {@link JcSimulation}. It goes through the states of a real MediaPlayer and calls its
+ * listeners from the simulation, like a real one calls them from a looper.
+ * <p>
+ * Url audios download at a fixed rate from the prepare on. Playback stalls when the position
+ * reaches the downloaded part and resumes once {@link #RESUME_LEAD} more is downloaded.
+ */
+class JcFakeMediaPlayer extends MediaPlayer {
+    static final long RESUME_LEAD = 2000; // milliseconds of audio buffered before a stall ends.
+
+    private enum State {
+        IDLE, INITIALIZED, PREPARING, PREPARED, STARTED, PAUSED, COMPLETED, ERROR, RELEASED
+    }
+
+    /**
+     * How an audio behaves. Times are in milliseconds.
+     */
+    static class Script {
+        long prepareLatency = 100;
+        int duration = 180000;
+        // Milliseconds of audio downloaded per millisecond, 0 when the audio is local.
+        double downloadRate;
+        long bufferingUpdateInterval = 1000;
+        long seekLatency = 50;
+        // Position where playback fails, -1 to never fail.
+        int errorPosition = -1;
+        boolean failsToPrepare;
+    }
+
+    /**
+     * Creates the fake players for a {@link JcMediaPlayerPool} and keeps the scripts of the
+     * audios, by path. Counts what happened to all its players.
+     */
+    static class Engine implements JcMediaPlayerPool.Factory {
+        final JcSimulation simulation;
+        final Script defaultScript = new Script();
+        final Map<String, Script> scripts = new HashMap<>();
+        final List<JcFakeMediaPlayer> players = new ArrayList<>();
+        int prepareCount;
+        int preparedCount;
+        int startCount;
+        int seekCount;
+        int positionReadCount;
+        int stallCount;
+        int completionCount;
+        int errorCount;
+
+        Engine(JcSimulation simulation) {
+            this.simulation = simulation;
+        }
+
+        Script script(String path) {
+            Script script = scripts.get(path);
+            if (script == null) {
+                script = new Script();
+                scripts.put(path, script);
+            }
+            return script;
+        }
+
+        @Override
+        public MediaPlayer newMediaPlayer() {
+            JcFakeMediaPlayer player = new JcFakeMediaPlayer(this);
+            players.add(player);
+            return player;
+        }
+
+        int getReleasedCount() {
+            int count = 0;
+            for (JcFakeMediaPlayer player : players) {
+                if (player.state == State.RELEASED) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final Engine engine;
+    private final JcSimulation simulation;
+    private State state = State.IDLE;
+    private Script script;
+    private String path;
+
+    private int position; // At positionAt, moves while started and not stalled.
+    private long positionAt;
+    private boolean isStalled;
+    private long downloadStartedAt;
+    private ScheduledFuture<?> pendingEvent;
+    private ScheduledFuture<?> bufferingUpdates;
+    private ScheduledFuture<?> pendingPrepare;
+    private ScheduledFuture<?> pendingSeek;
+
+    private OnPreparedListener onPreparedListener;
+    private OnCompletionListener onCompletionListener;
+    private OnBufferingUpdateListener onBufferingUpdateListener;
+    private OnErrorListener onErrorListener;
+    private OnSeekCompleteListener onSeekCompleteListener;
+    private OnInfoListener onInfoListener;
+
+    private JcFakeMediaPlayer(Engine engine) {
+        this.engine = engine;
+        this.simulation = engine.simulation;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    @Override
+    public void setDataSource(String path) {
+        checkState(State.IDLE);
+        this.path = path;
+        script = engine.scripts.containsKey(path) ? engine.scripts.get(path) : engine.defaultScript;
+        state = State.INITIALIZED;
+    }
+
+    @Override
+    public void prepareAsync() {
+        checkState(State.INITIALIZED);
+        state = State.PREPARING;
+        engine.prepareCount++;
+        downloadStartedAt = simulation.elapsedRealtime();
+        if (script.downloadRate > 0) {
+            bufferingUpdates = simulation.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    sendBufferingUpdate();
+                }
+            }, script.bufferingUpdateInterval, script.bufferingUpdateInterval, TimeUnit.MILLISECONDS);
+        }
+        pendingPrepare = simulation.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingPrepare = null;
+                if (script.failsToPrepare) {
+                    fail();
+                    return;
+                }
+                state = State.PREPARED;
+                engine.preparedCount++;
+                if (onPreparedListener != null) {
+                    onPreparedListener.onPrepared(JcFakeMediaPlayer.this);
+                }
+            }
+        }, script.prepareLatency, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void start() {
+        checkState(State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        if (state == State.STARTED) {
+            return;
+        }
+        if (state == State.COMPLETED) {
+            setPosition(0);
+        }
+        updatePosition();
+        state = State.STARTED;
+        engine.startCount++;
+        plan();
+    }
+
+    @Override
+    public void pause() {
+        checkState(State.STARTED, State.PAUSED, State.COMPLETED);
+        if (state == State.COMPLETED) {
+            return;
+        }
+        updatePosition();
+        state = State.PAUSED;
+        plan();
+    }
+
+    @Override
+    public void stop() {
+        checkState(State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        cancelEvents();
+        state = State.INITIALIZED;
+    }
+
+    @Override
+    public void reset() {
+        checkNotReleased();
+        cancelEvents();
+        state = State.IDLE;
+        path = null;
+        position = 0;
+        isStalled = false;
+    }
+
+    @Override
+    public void release() {
+        cancelEvents();
+        state = State.RELEASED;
+    }
+
+    @Override
+    public void seekTo(int target) {
+        checkState(State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        engine.seekCount++;
+        final int position = Math.max(0, Math.min(target, script.duration));
+        if (pendingSeek != null) {
+            pendingSeek.cancel(false);
+        }
+        pendingSeek = simulation.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingSeek = null;
+                setPosition(position);
+                if (state == State.COMPLETED) {
+                    state = State.PAUSED;
+                }
+                plan();
+                if (onSeekCompleteListener != null) {
+                    onSeekCompleteListener.onSeekComplete(JcFakeMediaPlayer.this);
+                }
+            }
+        }, script.seekLatency, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void seekTo(long target, int mode) {
+        seekTo((int) target);
+    }
+
+    @Override
+    public int getCurrentPosition() {
+        checkNotReleased();
+        engine.positionReadCount++;
+        return currentPosition(simulation.elapsedRealtime());
+    }
+
+    @Override
+    public int getDuration() {
+        checkState(State.PREPARING, State.PREPARED, State.STARTED, State.PAUSED, State.COMPLETED);
+        return script.duration;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        checkNotReleased();
+        return state == State.STARTED;
+    }
+
+    boolean isStalled() {
+        return isStalled;
+    }
+
+    @Override
+    public void setNextMediaPlayer(MediaPlayer next) {
+        checkNotReleased();
+    }
+
+    @Override
+    public void setOnPreparedListener(OnPreparedListener listener) {
+        onPreparedListener = listener;
+    }
+
+    @Override
+    public void setOnCompletionListener(OnCompletionListener listener) {
+        onCompletionListener = listener;
+    }
+
+    @Override
+    public void setOnBufferingUpdateListener(OnBufferingUpdateListener listener) {
+        onBufferingUpdateListener = listener;
+    }
+
+    @Override
+    public void setOnErrorListener(OnErrorListener listener) {
+        onErrorListener = listener;
+    }
+
+    @Override
+    public void setOnSeekCompleteListener(OnSeekCompleteListener listener) {
+        onSeekCompleteListener = listener;
+    }
+
+    @Override
+    public void setOnInfoListener(OnInfoListener listener) {
+        onInfoListener = listener;
+    }
+
+    private int currentPosition(long now) {
+        if (script == null) {
+            return 0;
+        }
+        long moved = state == State.STARTED && !isStalled ? now - positionAt : 0;
+        return (int) Math.min(script.duration, position + moved);
+    }
+
+    private long bufferedPosition(long now) {
+        if (script.downloadRate <= 0) {
+            return script.duration;
+        }
+        return Math.min(script.duration, (long) (script.downloadRate * (now - downloadStartedAt)));
+    }
+
+    private void updatePosition() {
+        setPosition(currentPosition(simulation.elapsedRealtime()));
+    }
+
+    private void setPosition(int position) {
+        this.position = position;
+        this.positionAt = simulation.elapsedRealtime();
+    }
+
+    /**
+     * Schedule the next thing that happens by itself while started: a stall, its end, an
+     * error or the completion.
+     */
+    private void plan() {
+        if (pendingEvent != null) {
+            pendingEvent.cancel(false);
+            pendingEvent = null;
+        }
+        if (state != State.STARTED) {
+            return;
+        }
+
+        long now = simulation.elapsedRealtime();
+        int current = currentPosition(now);
+        long buffered = bufferedPosition(now);
+        long eventAt;
+        if (isStalled) {
+            // Resumes once there is enough ahead of the position, or everything is downloaded.
+            long target = Math.min(script.duration, current + RESUME_LEAD);
+            eventAt = downloadStartedAt + (long) Math.ceil(target / script.downloadRate);
+            eventAt = Math.max(now + 1, eventAt);
+        } else {
+            eventAt = now + (script.duration - current);
+            if (script.errorPosition >= current) {
+                eventAt = Math.min(eventAt, now + (script.errorPosition - current));
+            }
+            if (buffered < script.duration) {
+                // Position catches up with the download when rate is below 1.
+                double rate = script.downloadRate;
+                if (current >= buffered) {
+                    eventAt = now;
+                } else if (rate < 1) {
+                    long stallAt = (long) Math.ceil((current - now + rate * downloadStartedAt) / (1 - rate));
+                    if (bufferedPosition(stallAt) < script.duration) {
+                        eventAt = Math.min(eventAt, Math.max(now + 1, stallAt));
+                    }
+                }
+            }
+        }
+        pendingEvent = simulation.schedule(new Runnable() {
+            @Override
+            public void run() {
+                pendingEvent = null;
+                onEvent();
+            }
+        }, Math.max(0, eventAt - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void onEvent() {
+        long now = simulation.elapsedRealtime();
+        updatePosition();
+        if (isStalled) {
+            if (bufferedPosition(now) >= Math.min(script.duration, position + RESUME_LEAD)) {
+                isStalled = false;
+                setPosition(position);
+                info(MEDIA_INFO_BUFFERING_END);
+            }
+        } else if (script.errorPosition >= 0 && position >= script.errorPosition) {
+            fail();
+            return;
+        } else if (position >= script.duration) {
+            state = State.COMPLETED;
+            engine.completionCount++;
+            if (onCompletionListener != null) {
+                onCompletionListener.onCompletion(this);
+            }
+            return;
+        } else if (position >= bufferedPosition(now)) {
+            isStalled = true;
+            engine.stallCount++;
+            info(MEDIA_INFO_BUFFERING_START);
+        }
+        plan();
+    }
+
+    private void sendBufferingUpdate() {
+        long buffered = bufferedPosition(simulation.elapsedRealtime());
+        int percent = (int) (buffered * 100 / script.duration);
+        if (onBufferingUpdateListener != null) {
+            onBufferingUpdateListener.onBufferingUpdate(this, percent);
+        }
+        if (buffered >= script.duration && bufferingUpdates != null) {
+            bufferingUpdates.cancel(false);
+            bufferingUpdates = null;
+        }
+    }
+
+    private void info(int what) {
+        if (onInfoListener != null) {
+            onInfoListener.onInfo(this, what, 0);
+        }
+    }
+
+    private void fail() {
+        cancelEvents();
+        state = State.ERROR;
+        engine.errorCount++;
+        boolean isHandled = onErrorListener != null && onErrorListener.onError(this, MEDIA_ERROR_UNKNOWN, 0);
+        if (!isHandled && onCompletionListener != null) {
+            // Like a real MediaPlayer, an unhandled error completes the playback.
+            onCompletionListener.onCompletion(this);
+        }
+    }
+
+    private void cancelEvents() {
+        for (ScheduledFuture<?> event : new ScheduledFuture<?>[]{pendingEvent, bufferingUpdates, pendingPrepare, pendingSeek}) {
+            if (event != null) {
+                event.cancel(false);
+            }
+        }
+        pendingEvent = null;
+        bufferingUpdates = null;
+        pendingPrepare = null;
+        pendingSeek = null;
+    }
+
+    private void checkNotReleased() {
+        if (state == State.RELEASED) {
+            throw new IllegalStateException("MediaPlayer released");
+        }
+    }
+
+    private void checkState(State... allowed) {
+        for (State allowedState : allowed) {
+            if (state == allowedState) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Called in state " + state);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JcFrameBridgeTest {
+    private final List<String> applied = new ArrayList<>();
+    private int scheduledFrames;
+
+    private final JcFrameBridge bridge = new JcFrameBridge(new JcFrameBridge.Target() {
+        @Override
+        public void reset() {
+            applied.add("reset");
+        }
+
+        @Override
+        public void setTitle(String title, boolean animate) {
+            applied.add((animate ? "animated title " : "title ") + title);
+        }
+
+        @Override
+        public void setDuration(int duration) {
+            applied.add("duration " + duration);
+        }
+
+        @Override
+        public void setPlaying(boolean isPlaying) {
+            applied.add(isPlaying ? "playing" : "paused");
+        }
+
+        @Override
+        public void dismissProgress() {
+            applied.add("dismiss progress");
+        }
+
+        @Override
+        public void setPosition(long position, boolean isSecondChanged) {
+            applied.add((isSecondChanged ? "time " : "progress ") + position);
+        }
+    }, new JcFrameBridge.FrameScheduler() {
+        @Override
+        public void scheduleFrame() {
+            scheduledFrames++;
+        }
+    });
+
+    @Test
+    public void updates_between_frames_are_coalesced_into_the_newest() {
+        bridge.setPosition(1000);
+        bridge.setPosition(1200);
+        bridge.setPosition(2400);
+        bridge.doFrame();
+
+        assertEquals(1, scheduledFrames);
+        assertEquals(2, bridge.getCoalescedCount());
+        assertEquals(Arrays.asList("time 2400"), applied);
+    }
+
+    @Test
+    public void invisible_changes_request_no_frame() {
+        bridge.setProgressResolution(500);
+        bridge.setPosition(1000);
+        bridge.doFrame();
+        applied.clear();
+
+        bridge.setPosition(1200); // Same second, same SeekBar step.
+        bridge.setPosition(1499);
+        assertEquals(1, scheduledFrames);
+
+        bridge.setPosition(1500); // Next step, same second.
+        bridge.doFrame();
+        assertEquals(2, scheduledFrames);
+        assertEquals(Arrays.asList("progress 1500"), applied);
+    }
+
+    @Test
+    public void a_frame_is_requested_again_after_it_ran() {
+        bridge.setPlaying(true);
+        bridge.doFrame();
+        bridge.setPlaying(false);
+        bridge.doFrame();
+        bridge.doFrame(); // Nothing changed since.
+
+        assertEquals(2, scheduledFrames);
+        assertEquals(2, bridge.getFrameCount());
+        assertEquals(Arrays.asList("playing", "paused"), applied);
+    }
+
+    @Test
+    public void new_audio_replaces_the_pending_position_and_keeps_the_title_animation() {
+        bridge.setPlaying(true);
+        bridge.setPosition(170000);
+        bridge.setTitle("Audio 1");
+        bridge.setAudio("Audio 1", 180000);
+        bridge.doFrame();
+
+        assertEquals(Arrays.asList("reset", "animated title Audio 1", "duration 180000", "playing",
+                "dismiss progress"), applied);
+    }
+
+    @Test
+    public void reset_drops_the_pending_title_and_position() {
+        bridge.setProgressResolution(1000);
+        bridge.setTitle("Audio 1");
+        bridge.setPosition(5000);
+        bridge.reset();
+        bridge.doFrame();
+
+        assertEquals(Arrays.asList("reset"), applied);
+
+        bridge.setPosition(999); // Still what the reset shows.
+        assertEquals(1, scheduledFrames);
+    }
+
+    @Test
+    public void time_is_formatted_into_a_reused_buffer() {
+        char[] buffer = new char[JcTimeFormat.MAX_LENGTH];
+
+        assertEquals("00:00", new String(buffer, 0, JcTimeFormat.format(999, buffer)));
+        assertEquals("03:07", new String(buffer, 0, JcTimeFormat.format(187000, buffer)));
+        assertEquals("99:59", new String(buffer, 0, JcTimeFormat.format(5999000, buffer)));
+        assertEquals("100:00", new String(buffer, 0, JcTimeFormat.format(6000000, buffer)));
+        assertEquals("00:00", JcTimeFormat.format(-1000));
+        assertEquals(JcTimeFormat.format(Long.MAX_VALUE).length(),
+                JcTimeFormat.format(Long.MAX_VALUE, buffer));
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class JcNotificationContentTest {
+    private final JcNotificationContent content = new JcNotificationContent(4);
+
+    @Test
+    public void first_update_builds_the_layout() {
+        assertEquals(JcNotificationContent.LAYOUT_CHANGED, content.update(false, 1, "Audio", "00:00"));
+        assertEquals(JcNotificationContent.UNCHANGED, content.update(false, 1, "Audio", "00:00"));
+    }
+
+    @Test
+    public void every_new_time_is_posted_once() {
+        content.update(false, 1, "Audio", "00:00");
+
+        // Ticks come slightly early or late, each shown second must still be posted.
+        assertEquals(JcNotificationContent.TIME_CHANGED, content.update(false, 1, "Audio", "00:01"));
+        assertEquals(JcNotificationContent.TIME_CHANGED, content.update(false, 1, "Audio", "00:02"));
+        assertEquals("00:02", content.getTime());
+        assertEquals(JcNotificationContent.UNCHANGED, content.update(false, 1, "Audio", "00:02"));
+    }
+
+    @Test
+    public void title_change_is_posted_right_away_with_the_time() {
+        content.update(false, 1, "Audio", "00:00");
+
+        assertEquals(JcNotificationContent.TITLE_CHANGED | JcNotificationContent.TIME_CHANGED,
+                content.update(false, 1, "Next audio", "00:01"));
+        assertEquals("Next audio", content.getTitle());
+    }
+
+    @Test
+    public void play_state_or_icon_change_rebuilds_the_layout() {
+        content.update(false, 1, "Audio", "00:00");
+
+        assertEquals(JcNotificationContent.LAYOUT_CHANGED, content.update(true, 1, "Audio", "00:00"));
+        assertEquals(JcNotificationContent.LAYOUT_CHANGED, content.update(true, 2, "Audio", "00:00"));
+    }
+
+    @Test
+    public void layout_is_rebuilt_after_too_many_text_updates() {
+        content.update(false, 1, "Audio", "00:00");
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(JcNotificationContent.TIME_CHANGED, content.update(false, 1, "Audio", "00:0" + i));
+        }
+
+        assertEquals(JcNotificationContent.LAYOUT_CHANGED, content.update(false, 1, "Audio", "00:05"));
+    }
+
+    @Test
+    public void reset_rebuilds_on_next_update() {
+        content.update(false, 1, "Audio", "00:00");
+        content.reset();
+
+        assertEquals(JcNotificationContent.LAYOUT_CHANGED, content.update(false, 1, "Audio", "00:00"));
+    }
+
+    @Test
+    public void rate_counter_counts_the_last_minute() {
+        JcRateCounter counter = new JcRateCounter();
+        for (long now = 0; now < 120000; now += 1000) {
+            counter.record(now);
+        }
+
+        assertEquals(120, counter.getCount());
+        assertEquals(60, counter.getCountPerMinute(119999));
+        assertEquals(30, counter.getCountPerMinute(149999));
+        assertEquals(0, counter.getCountPerMinute(200000));
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class JcPendingCommandsTest {
+    private final JcPendingCommands commands = new JcPendingCommands();
+    private final List<String> replayed = new ArrayList<>();
+
+    @Test
+    public void commands_are_replayed_in_order() {
+        add(JcPendingCommands.PLAY, "play a");
+        add(JcPendingCommands.SEEK, "seek 10");
+        add(JcPendingCommands.PAUSE, "pause");
+
+        commands.replay();
+
+        assertEquals(Arrays.asList("play a", "seek 10", "pause"), replayed);
+        assertEquals(0, commands.size());
+    }
+
+    @Test
+    public void play_replaces_everything_before_it() {
+        add(JcPendingCommands.PLAY, "play a");
+        add(JcPendingCommands.SEEK, "seek 10");
+        add(JcPendingCommands.PAUSE, "pause");
+        add(JcPendingCommands.PLAY, "play b");
+
+        commands.replay();
+
+        assertEquals(Arrays.asList("play b"), replayed);
+        assertEquals(3, commands.getCollapsedCount());
+    }
+
+    @Test
+    public void only_the_last_seek_is_kept() {
+        add(JcPendingCommands.PLAY, "play a");
+        add(JcPendingCommands.SEEK, "seek 10");
+        add(JcPendingCommands.PAUSE, "pause");
+        add(JcPendingCommands.SEEK, "seek 20");
+        add(JcPendingCommands.SEEK, "seek 30");
+
+        commands.replay();
+
+        assertEquals(Arrays.asList("play a", "pause", "seek 30"), replayed);
+    }
+
+    @Test
+    public void commands_are_not_replayed_twice() {
+        add(JcPendingCommands.PAUSE, "pause");
+        commands.replay();
+        commands.replay();
+
+        assertEquals(Arrays.asList("pause"), replayed);
+    }
+
+    private void add(int type, final String name) {
+        commands.add(type, new Runnable() {
+            @Override
+            public void run() {
+                replayed.add(name);
+            }
+        });
+    }
+}
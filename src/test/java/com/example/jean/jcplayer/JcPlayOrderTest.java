@@ -0,0 +1,125 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JcPlayOrderTest {
+
+    private JcPlaylist playlist;
+    private JcPlayOrder order;
+
+    @Before
+    public void setUp() {
+        playlist = new JcPlaylist();
+        for (int i = 0; i < 10; i++) {
+            playlist.add(new JcAudio("Audio " + i, "audio" + i + ".mp3", i, i, Origin.ASSETS));
+        }
+        order = new JcPlayOrder(playlist);
+    }
+
+    @Test
+    public void playlist_order_wraps_around() {
+        order.setCurrent(playlist.get(8));
+        assertSame(playlist.get(9), order.next());
+        assertSame(playlist.get(0), order.next());
+        assertSame(playlist.get(0), order.previous());
+        assertSame(playlist.get(1), order.peek(1));
+    }
+
+    @Test
+    public void shuffle_plays_every_audio_once_per_round() {
+        order.setCurrent(playlist.get(3));
+        order.setShuffled(true, new Random(1));
+
+        Set<JcAudio> played = new HashSet<>();
+        played.add(playlist.get(3));
+        for (int i = 0; i < 9; i++) {
+            assertTrue(played.add(order.next()));
+        }
+        assertEquals(10, played.size());
+        assertFalse(played.add(order.next()));
+    }
+
+    @Test
+    public void shuffle_previous_goes_back_through_the_history() {
+        order.setShuffled(true, new Random(2));
+        JcAudio first = order.next();
+        JcAudio second = order.next();
+        JcAudio peeked = order.peek(1);
+        JcAudio third = order.next();
+
+        assertSame(peeked, third);
+        assertSame(second, order.previous());
+        assertSame(first, order.previous());
+        assertSame(first, order.previous());
+        assertSame(second, order.next());
+        assertSame(third, order.next());
+    }
+
+    @Test
+    public void shuffle_is_lazy() {
+        // Only drawn indexes are stored, a million audios cost nothing up front.
+        JcShuffle shuffle = new JcShuffle(1000000, new Random(3));
+
+        List<Integer> drawn = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            drawn.add(shuffle.next());
+        }
+        assertEquals(1000, new HashSet<>(drawn).size());
+
+        // Selecting an index that already played moves back in the history.
+        shuffle.select(drawn.get(10));
+        assertEquals((int) drawn.get(11), shuffle.next());
+    }
+
+    @Test
+    public void appended_audios_join_the_shuffle() {
+        order.setShuffled(true, new Random(4));
+        for (int i = 0; i < 5; i++) {
+            order.next();
+        }
+        JcAudio added = new JcAudio("Added", "added.mp3", Origin.ASSETS);
+        playlist.add(added);
+        order.onPlaylistChanged();
+
+        Set<JcAudio> played = new HashSet<>();
+        for (int i = 0; i < 6; i++) {
+            played.add(order.next());
+        }
+        assertTrue(played.contains(added));
+    }
+
+    @Test
+    public void queued_audios_play_before_the_playlist() {
+        JcAudio queued = new JcAudio("Queued", "queued.mp3", Origin.ASSETS);
+        order.setCurrent(playlist.get(4));
+        order.enqueue(queued);
+
+        assertSame(queued, order.peek(1));
+        assertSame(playlist.get(5), order.peek(2));
+        assertSame(queued, order.next());
+        assertSame(playlist.get(4), order.previous());
+        assertSame(playlist.get(5), order.next());
+        assertEquals(0, order.getQueueSize());
+    }
+
+    @Test
+    public void empty_playlist_has_nothing_to_play() {
+        playlist.clear();
+        assertNull(order.next());
+        assertNull(order.previous());
+        assertNull(order.peek(1));
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JcPlaybackClockTest {
+    private long now = 1000;
+    private final JcClock clock = new JcClock() {
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+
+        @Override
+        public long nanoTime() {
+            return now * 1000000;
+        }
+    };
+    private final JcPlaybackClock playbackClock = new JcPlaybackClock(clock);
+
+    @Test
+    public void position_moves_on_from_the_anchor_while_running() {
+        playbackClock.anchor(5000, true);
+        now += 1500;
+
+        assertEquals(6500, playbackClock.getPosition());
+    }
+
+    @Test
+    public void position_stays_at_the_anchor_while_stopped() {
+        playbackClock.anchor(5000, false);
+        now += 1500;
+
+        assertEquals(5000, playbackClock.getPosition());
+        assertFalse(playbackClock.isResyncDue());
+    }
+
+    @Test
+    public void position_follows_the_speed_and_stops_at_the_duration() {
+        playbackClock.setDuration(10000);
+        playbackClock.anchor(0, true);
+        now += 1000;
+        playbackClock.setSpeed(2f);
+        now += 1000;
+
+        assertEquals(3000, playbackClock.getPosition());
+
+        now += 10000;
+        assertEquals(10000, playbackClock.getPosition());
+    }
+
+    @Test
+    public void resync_is_due_after_the_interval() {
+        playbackClock.anchor(0, true);
+        now += JcPlaybackClock.DEFAULT_RESYNC_INTERVAL - 1;
+        assertFalse(playbackClock.isResyncDue());
+
+        now += 1;
+        assertTrue(playbackClock.isResyncDue());
+    }
+
+    @Test
+    public void drift_makes_resyncs_more_frequent_until_the_clock_keeps_up() {
+        playbackClock.anchor(0, true);
+        now += 2000;
+
+        assertEquals(-500, playbackClock.resync(1500)); // The player stalled for half a second.
+        assertEquals(1, playbackClock.getResyncCount());
+        assertEquals(500, playbackClock.getMaxDrift());
+
+        now += JcPlaybackClock.MIN_RESYNC_INTERVAL;
+        assertTrue(playbackClock.isResyncDue());
+        assertEquals(0, playbackClock.resync(1500 + JcPlaybackClock.MIN_RESYNC_INTERVAL));
+
+        // Backs off by doubling the interval.
+        now += JcPlaybackClock.MIN_RESYNC_INTERVAL;
+        assertFalse(playbackClock.isResyncDue());
+        now += JcPlaybackClock.MIN_RESYNC_INTERVAL;
+        assertTrue(playbackClock.isResyncDue());
+    }
+}
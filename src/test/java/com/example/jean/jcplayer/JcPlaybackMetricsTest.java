@@ -0,0 +1,79 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JcPlaybackMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void time_to_first_audio_is_kept_per_origin() {
+        JcPlaybackMetrics metrics = new JcPlaybackMetrics();
+        metrics.getTimeToFirstAudio(Origin.URL).record(800);
+        metrics.getTimeToFirstAudio(Origin.URL).record(1200);
+        metrics.getTimeToFirstAudio(Origin.RAW).record(30);
+
+        assertEquals(2, metrics.getTimeToFirstAudio(Origin.URL).getCount());
+        assertEquals(1000, metrics.getTimeToFirstAudio(Origin.URL).getMean());
+        assertEquals(1, metrics.getTimeToFirstAudio(Origin.RAW).getCount());
+        assertEquals(0, metrics.getTimeToFirstAudio(Origin.ASSETS).getCount());
+    }
+
+    @Test
+    public void snapshot_does_not_change_afterwards() {
+        JcPlaybackMetrics metrics = new JcPlaybackMetrics();
+        metrics.getRebufferDuration().record(400);
+        metrics.recordError();
+
+        JcPlaybackMetrics snapshot = metrics.snapshot();
+        metrics.getRebufferDuration().record(900);
+        metrics.recordError();
+
+        assertEquals(1, snapshot.getRebufferDuration().getCount());
+        assertEquals(400, snapshot.getRebufferDuration().getMax());
+        assertEquals(1, snapshot.getErrorCount());
+        assertEquals(2, metrics.getRebufferDuration().getCount());
+    }
+
+    @Test
+    public void reset_clears_every_histogram() {
+        JcPlaybackMetrics metrics = new JcPlaybackMetrics();
+        metrics.getPrepareLatency().record(10);
+        metrics.getSeekLatency().record(20);
+        metrics.getTrackGap().record(30);
+        metrics.getListenerDispatchTime().record(40);
+        metrics.recordError();
+
+        metrics.reset();
+
+        assertEquals(0, metrics.getPrepareLatency().getCount());
+        assertEquals(0, metrics.getSeekLatency().getCount());
+        assertEquals(0, metrics.getTrackGap().getCount());
+        assertEquals(0, metrics.getListenerDispatchTime().getCount());
+        assertEquals(0, metrics.getErrorCount());
+    }
+
+    @Test
+    public void periodic_dump_appends_to_the_file() throws Exception {
+        JcPlaybackMetrics metrics = new JcPlaybackMetrics();
+        metrics.getPrepareLatency().record(15);
+        File file = new File(folder.getRoot(), "metrics.txt");
+
+        metrics.startPeriodicDump(10, file);
+        for (int i = 0; i < 200 && file.length() == 0; i++) {
+            Thread.sleep(10);
+        }
+        metrics.stopPeriodicDump();
+
+        assertTrue(file.length() > 0);
+        assertTrue(metrics.toString().contains("prepare_latency count=1 mean=15"));
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JcPlaybackTickerTest {
+
+    private JcSimulation simulation;
+    private JcPlaybackCommandQueue commandQueue;
+    private int ticks;
+    private JcPlaybackTicker ticker;
+
+    @Before
+    public void setUp() {
+        simulation = new JcSimulation();
+        commandQueue = new JcPlaybackCommandQueue(simulation, simulation);
+        ticker = new JcPlaybackTicker(new Runnable() {
+            @Override
+            public void run() {
+                ticks++;
+            }
+        }, commandQueue);
+    }
+
+    @Test
+    public void rapid_restarts_keep_a_single_tick_schedule() {
+        for (int i = 0; i < 50; i++) {
+            ticker.start();
+            ticker.start();
+            ticker.stop();
+            ticker.start();
+        }
+        assertTrue(ticker.isRunning());
+
+        // One tick right away, then one every 200 ms.
+        simulation.advance(1000);
+        assertEquals(6, ticks);
+    }
+
+    @Test
+    public void ticks_while_running_and_stops_when_stopped() {
+        ticker.setInterval(5);
+        ticker.start();
+        simulation.advance(10);
+        assertEquals(3, ticks);
+
+        ticker.stop();
+        simulation.advance(100);
+        assertFalse(ticker.isRunning());
+        assertEquals(3, ticks);
+    }
+
+    @Test
+    public void ticks_run_between_the_commands_on_the_queue() {
+        ticker.start();
+        simulation.advance(1000);
+
+        assertEquals(ticks, commandQueue.getCount(JcPlaybackCommandQueue.TICK));
+    }
+
+    @Test
+    public void failing_tick_does_not_cancel_the_schedule() {
+        ticker = new JcPlaybackTicker(new Runnable() {
+            @Override
+            public void run() {
+                ticks++;
+                throw new IllegalStateException("MediaPlayer released");
+            }
+        }, commandQueue);
+        ticker.setInterval(5);
+        ticker.start();
+        simulation.advance(10);
+
+        assertEquals(3, ticks);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_non_positive_interval() {
+        ticker.setInterval(0);
+    }
+}
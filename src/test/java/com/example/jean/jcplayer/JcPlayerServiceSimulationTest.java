@@ -0,0 +1,358 @@
+package com.example.jean.jcplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link JcPlayerService} on a {@link JcSimulation} with {@link JcFakeMediaPlayer}s, so
+ * its timing can be checked without a device. Every test runs in virtual time.
+ */
+public class JcPlayerServiceSimulationTest {
+    private static final int AUDIO_COUNT = 40;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private JcSimulation simulation;
+    private JcFakeMediaPlayer.Engine engine;
+    private JcPlayerService service;
+    private Recorder recorder;
+    private List<JcAudio> audios;
+
+    /**
+     * Counts what the listeners receive. Plays the next audio on completion when a playlist is
+     * set, like {@link JcPlayerView} does.
+     */
+    private class Recorder implements JcPlayerView.JcPlayerViewServiceListener,
+            JcPlayerView.JcPlayerViewBufferingStatusListener {
+        List<JcAudio> playlist;
+        int preparedCount;
+        int completedCount;
+        int timeChangedCount;
+        int stalledCount;
+        int stallEndedCount;
+        String lastPreparedTitle;
+
+        @Override
+        public void onPreparedAudio(String audioName, int duration) {
+            preparedCount++;
+            lastPreparedTitle = audioName;
+        }
+
+        @Override
+        public void onCompletedAudio() {
+            completedCount++;
+            if (playlist != null) {
+                int next = playlist.indexOf(service.getCurrentAudio()) + 1;
+                if (next < playlist.size()) {
+                    service.play(playlist.get(next));
+                }
+            }
+        }
+
+        @Override
+        public void onPaused() {
+        }
+
+        @Override
+        public void onContinueAudio() {
+        }
+
+        @Override
+        public void onPlaying() {
+        }
+
+        @Override
+        public void onTimeChanged(long currentTime) {
+            timeChangedCount++;
+        }
+
+        @Override
+        public void updateTitle(String title) {
+        }
+
+        @Override
+        public void onStalledStatus(JcStatus jcStatus) {
+            stalledCount++;
+        }
+
+        @Override
+        public void onStallEndedStatus(JcStatus jcStatus) {
+            stallEndedCount++;
+        }
+
+        @Override
+        public void onPausedStatus(JcStatus jcStatus) {
+        }
+
+        @Override
+        public void onContinueAudioStatus(JcStatus jcStatus) {
+        }
+
+        @Override
+        public void onPlayingStatus(JcStatus jcStatus) {
+        }
+
+        @Override
+        public void onTimeChangedStatus(JcStatus jcStatus) {
+        }
+
+        @Override
+        public void onCompletedAudioStatus(JcStatus jcStatus) {
+        }
+
+        @Override
+        public void onPreparedAudioStatus(JcStatus jcStatus) {
+        }
+    }
+
+    @Before
+    public void setUp() {
+        simulation = new JcSimulation();
+        engine = new JcFakeMediaPlayer.Engine(simulation);
+        service = new JcPlayerService(simulation, simulation,
+                new JcMediaPlayerPool(JcMediaPlayerPool.DEFAULT_MAX_IDLE, engine));
+        service.init(new File(folder.getRoot(), "resume.journal"));
+        recorder = new Recorder();
+        service.registerServicePlayerListener(recorder);
+        service.registerStatusListener(recorder);
+
+        audios = new ArrayList<>();
+        for (int i = 0; i < AUDIO_COUNT; i++) {
+            audios.add(new JcAudio("Audio " + i, "https://example.com/audio" + i + ".mp3", i, i, Origin.URL));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        service.release();
+        simulation.runDue();
+    }
+
+    @Test
+    public void skip_storm_prepares_only_the_last_audio() {
+        for (JcAudio audio : audios) {
+            service.play(audio);
+        }
+        simulation.advance(1000);
+
+        assertEquals(AUDIO_COUNT - 1, service.getSupersededPlayCount());
+        assertEquals(1, engine.prepareCount);
+        assertEquals(1, recorder.preparedCount);
+        assertEquals("Audio 39", recorder.lastPreparedTitle);
+        assertEquals(100, service.getFirstAudioStartedAt());
+    }
+
+    @Test
+    public void skips_during_prepare_reuse_one_player() {
+        for (JcAudio audio : audios) {
+            service.play(audio);
+            simulation.advance(20); // Faster than the 100 ms prepare.
+        }
+        simulation.advance(1000);
+
+        assertEquals(0, service.getSupersededPlayCount());
+        assertEquals(AUDIO_COUNT, engine.prepareCount);
+        assertEquals(1, engine.preparedCount);
+        assertEquals(1, recorder.preparedCount);
+        assertEquals(1, engine.players.size());
+        assertEquals(1, service.getPlayerPoolMissCount());
+        assertEquals(AUDIO_COUNT - 1, service.getPlayerPoolHitCount());
+    }
+
+    @Test
+    public void replay_requested_as_the_prepare_ends_starts_the_audio() {
+        service.play(audios.get(0));
+        // Scheduled before the prepare, so it runs first when both are due: the request is made
+        // before onPrepared and its command runs after it.
+        simulation.schedule(new Runnable() {
+            @Override
+            public void run() {
+                service.play(audios.get(0));
+            }
+        }, 100, TimeUnit.MILLISECONDS);
+        simulation.advance(1000);
+
+        assertEquals(1, engine.prepareCount);
+        assertEquals(1, recorder.preparedCount);
+        assertEquals(100, service.getFirstAudioStartedAt());
+        assertEquals(900, service.getCurrentPosition());
+    }
+
+    @Test
+    public void seek_drag_keeps_one_seek_in_flight() {
+        service.play(audios.get(0));
+        simulation.advance(1000);
+
+        // A 1.6 second drag with a progress event per frame, seeks take 50 ms.
+        for (int i = 0; i < 100; i++) {
+            service.previewSeekTo(i * 1000);
+            simulation.advance(16);
+        }
+        service.seekTo(120000);
+        simulation.advance(200);
+
+        assertTrue("Seeks: " + engine.seekCount, engine.seekCount <= 1600 / 50 + 2);
+        int position = engine.players.get(0).getCurrentPosition();
+        assertTrue("Position: " + position, position >= 120000 && position <= 120200);
+        assertTrue(service.getSeekLatencyHistogram().getCount() >= 1);
+    }
+
+    @Test
+    public void long_session_ticks_on_the_virtual_clock_without_threads() {
+        recorder.playlist = audios;
+        service.play(audios.get(0));
+        simulation.advance(AUDIO_COUNT * (180000 + 100) + 1000); // Two hours of audio.
+
+        assertEquals(AUDIO_COUNT, engine.completionCount);
+        assertEquals(AUDIO_COUNT, recorder.preparedCount);
+        assertEquals(AUDIO_COUNT - 1, service.getPlaybackMetrics().getTrackGap().getCount());
+        assertEquals(100, service.getAverageTrackGap());
+
+        // One tick every 200 ms of playback, give or take one per audio.
+        int expectedTicks = AUDIO_COUNT * 180000 / 200;
+        assertTrue("Ticks: " + recorder.timeChangedCount,
+                Math.abs(recorder.timeChangedCount - expectedTicks) <= AUDIO_COUNT);
+
+        assertEquals(1, engine.players.size());
+        assertFalse(isThreadAlive("JcPlayback"));
+        assertEquals(0, service.getPlaybackMetrics().getErrorCount());
+    }
+
+    @Test
+    public void play_long_after_a_completion_is_not_a_track_gap() {
+        service.play(audios.get(0));
+        simulation.advance(180000 + 100 + 60000);
+        assertEquals(1, recorder.completedCount);
+
+        service.play(audios.get(1));
+        simulation.advance(1000);
+
+        assertEquals(2, recorder.preparedCount);
+        assertEquals(-1, service.getLastTrackGap());
+        assertEquals(0, service.getPlaybackMetrics().getTrackGap().getCount());
+    }
+
+    @Test
+    public void ticks_read_the_position_from_the_playback_clock() {
+        service.play(audios.get(0));
+        simulation.advance(60000);
+
+        // 300 ticks, the player is only asked on resyncs and state changes.
+        assertTrue("Ticks: " + recorder.timeChangedCount, recorder.timeChangedCount >= 295);
+        assertTrue("Position reads: " + engine.positionReadCount, engine.positionReadCount <= 60000 / 2000 + 5);
+        assertEquals(0, service.getMaxPositionDrift());
+        assertEquals(59900, service.getCurrentPosition()); // Prepared in 100 ms.
+
+        service.seekTo(120000);
+        simulation.advance(1000);
+        assertEquals(120950, service.getCurrentPosition()); // Seeks take 50 ms.
+    }
+
+    @Test
+    public void stuck_subscriber_keeps_a_bounded_mailbox_and_delays_nobody() {
+        final List<Runnable> neverRun = new ArrayList<>();
+        JcSubscription subscription = service.subscribe(recorder, JcSubscription.EVENT_ALL, 0, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                neverRun.add(runnable);
+            }
+        });
+        service.play(audios.get(0));
+        simulation.advance(60000);
+
+        assertTrue("Ticks: " + recorder.timeChangedCount, recorder.timeChangedCount >= 295);
+        assertEquals(1, neverRun.size());
+        // Playing and prepared are kept, only the newest time updates are.
+        assertEquals(2 + JcSubscription.DEFAULT_MAILBOX_CAPACITY, subscription.getMailboxSize());
+        assertEquals(recorder.timeChangedCount - JcSubscription.DEFAULT_MAILBOX_CAPACITY,
+                subscription.getDroppedCount());
+
+        subscription.cancel();
+        simulation.advance(1000);
+        assertTrue(service.getSubscriptions().isEmpty());
+    }
+
+    @Test
+    public void slow_download_stalls_and_records_rebuffers() {
+        engine.defaultScript.downloadRate = 0.8;
+        service.play(audios.get(0));
+        simulation.advance(400000);
+
+        assertEquals(1, engine.completionCount);
+        assertTrue(engine.stallCount > 0);
+        assertEquals(engine.stallCount, recorder.stalledCount);
+        assertEquals(engine.stallCount, recorder.stallEndedCount);
+
+        // Each stall lasts until 2 more seconds are downloaded, 2.5 seconds at this rate.
+        JcLatencyHistogram rebuffers = service.getPlaybackMetrics().getRebufferDuration();
+        assertEquals(engine.stallCount, rebuffers.getCount());
+        assertTrue("Mean rebuffer: " + rebuffers.getMean(),
+                rebuffers.getMean() >= 2000 && rebuffers.getMean() <= 3000);
+    }
+
+    @Test
+    public void adaptive_start_waits_until_enough_is_buffered() {
+        engine.defaultScript.downloadRate = 0.95;
+        service.setAdaptiveStartLeadTime(8000);
+        service.play(audios.get(0));
+        simulation.advance(400000);
+
+        // Started by a buffering update, well after the prepare and before the 10 second fallback.
+        long startedAt = service.getFirstAudioStartedAt();
+        assertTrue("Started at: " + startedAt, startedAt > 5000 && startedAt < 10000 && startedAt % 1000 == 0);
+        assertTrue("Stalls: " + engine.stallCount, engine.stallCount <= 1);
+        assertEquals(1, engine.completionCount);
+    }
+
+    @Test
+    public void prepare_error_is_counted_and_the_next_audio_plays() {
+        engine.script(audios.get(0).getPath()).failsToPrepare = true;
+        recorder.playlist = audios.subList(0, 2);
+        service.play(audios.get(0));
+        simulation.advance(1000);
+
+        assertEquals(1, service.getPlaybackMetrics().getErrorCount());
+        assertEquals(1, recorder.preparedCount);
+        assertEquals("Audio 1", recorder.lastPreparedTitle);
+    }
+
+    @Test
+    public void scheduled_callable_returns_its_value_once_due() throws Exception {
+        ScheduledFuture<Long> future = simulation.schedule(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return simulation.elapsedRealtime();
+            }
+        }, 500, TimeUnit.MILLISECONDS);
+        simulation.advance(499);
+        assertFalse(future.isDone());
+
+        simulation.advance(1);
+        assertEquals(Long.valueOf(500), future.get());
+    }
+
+    private static boolean isThreadAlive(String namePrefix) {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(namePrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JcPlaylistFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void audios_are_read_back_from_the_file() throws IOException {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            audios.add(new JcAudio("Track " + i, "https://example.com/" + i + ".mp3", i * 3, i, Origin.URL));
+        }
+        audios.add(new JcAudio(null, "song.mp3", 5000, 1000, Origin.ASSETS));
+
+        List<JcAudio> mapped = write(audios);
+
+        assertEquals(audios.size(), mapped.size());
+        for (int i = 0; i < audios.size(); i++) {
+            JcAudio audio = mapped.get(i);
+            assertEquals(audios.get(i).getId(), audio.getId());
+            assertEquals(audios.get(i).getPosition(), audio.getPosition());
+            assertEquals(audios.get(i).getTitle(), audio.getTitle());
+            assertEquals(audios.get(i).getPath(), audio.getPath());
+            assertEquals(audios.get(i).getOrigin(), audio.getOrigin());
+        }
+        assertNull(mapped.get(1000).getTitle());
+    }
+
+    @Test
+    public void audios_are_found_by_id() throws IOException {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            audios.add(new JcAudio("Track " + i, "track.mp3", 1000 - i, i, Origin.ASSETS));
+        }
+        JcMappedPlaylist mapped = (JcMappedPlaylist) write(audios);
+
+        assertEquals(42, mapped.indexOfId(958));
+        assertEquals(-1, mapped.indexOfId(5));
+        assertTrue(mapped.contains(audios.get(7)));
+    }
+
+    @Test
+    public void missing_and_duplicate_ids_are_replaced() throws IOException {
+        List<JcAudio> mapped = write(Arrays.asList(
+                new JcAudio("First", "a.mp3", Origin.ASSETS),
+                new JcAudio("Second", "b.mp3", 4, 1, Origin.ASSETS),
+                new JcAudio("Third", "c.mp3", 4, 2, Origin.ASSETS)));
+
+        assertEquals(5, mapped.get(0).getId());
+        assertEquals(0, mapped.get(0).getPosition());
+        assertEquals(4, mapped.get(1).getId());
+        assertEquals(6, mapped.get(2).getId());
+    }
+
+    @Test
+    public void repeated_strings_are_stored_once() throws IOException {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            audios.add(new JcAudio("A rather long album title", "a/rather/long/path.mp3", i, i, Origin.ASSETS));
+        }
+        File file = folder.newFile();
+        JcPlaylistFile.write(file, audios);
+
+        long strings = "A rather long album title".length() + "a/rather/long/path.mp3".length();
+        long expected = JcPlaylistFile.HEADER_SIZE + 100 * JcPlaylistFile.RECORD_SIZE + 256 * 4 + 3 * 4 + strings;
+        assertEquals(expected, file.length());
+    }
+
+    @Test
+    public void playlist_reads_the_file_until_it_changes() throws IOException {
+        List<JcAudio> audios = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            audios.add(new JcAudio("Track " + i, "track" + i + ".mp3", i, i, Origin.ASSETS));
+        }
+        JcPlaylist playlist = new JcPlaylist(write(audios));
+
+        JcAudio third = playlist.get(2);
+        assertSame(third, playlist.getById(2));
+        assertTrue(playlist.contains(third));
+        assertTrue(playlist.setCurrent(third));
+        assertEquals("Track 3", playlist.getNext().getTitle());
+
+        playlist.remove(0);
+        assertEquals(9, playlist.size());
+        assertEquals(1, playlist.getCurrentIndex());
+        assertEquals("Track 3", playlist.getNext().getTitle());
+
+        JcAudio added = new JcAudio("Added", "added.mp3", Origin.ASSETS);
+        playlist.add(added);
+        assertEquals(10, added.getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void other_files_are_rejected() throws IOException {
+        File file = folder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[64]);
+        out.close();
+        JcPlaylistFile.open(file);
+    }
+
+    private List<JcAudio> write(List<JcAudio> audios) throws IOException {
+        File file = folder.newFile();
+        JcPlaylistFile.write(file, audios);
+        return JcPlaylistFile.open(file);
+    }
+}
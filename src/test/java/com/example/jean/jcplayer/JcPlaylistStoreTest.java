@@ -0,0 +1,35 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class JcPlaylistStoreTest {
+
+    @Test
+    public void handle_resolves_to_the_same_playlist() {
+        JcPlaylist playlist = new JcPlaylist();
+        int handle = JcPlaylistStore.register(playlist);
+
+        playlist.add(new JcAudio("Added later", "audio.mp3", Origin.ASSETS));
+        assertSame(playlist, JcPlaylistStore.get(handle));
+
+        JcPlaylistStore.unregister(handle);
+        assertNull(JcPlaylistStore.get(handle));
+    }
+
+    @Test
+    public void every_playlist_gets_its_own_handle() {
+        int first = JcPlaylistStore.register(new JcPlaylist());
+        int second = JcPlaylistStore.register(new JcPlaylist());
+
+        assertNotEquals(first, second);
+        assertNotEquals(JcPlaylistStore.NO_HANDLE, first);
+        assertNull(JcPlaylistStore.get(JcPlaylistStore.NO_HANDLE));
+
+        JcPlaylistStore.unregister(first);
+        JcPlaylistStore.unregister(second);
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JcPlaylistTest {
+
+    @Test
+    public void behaves_like_an_array_list() {
+        Random random = new Random(7);
+        List<JcAudio> expected = new ArrayList<>();
+        JcPlaylist playlist = new JcPlaylist();
+
+        for (int i = 0; i < 20000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 5 || expected.isEmpty()) {
+                JcAudio audio = audio(i);
+                int index = random.nextInt(20) == 0 ? random.nextInt(expected.size() + 1) : expected.size();
+                expected.add(index, audio);
+                playlist.add(index, audio);
+            } else if (operation < 9) {
+                int index = random.nextInt(expected.size());
+                assertSame(expected.remove(index), playlist.remove(index));
+            } else {
+                int index = random.nextInt(expected.size());
+                JcAudio audio = audio(i);
+                assertSame(expected.set(index, audio), playlist.set(index, audio));
+            }
+
+            if (i % 500 == 0) {
+                assertEquals(expected, playlist);
+            }
+        }
+
+        assertEquals(expected, playlist);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(i, playlist.indexOf(expected.get(i)));
+            assertTrue(playlist.contains(expected.get(i)));
+        }
+    }
+
+    @Test
+    public void ids_stay_unique() {
+        List<JcAudio> audios = new ArrayList<>();
+        audios.add(audio(-1));
+        audios.add(audio(3));
+        audios.add(audio(3));
+        JcPlaylist playlist = new JcPlaylist(audios);
+        playlist.add(audio(7));
+        playlist.add(audio(-1));
+
+        Set<Long> ids = new HashSet<>();
+        for (JcAudio audio : playlist) {
+            assertTrue(ids.add(audio.getId()));
+            assertSame(audio, playlist.getById(audio.getId()));
+        }
+        assertEquals(3, playlist.get(1).getId());
+    }
+
+    @Test
+    public void adding_a_taken_id_fails_and_removed_ids_are_not_reused() {
+        JcPlaylist playlist = new JcPlaylist();
+        playlist.add(audio(1));
+        playlist.add(audio(2));
+        try {
+            playlist.add(audio(2));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals(2, playlist.size());
+        }
+
+        playlist.remove(1);
+        JcAudio added = audio(-1);
+        playlist.add(added);
+        assertEquals(3, added.getId());
+
+        playlist.clear();
+        added = audio(-1);
+        playlist.add(added);
+        assertEquals(4, added.getId());
+    }
+
+    @Test
+    public void contains_only_matches_the_same_audio() {
+        JcPlaylist playlist = new JcPlaylist();
+        JcAudio audio = audio(1);
+        playlist.add(audio);
+
+        assertTrue(playlist.contains(audio));
+        assertFalse(playlist.contains(audio(1)));
+        assertFalse(playlist.contains("1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void same_audio_cannot_be_added_twice() {
+        JcPlaylist playlist = new JcPlaylist();
+        JcAudio audio = audio(1);
+        playlist.add(audio);
+        playlist.add(audio);
+    }
+
+    @Test
+    public void tracks_the_current_audio() {
+        JcPlaylist playlist = playlist(5);
+        assertSame(playlist.get(0), playlist.getNext());
+
+        assertTrue(playlist.setCurrent(playlist.get(2)));
+        assertEquals(2, playlist.getCurrentIndex());
+        assertSame(playlist.get(3), playlist.getNext());
+        assertSame(playlist.get(1), playlist.getPrevious());
+
+        playlist.remove(0);
+        assertEquals(1, playlist.getCurrentIndex());
+        assertSame(playlist.get(2), playlist.getNext());
+
+        assertTrue(playlist.setCurrent(playlist.get(3)));
+        assertNull(playlist.getNext());
+        assertFalse(playlist.setCurrent(audio(9)));
+        assertEquals(3, playlist.getCurrentIndex());
+    }
+
+    @Test
+    public void removing_the_current_audio_keeps_its_neighbours() {
+        JcPlaylist playlist = playlist(200);
+        JcAudio before = playlist.get(49);
+        JcAudio after = playlist.get(51);
+        playlist.setCurrent(playlist.get(50));
+
+        playlist.remove(50);
+        assertNull(playlist.getCurrent());
+        assertSame(after, playlist.getNext());
+        assertSame(before, playlist.getPrevious());
+
+        // Compaction moves the audios to other slots.
+        for (int i = 0; i < 100; i++) {
+            playlist.remove(playlist.size() - 1);
+        }
+        assertSame(before, playlist.getPrevious());
+        assertEquals(playlist.indexOf(before), playlist.getCurrentIndex());
+    }
+
+    @Test
+    public void inserts_keep_the_current_audio() {
+        JcPlaylist playlist = playlist(100);
+        JcAudio current = playlist.get(60);
+        playlist.setCurrent(current);
+        playlist.remove(40);
+        playlist.remove(70);
+
+        playlist.add(40, audio(1000)); // Takes the empty slot of the removal.
+        playlist.add(50, audio(1001)); // Shifts the current audio up to the other empty slot.
+        playlist.add(0, audio(1002)); // No empty slot left, shifts every audio.
+
+        assertSame(current, playlist.getCurrent());
+        assertEquals(62, playlist.getCurrentIndex());
+        assertSame(playlist.get(63), playlist.getNext());
+        assertSame(playlist.get(61), playlist.getPrevious());
+        for (int i = 0; i < playlist.size(); i++) {
+            assertEquals(i, playlist.indexOf(playlist.get(i)));
+        }
+    }
+
+    private static JcPlaylist playlist(int size) {
+        JcPlaylist playlist = new JcPlaylist();
+        for (int i = 0; i < size; i++) {
+            playlist.add(audio(i));
+        }
+        return playlist;
+    }
+
+    private static JcAudio audio(long id) {
+        return new JcAudio("Audio " + id, "audio" + id + ".mp3", id, (int) id, Origin.ASSETS);
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JcResumeJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void new_journal_has_no_resume_point() throws Exception {
+        JcResumeJournal journal = new JcResumeJournal(new File(folder.getRoot(), "journal"));
+        assertNull(journal.getResumePoint());
+        journal.close();
+    }
+
+    @Test
+    public void last_checkpoint_is_restored() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 1024);
+        journal.checkpoint(7, 1000, true);
+        journal.flush().get();
+        journal.checkpoint(7, 2000, true);
+        journal.checkpoint(8, 300, false);
+        journal.flush().get();
+        close(journal);
+
+        JcResumePoint resumePoint = new JcResumeJournal(file).getResumePoint();
+        assertEquals(8, resumePoint.getAudioId());
+        assertEquals(300, resumePoint.getPosition());
+        assertFalse(resumePoint.isPlaying());
+        assertTrue(resumePoint.getSavedAt() > 0);
+    }
+
+    @Test
+    public void restored_callback_runs_once_the_journal_is_read() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 1024);
+        journal.checkpoint(7, 1000, true);
+        close(journal);
+
+        final JcResumeJournal reopened = new JcResumeJournal(file);
+        final CountDownLatch restored = new CountDownLatch(1);
+        final AtomicBoolean wasRestored = new AtomicBoolean();
+        reopened.whenRestored(new Runnable() {
+            @Override
+            public void run() {
+                wasRestored.set(reopened.isRestored());
+                restored.countDown();
+            }
+        });
+
+        assertTrue(restored.await(5, TimeUnit.SECONDS));
+        assertTrue(wasRestored.get());
+        assertEquals(1000, reopened.getResumePoint().getPosition());
+        reopened.close();
+    }
+
+    @Test
+    public void checkpoints_between_flushes_write_one_record() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 1024);
+        for (int i = 0; i < 100; i++) {
+            journal.checkpoint(1, i * 200, true);
+        }
+        journal.flush().get();
+        journal.flush().get();
+
+        assertEquals(1, journal.getFlushCount());
+        assertEquals(JcResumeJournal.RECORD_SIZE, file.length());
+        journal.close();
+    }
+
+    @Test
+    public void close_writes_the_last_checkpoint() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 1024);
+        journal.checkpoint(3, 4500, true);
+        close(journal);
+
+        assertEquals(4500, new JcResumeJournal(file).getResumePoint().getPosition());
+    }
+
+    @Test
+    public void torn_record_is_skipped() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 1024);
+        journal.checkpoint(5, 100, true);
+        journal.flush().get();
+        journal.checkpoint(5, 200, true);
+        journal.flush().get();
+        close(journal);
+
+        // Crash in the middle of the next append: half a record with a bad checksum.
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.seek(JcResumeJournal.RECORD_SIZE);
+        out.write(new byte[JcResumeJournal.RECORD_SIZE / 2]);
+        out.close();
+
+        journal = new JcResumeJournal(file, 60000, 1024);
+        assertEquals(100, journal.getResumePoint().getPosition());
+        assertEquals(JcResumeJournal.RECORD_SIZE, file.length());
+
+        journal.checkpoint(5, 300, true);
+        journal.flush().get();
+        close(journal);
+        assertEquals(300, new JcResumeJournal(file).getResumePoint().getPosition());
+    }
+
+    @Test
+    public void journal_is_compacted() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 16);
+        for (int i = 1; i <= 40; i++) {
+            journal.checkpoint(2, i, true);
+            journal.flush().get();
+        }
+
+        assertEquals(2, journal.getCompactionCount());
+        assertEquals(10 * JcResumeJournal.RECORD_SIZE, file.length());
+        close(journal);
+        assertEquals(40, new JcResumeJournal(file).getResumePoint().getPosition());
+    }
+
+    @Test
+    public void failed_compaction_waits_before_the_next_try() throws Exception {
+        File file = new File(folder.getRoot(), "journal");
+        File blocker = new File(file.getPath() + ".tmp");
+        assertTrue(blocker.mkdir()); // The compacted file can't be created.
+
+        JcResumeJournal journal = new JcResumeJournal(file, 60000, 16);
+        for (int i = 1; i <= 40; i++) {
+            journal.checkpoint(2, i, true);
+            journal.flush().get();
+        }
+        assertEquals(2, journal.getFailedCompactionCount()); // At 16 and 32 records.
+        assertEquals(0, journal.getCompactionCount());
+        assertEquals(40 * JcResumeJournal.RECORD_SIZE, file.length());
+
+        assertTrue(blocker.delete());
+        for (int i = 41; i <= 48; i++) {
+            journal.checkpoint(2, i, true);
+            journal.flush().get();
+        }
+        assertEquals(1, journal.getCompactionCount());
+        assertEquals(JcResumeJournal.RECORD_SIZE, file.length());
+        close(journal);
+        assertEquals(48, new JcResumeJournal(file).getResumePoint().getPosition());
+    }
+
+    private static void close(JcResumeJournal journal) throws InterruptedException {
+        journal.close();
+        assertTrue(journal.awaitClosed(5000));
+    }
+}
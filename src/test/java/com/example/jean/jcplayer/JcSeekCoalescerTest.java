@@ -0,0 +1,91 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JcSeekCoalescerTest {
+
+    private List<Integer> issuedPositions;
+    private List<Boolean> issuedPrecise;
+    private boolean canSeek;
+    private JcLatencyHistogram histogram;
+    private JcSeekCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        issuedPositions = new ArrayList<>();
+        issuedPrecise = new ArrayList<>();
+        canSeek = true;
+        histogram = new JcLatencyHistogram();
+        coalescer = new JcSeekCoalescer(new JcSeekCoalescer.Seeker() {
+            @Override
+            public boolean seek(int position, boolean precise) {
+                if (!canSeek) {
+                    return false;
+                }
+                issuedPositions.add(position);
+                issuedPrecise.add(precise);
+                return true;
+            }
+        }, histogram);
+    }
+
+    @Test
+    public void drag_keeps_only_the_latest_target_while_seeking() {
+        coalescer.seekTo(1000, false);
+        for (int i = 1; i <= 100; i++) {
+            coalescer.seekTo(1000 + i * 10, false);
+        }
+        coalescer.seekTo(5000, true);
+
+        assertEquals(1, issuedPositions.size());
+
+        coalescer.onSeekComplete();
+        assertEquals(2, issuedPositions.size());
+        assertEquals(5000, (int) issuedPositions.get(1));
+        assertTrue(issuedPrecise.get(1));
+
+        coalescer.onSeekComplete();
+        assertFalse(coalescer.isSeeking());
+        assertEquals(102, coalescer.getRequestCount());
+        assertEquals(2, coalescer.getIssuedCount());
+    }
+
+    @Test
+    public void records_latency_once_the_last_target_is_reached() {
+        coalescer.seekTo(1000, true);
+        coalescer.seekTo(2000, true);
+        coalescer.onSeekComplete();
+        assertEquals(0, histogram.getCount());
+
+        coalescer.onSeekComplete();
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    public void seek_refused_by_player_is_not_in_flight() {
+        canSeek = false;
+        coalescer.seekTo(1000, true);
+
+        assertFalse(coalescer.isSeeking());
+        assertEquals(0, coalescer.getIssuedCount());
+    }
+
+    @Test
+    public void reset_drops_pending_seek() {
+        coalescer.seekTo(1000, true);
+        coalescer.seekTo(2000, true);
+        coalescer.reset();
+        coalescer.onSeekComplete();
+
+        assertEquals(1, issuedPositions.size());
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.jean.jcplayer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Virtual clock and single-threaded executor for simulations of {@link JcPlayerService}.
+ * Nothing runs until the test advances the clock, then tasks run on the test thread in the
+ * order of their due time, and in the order they were scheduled for the same time. Hours of
+ * playback take milliseconds and every run is the same.
+ */
+class JcSimulation extends AbstractExecutorService implements ScheduledExecutorService, JcClock {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>(16, new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.time != b.time) {
+                return a.time < b.time ? -1 : 1;
+            }
+            return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+        }
+    });
+    private long now;
+    private long nextSequence;
+    private long executedCount;
+    private boolean isShutdown;
+
+    private class Task implements ScheduledFuture<Object> {
+        final Runnable action;
+        final long period; // 0 to run once, positive for a fixed rate, negative for a fixed delay.
+        long time;
+        long sequence;
+        boolean isCancelled;
+        boolean isDone;
+        Object result; // Set by the action of a callable.
+        Exception failure;
+
+        Task(Runnable action, long time, long period) {
+            this.action = action;
+            this.time = time;
+            this.period = period;
+            this.sequence = nextSequence++;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long delay = getDelay(TimeUnit.MILLISECONDS);
+            long otherDelay = other.getDelay(TimeUnit.MILLISECONDS);
+            return delay < otherDelay ? -1 : delay == otherDelay ? 0 : 1;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (isDone) {
+                return false;
+            }
+            isCancelled = true;
+            isDone = true;
+            tasks.remove(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return isCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return isDone;
+        }
+
+        /**
+         * Nothing can run while the test thread waits, so the task must be done already.
+         */
+        @Override
+        public Object get() throws ExecutionException {
+            if (!isDone) {
+                throw new IllegalStateException("Task is not due yet, advance the simulation first");
+            }
+            return getResult();
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) throws ExecutionException, TimeoutException {
+            if (!isDone) {
+                throw new TimeoutException();
+            }
+            return getResult();
+        }
+
+        private Object getResult() throws ExecutionException {
+            if (isCancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public long elapsedRealtime() {
+        return now;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now * 1000000;
+    }
+
+    /**
+     * Move the clock forward, running every task due meanwhile.
+     *
+     * @param time in milliseconds.
+     */
+    void advance(long time) {
+        runUntil(now + time);
+    }
+
+    /**
+     * Run the tasks due until the given time, then set the clock to it.
+     */
+    void runUntil(long time) {
+        Task task;
+        while ((task = tasks.peek()) != null && task.time <= time) {
+            tasks.poll();
+            now = Math.max(now, task.time);
+            executedCount++;
+            task.action.run();
+            if (task.isCancelled) {
+                continue;
+            }
+            if (task.period == 0) {
+                task.isDone = true;
+            } else {
+                task.time = task.period > 0 ? task.time + task.period : now - task.period;
+                task.sequence = nextSequence++;
+                tasks.add(task);
+            }
+        }
+        now = Math.max(now, time);
+    }
+
+    /**
+     * Run the tasks that are due now, and the ones they schedule for now.
+     */
+    void runDue() {
+        runUntil(now);
+    }
+
+    /**
+     * @return how many tasks ran, periodic ones count once per run.
+     */
+    long getExecutedCount() {
+        return executedCount;
+    }
+
+    int getPendingCount() {
+        return tasks.size();
+    }
+
+    private Task add(Runnable action, long delay, long period) {
+        if (isShutdown) {
+            throw new IllegalStateException("Simulation executor was shut down");
+        }
+        Task task = new Task(action, now + Math.max(0, delay), period);
+        tasks.add(task);
+        return task;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return add(command, unit.toMillis(delay), 0);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> ScheduledFuture<V> schedule(final Callable<V> callable, long delay, TimeUnit unit) {
+        final Task[] task = new Task[1];
+        task[0] = add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task[0].result = callable.call();
+                } catch (Exception e) {
+                    task[0].failure = e;
+                }
+            }
+        }, unit.toMillis(delay), 0);
+        return (ScheduledFuture<V>) task[0];
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return add(command, unit.toMillis(initialDelay), Math.max(1, unit.toMillis(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        return add(command, unit.toMillis(initialDelay), -Math.max(1, unit.toMillis(delay)));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        add(command, 0, 0);
+    }
+
+    @Override
+    public void shutdown() {
+        isShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        isShutdown = true;
+        List<Runnable> pending = new ArrayList<>();
+        for (Task task : tasks) {
+            pending.add(task.action);
+        }
+        tasks.clear();
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return isShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return isShutdown && tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+}
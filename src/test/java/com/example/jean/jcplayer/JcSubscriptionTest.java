@@ -0,0 +1,189 @@
+package com.example.jean.jcplayer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JcSubscriptionTest {
+    private long now;
+    private final JcClock clock = new JcClock() {
+        @Override
+        public long elapsedRealtime() {
+            return now;
+        }
+
+        @Override
+        public long nanoTime() {
+            return now * 1000000;
+        }
+    };
+
+    /** Runs the drains only when the test says so, like a busy thread. */
+    private final List<Runnable> queued = new ArrayList<>();
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            queued.add(runnable);
+        }
+    };
+
+    private final List<String> received = new ArrayList<>();
+    private final JcStatus status = new JcStatus();
+
+    private class Listener implements JcPlayerView.JcPlayerViewStatusListener {
+        @Override
+        public void onPausedStatus(JcStatus jcStatus) {
+            received.add("paused " + jcStatus.getCurrentPosition());
+        }
+
+        @Override
+        public void onContinueAudioStatus(JcStatus jcStatus) {
+            received.add("continue " + jcStatus.getCurrentPosition());
+        }
+
+        @Override
+        public void onPlayingStatus(JcStatus jcStatus) {
+            received.add("playing " + jcStatus.getCurrentPosition());
+        }
+
+        @Override
+        public void onTimeChangedStatus(JcStatus jcStatus) {
+            received.add("time " + jcStatus.getCurrentPosition());
+        }
+
+        @Override
+        public void onCompletedAudioStatus(JcStatus jcStatus) {
+            received.add("completed " + jcStatus.getCurrentPosition());
+        }
+
+        @Override
+        public void onPreparedAudioStatus(JcStatus jcStatus) {
+            received.add("prepared " + jcStatus.getCurrentPosition());
+        }
+    }
+
+    private JcSubscription subscribe(int eventTypes, long minTimeInterval) {
+        return new JcSubscription(new Listener(), eventTypes, minTimeInterval, executor, 2, clock);
+    }
+
+    @Test
+    public void slow_listener_gets_the_newest_times_and_every_state_change() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_ALL, 0);
+
+        publish(subscription, JcSubscription.PREPARED, 0);
+        for (int i = 1; i <= 4; i++) {
+            publish(subscription, JcSubscription.TIME_CHANGED, i * 200);
+        }
+        publish(subscription, JcSubscription.PAUSED, 1000);
+        publish(subscription, JcSubscription.TIME_CHANGED, 1000);
+        runQueued();
+
+        assertEquals(Arrays.asList("prepared 0", "time 800", "paused 1000", "time 1000"), received);
+        assertEquals(3, subscription.getDroppedCount());
+        assertEquals(4, subscription.getDeliveredCount());
+        assertEquals(0, subscription.getMailboxSize());
+        assertEquals(4, subscription.getMaxMailboxSize());
+    }
+
+    @Test
+    public void one_drain_runs_at_a_time() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_STATE, 0);
+
+        publish(subscription, JcSubscription.PLAYING, 0);
+        publish(subscription, JcSubscription.PAUSED, 10);
+        assertEquals(1, queued.size());
+
+        runQueued();
+        publish(subscription, JcSubscription.CONTINUE, 10);
+        assertEquals(1, queued.size());
+        runQueued();
+
+        assertEquals(Arrays.asList("playing 0", "paused 10", "continue 10"), received);
+    }
+
+    @Test
+    public void unwanted_events_and_frequent_times_are_skipped() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_TIME, 1000);
+
+        publish(subscription, JcSubscription.PREPARED, 0);
+        for (int i = 0; i <= 10; i++) {
+            now = i * 200;
+            publish(subscription, JcSubscription.TIME_CHANGED, now);
+            runQueued();
+        }
+        // Not a buffering listener.
+        publish(subscription, JcSubscription.STALLED, 2000);
+        runQueued();
+
+        assertEquals(Arrays.asList("time 0", "time 1000", "time 2000"), received);
+    }
+
+    @Test
+    public void lag_is_measured_from_the_event_to_the_call() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_STATE, 0);
+
+        publish(subscription, JcSubscription.PLAYING, 0);
+        now += 300;
+        runQueued();
+
+        assertEquals(1, subscription.getLag().getCount());
+        assertEquals(300, subscription.getLag().getMax());
+    }
+
+    @Test
+    public void status_is_copied_when_published() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_STATE, 0);
+
+        publish(subscription, JcSubscription.PAUSED, 1000);
+        status.setCurrentPosition(5000); // The player moves on before the listener runs.
+        runQueued();
+
+        assertEquals(Arrays.asList("paused 1000"), received);
+    }
+
+    @Test
+    public void cancelled_subscription_drops_its_mailbox() {
+        JcSubscription subscription = subscribe(JcSubscription.EVENT_ALL, 0);
+
+        publish(subscription, JcSubscription.PLAYING, 0);
+        subscription.cancel();
+        publish(subscription, JcSubscription.PAUSED, 0);
+        runQueued();
+
+        assertTrue(received.isEmpty());
+        assertEquals(0, subscription.getMailboxSize());
+    }
+
+    @Test
+    public void failing_listener_keeps_getting_events() {
+        JcSubscription subscription = new JcSubscription(new Listener() {
+            @Override
+            public void onPlayingStatus(JcStatus jcStatus) {
+                throw new IllegalStateException("Listener bug");
+            }
+        }, JcSubscription.EVENT_STATE, 0, executor, 2, clock);
+
+        publish(subscription, JcSubscription.PLAYING, 0);
+        publish(subscription, JcSubscription.PAUSED, 0);
+        runQueued();
+
+        assertEquals(Arrays.asList("paused 0"), received);
+    }
+
+    private void publish(JcSubscription subscription, int method, long position) {
+        status.setCurrentPosition(position);
+        subscription.publish(method, status, now);
+    }
+
+    private void runQueued() {
+        while (!queued.isEmpty()) {
+            queued.remove(0).run();
+        }
+    }
+}
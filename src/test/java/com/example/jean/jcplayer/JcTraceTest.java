@@ -0,0 +1,88 @@
+package com.example.jean.jcplayer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JcTraceTest {
+
+    @Before
+    public void setUp() {
+        JcTrace.setCapacity(8);
+        JcTrace.setEnabled(true);
+    }
+
+    @After
+    public void tearDown() {
+        JcTrace.setEnabled(false);
+        JcTrace.setCapacity(JcTrace.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    public void events_are_exported_as_chrome_trace() {
+        JcTrace.begin("handlePlay");
+        JcTrace.beginAsync("prepare", 42);
+        JcTrace.end("handlePlay");
+        JcTrace.endAsync("prepare", 42);
+        JcTrace.instant("first \"tick\"");
+
+        String trace = JcTrace.toChromeTrace();
+
+        assertTrue(trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace.contains("\"name\":\"handlePlay\",\"cat\":\"jcplayer\",\"ph\":\"B\""));
+        assertTrue(trace.contains("\"ph\":\"b\""));
+        assertTrue(trace.contains("\"id\":42"));
+        assertTrue(trace.contains("\"name\":\"first \\\"tick\\\"\""));
+        assertTrue(trace.indexOf("\"ph\":\"B\"") < trace.indexOf("\"ph\":\"E\""));
+        assertEquals(5, JcTrace.getEventCount());
+    }
+
+    @Test
+    public void only_the_latest_events_are_kept() {
+        for (int i = 0; i < 20; i++) {
+            JcTrace.instant(i < 12 ? "old" : "new");
+        }
+
+        String trace = JcTrace.toChromeTrace();
+
+        assertEquals(8, JcTrace.getEventCount());
+        assertFalse(trace.contains("old"));
+        assertEquals(8, trace.split("\"new\"").length - 1);
+    }
+
+    @Test
+    public void nothing_is_recorded_when_disabled() {
+        JcTrace.setEnabled(false);
+        JcTrace.instant("ignored");
+
+        assertEquals(0, JcTrace.getEventCount());
+    }
+
+    @Test
+    public void concurrent_writers_do_not_lose_the_buffer() throws InterruptedException {
+        JcTrace.setCapacity(1024);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        JcTrace.begin("work");
+                        JcTrace.end("work");
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1024, JcTrace.getEventCount());
+        assertEquals(1024, JcTrace.toChromeTrace().split("\"work\"").length - 1);
+    }
+}